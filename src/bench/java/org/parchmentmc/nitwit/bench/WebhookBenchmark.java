@@ -0,0 +1,526 @@
+package org.parchmentmc.nitwit.bench;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.WebhookMain;
+import org.parchmentmc.nitwit.config.SecretsConfig;
+import org.parchmentmc.nitwit.config.WebhookConfig;
+import org.parchmentmc.nitwit.config.serializers.DurationSerializer;
+import org.parchmentmc.nitwit.util.pr.PullRequestStateStore;
+import org.parchmentmc.nitwit.webhook.SignatureVerifier;
+import org.parchmentmc.nitwit.webhook.server.WebhookServer;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.hocon.HoconConfigurationLoader;
+import org.spongepowered.configurate.serialize.TypeSerializerCollection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how many webhook deliveries per second the webhook server sustains.
+ *
+ * <p>A corpus of realistic GitHub payloads is signed with the webhook secret, and replayed by a number of keep-alive
+ * connections, either as fast as possible or at a fixed total rate. Unless a target URL is given, the server is
+ * started in this process on an ephemeral port, so the benchmark runs fully offline.</p>
+ *
+ * <p>With a fixed rate, latencies are measured from the time each request was scheduled to be sent rather than when
+ * it actually was, so a stalled server shows up in the latencies instead of only slowing the senders down.</p>
+ *
+ * <p>Run through {@code gradlew benchmark -PbenchmarkArgs="..."}; pass {@code --help} for the options. The process
+ * exits with status {@code 2} if any of the given thresholds is not met, for gating regressions.</p>
+ */
+public final class WebhookBenchmark {
+    private static final String DEFAULT_SECRET = "benchmark-secret";
+    private static final String DEFAULT_MIX = "ping=1,pull_request=4,pull_request_review=2,status=8";
+    private static final String[] CORPUS = {"ping", "pull_request", "pull_request_review", "status"};
+
+    private WebhookBenchmark() { // Prevent instantiation
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(1);
+            return;
+        }
+        if (options.help) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+
+        final List<Payload> payloads = createMix(loadCorpus(options.corpus), options.mix, options.secret);
+
+        @Nullable WebhookServer server = null;
+        final String host;
+        final int port;
+        if (options.target != null) {
+            host = options.target.getHostString();
+            port = options.target.getPort();
+        } else {
+            server = startServer(options.secret, options.serverConfig);
+            host = "localhost";
+            port = server.getAddress().getPort();
+        }
+
+        System.out.printf("Benchmarking %s:%s with %s connections, pipeline depth %s, %s, %s payloads in the mix%n",
+                host, port, options.connections, options.pipeline,
+                options.rate > 0 ? options.rate + " requests/s" : "unlimited rate", payloads.size());
+        if (options.warmup > 0) {
+            run(host, port, payloads, options.connections, options.pipeline, options.rate, options.warmup);
+        }
+        final Result result = run(host, port, payloads, options.connections, options.pipeline, options.rate,
+                options.requests);
+        System.out.println(result);
+
+        int status = 0;
+        if (options.minThroughput > 0 && result.throughput() < options.minThroughput) {
+            System.out.printf("FAILED: throughput %.0f requests/s is below %.0f requests/s%n", result.throughput(),
+                    options.minThroughput);
+            status = 2;
+        }
+        if (options.maxP99Millis > 0 && result.percentile(0.99) / 1e6 > options.maxP99Millis) {
+            System.out.printf("FAILED: p99 latency %.2fms is above %.2fms%n", result.percentile(0.99) / 1e6,
+                    options.maxP99Millis);
+            status = 2;
+        }
+        if (options.maxErrorRate >= 0 && result.errorRate() > options.maxErrorRate) {
+            System.out.printf("FAILED: error rate %.4f is above %.4f%n", result.errorRate(), options.maxErrorRate);
+            status = 2;
+        }
+
+        if (server != null) {
+            server.stop(Duration.ZERO);
+        }
+        System.exit(status); // Also runs the shutdown hooks of the server
+    }
+
+    private static WebhookServer startServer(String secret, @Nullable Path serverConfig) throws Exception {
+        System.setProperty("SECRETS.WEBHOOK_SECRET", secret);
+
+        // Default settings, except for an ephemeral port; the given file may override any of them
+        final HoconConfigurationLoader.Builder builder = HoconConfigurationLoader.builder()
+                .defaultOptions(ConfigurationOptions.defaults().serializers(TypeSerializerCollection.defaults()
+                        .childBuilder()
+                        .register(Duration.class, new DurationSerializer(false))
+                        .build()));
+        final CommentedConfigurationNode node = builder
+                .source(() -> new BufferedReader(new StringReader("port = 0")))
+                .build()
+                .load();
+        if (serverConfig != null) {
+            node.mergeFrom(builder.path(serverConfig).build().load());
+        }
+        final WebhookConfig config = Objects.requireNonNull(node.get(WebhookConfig.class));
+
+        return WebhookMain.start(config, SecretsConfig.EMPTY, new PullRequestStateStore(config.stateStoreMaxAge),
+                List.of(), null, false);
+    }
+
+    private static Map<String, byte[]> loadCorpus(@Nullable Path directory) throws IOException {
+        final Map<String, byte[]> corpus = new LinkedHashMap<>();
+        if (directory == null) {
+            for (String event : CORPUS) {
+                try (InputStream in = WebhookBenchmark.class.getResourceAsStream("corpus/" + event + ".json")) {
+                    corpus.put(event, Objects.requireNonNull(in, "Missing corpus payload: " + event).readAllBytes());
+                }
+            }
+            return corpus;
+        }
+        // Files are named after their event, optionally followed by a suffix, such as 'status.success.json'
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                corpus.put(fileName.substring(0, fileName.length() - ".json".length()), Files.readAllBytes(path));
+            }
+        }
+        return corpus;
+    }
+
+    private static List<Payload> createMix(Map<String, byte[]> corpus, String mix, String secret) {
+        final SignatureVerifier signer = new SignatureVerifier(secret.getBytes(StandardCharsets.UTF_8));
+        final List<Payload> payloads = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            final String[] entry = part.split("=", 2);
+            final String event = entry[0].trim();
+            final int weight = entry.length > 1 ? Integer.parseInt(entry[1].trim()) : 1;
+            boolean found = false;
+            for (Map.Entry<String, byte[]> payload : corpus.entrySet()) {
+                final String name = payload.getKey();
+                if (!name.equals(event) && !name.startsWith(event + '.')) {
+                    continue;
+                }
+                found = true;
+                final byte[] body = payload.getValue();
+                final Payload signed = new Payload(event, body, signer.sign(body, 0, body.length));
+                for (int i = 0; i < weight; i++) {
+                    payloads.add(signed);
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("No payload in the corpus for event '" + event + "'");
+            }
+        }
+        // Interleave the events, rather than sending all of one event type in a row
+        Collections.shuffle(payloads, new Random(0));
+        return payloads;
+    }
+
+    private static Result run(String host, int port, List<Payload> payloads, int connections, int pipeline,
+                              double rate, int requests) throws InterruptedException {
+        final AtomicLong next = new AtomicLong();
+        final Sender[] senders = new Sender[connections];
+        final Thread[] threads = new Thread[connections];
+        final long intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            senders[i] = new Sender(host, port, payloads, next, requests, pipeline, start, intervalNanos);
+            threads[i] = new Thread(senders[i], "benchmark-sender-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        final List<long[]> latencies = new ArrayList<>();
+        final Map<String, Integer> outcomes = new TreeMap<>();
+        int completed = 0;
+        for (Sender sender : senders) {
+            latencies.add(Arrays.copyOf(sender.latencies, sender.count));
+            completed += sender.count;
+            sender.outcomes.forEach((outcome, count) -> outcomes.merge(outcome, count, Integer::sum));
+        }
+        final long[] all = new long[completed];
+        int position = 0;
+        for (long[] part : latencies) {
+            System.arraycopy(part, 0, all, position, part.length);
+            position += part.length;
+        }
+        Arrays.sort(all);
+        return new Result(all, elapsed, outcomes);
+    }
+
+    /**
+     * A signed payload of the corpus.
+     */
+    record Payload(String event, byte[] body, String signature) {
+    }
+
+    /**
+     * A keep-alive connection, sending up to the pipeline depth of requests before reading their responses.
+     */
+    private static final class Sender implements Runnable {
+        private final String host;
+        private final int port;
+        private final List<Payload> payloads;
+        private final AtomicLong next;
+        private final long requests;
+        private final int pipeline;
+        private final long start;
+        private final long intervalNanos;
+
+        final long[] latencies;
+        int count;
+        final Map<String, Integer> outcomes = new TreeMap<>();
+
+        private @Nullable Socket socket;
+        private @Nullable OutputStream out;
+        private @Nullable InputStream in;
+
+        Sender(String host, int port, List<Payload> payloads, AtomicLong next, long requests, int pipeline, long start,
+               long intervalNanos) {
+            this.host = host;
+            this.port = port;
+            this.payloads = payloads;
+            this.next = next;
+            this.requests = requests;
+            this.pipeline = pipeline;
+            this.start = start;
+            this.intervalNanos = intervalNanos;
+            this.latencies = new long[(int) requests];
+        }
+
+        @Override
+        public void run() {
+            final Payload[] batch = new Payload[pipeline];
+            final long[] scheduled = new long[pipeline];
+            while (true) {
+                int size = 0;
+                long index;
+                while (size < pipeline && (index = next.getAndIncrement()) < requests) {
+                    batch[size] = payloads.get((int) (index % payloads.size()));
+                    scheduled[size] = System.nanoTime();
+                    if (intervalNanos > 0) {
+                        scheduled[size] = start + index * intervalNanos;
+                        long wait;
+                        while ((wait = scheduled[size] - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    size++;
+                }
+                if (size == 0) {
+                    break;
+                }
+
+                int answered = 0;
+                try {
+                    connect();
+                    for (int i = 0; i < size; i++) {
+                        write(batch[i]);
+                    }
+                    Objects.requireNonNull(out).flush();
+                    for (; answered < size; answered++) {
+                        if (in == null) {
+                            throw new EOFException("Connection closed before all pipelined responses were read");
+                        }
+                        final int code = readResponse(in);
+                        record(Integer.toString(code), scheduled[answered]);
+                    }
+                } catch (IOException e) {
+                    for (; answered < size; answered++) {
+                        record(e.getClass().getSimpleName(), scheduled[answered]);
+                    }
+                    closeConnection();
+                }
+            }
+            closeConnection();
+        }
+
+        private void record(String outcome, long scheduled) {
+            latencies[count++] = System.nanoTime() - scheduled;
+            outcomes.merge(outcome, 1, Integer::sum);
+        }
+
+        private void connect() throws IOException {
+            if (socket == null) {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            }
+        }
+
+        private void write(Payload payload) throws IOException {
+            final String head = "POST /webhook HTTP/1.1\r\n"
+                    + "Host: " + host + ':' + port + "\r\n"
+                    + "User-Agent: GitHub-Hookshot/benchmark\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + payload.body().length + "\r\n"
+                    + "X-GitHub-Event: " + payload.event() + "\r\n"
+                    + "X-GitHub-Delivery: " + UUID.randomUUID() + "\r\n"
+                    + "X-Hub-Signature-256: " + payload.signature() + "\r\n"
+                    + "\r\n";
+            Objects.requireNonNull(out).write(head.getBytes(StandardCharsets.ISO_8859_1));
+            out.write(payload.body());
+        }
+
+        private int readResponse(InputStream in) throws IOException {
+            final String statusLine = readLine(in);
+            final String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            final int code = Integer.parseInt(parts[1]);
+            long contentLength = 0;
+            boolean close = false;
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                final int colon = line.indexOf(':');
+                final String name = colon > 0 ? line.substring(0, colon).trim().toLowerCase(Locale.ROOT) : "";
+                final String value = colon > 0 ? line.substring(colon + 1).trim() : "";
+                if (name.equals("content-length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equals("connection") && value.equalsIgnoreCase("close")) {
+                    close = true;
+                }
+            }
+            in.skipNBytes(contentLength);
+            if (close) {
+                closeConnection();
+            }
+            return code;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            final StringBuilder builder = new StringBuilder(64);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    throw new EOFException("Connection closed while reading the response");
+                }
+                if (c != '\r') {
+                    builder.append((char) c);
+                }
+            }
+            return builder.toString();
+        }
+
+        private void closeConnection() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                socket = null;
+                out = null;
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * The result of a benchmark run.
+     *
+     * @param latencies    the sorted latencies of the requests, in nanoseconds
+     * @param elapsedNanos the duration of the run, in nanoseconds
+     * @param outcomes     the amount of requests by their response status code, or exception for failed requests
+     */
+    record Result(long[] latencies, long elapsedNanos, Map<String, Integer> outcomes) {
+        double throughput() {
+            return latencies.length / (elapsedNanos / 1e9);
+        }
+
+        long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[(int) Math.min(latencies.length - 1, Math.ceil(latencies.length * percentile) - 1)];
+        }
+
+        long errors() {
+            long errors = 0;
+            for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+                if (!outcome.getKey().startsWith("2")) {
+                    errors += outcome.getValue();
+                }
+            }
+            return errors;
+        }
+
+        double errorRate() {
+            return latencies.length == 0 ? 0 : (double) errors() / latencies.length;
+        }
+
+        @Override
+        public String toString() {
+            return """
+                    %s requests in %.2fs: %.0f requests/s
+                    latency p50 %.2fms, p99 %.2fms, p999 %.2fms, max %.2fms
+                    responses %s, %s errors (%.2f%%)"""
+                    .formatted(latencies.length, elapsedNanos / 1e9, throughput(), percentile(0.5) / 1e6,
+                            percentile(0.99) / 1e6, percentile(0.999) / 1e6, percentile(1) / 1e6, outcomes, errors(),
+                            errorRate() * 100);
+        }
+    }
+
+    /**
+     * The command line options.
+     */
+    private static final class Options {
+        static final String USAGE = """
+                Usage: WebhookBenchmark [options]
+                  --connections <n>       concurrent keep-alive connections (default 16)
+                  --pipeline <n>          requests sent on a connection before reading their responses (default 1)
+                  --rate <n>              total requests per second, or 0 for as fast as possible (default 0)
+                  --requests <n>          measured requests (default 50000)
+                  --warmup <n>            unmeasured requests sent first (default 10000)
+                  --mix <event=weight,..> weights of the events (default %s)
+                  --corpus <dir>          directory of <event>[.suffix].json payloads (default: bundled corpus)
+                  --secret <secret>       webhook secret to sign with (default %s)
+                  --target <host:port>    benchmark a running server instead of starting one
+                  --server-config <file>  HOCON webhook settings for the started server, as in the 'webhook' section
+                  --min-throughput <n>    fail if fewer requests per second were handled
+                  --max-p99 <ms>          fail if the p99 latency is higher
+                  --max-error-rate <f>    fail if a higher fraction of requests failed or were rejected
+                """.formatted(DEFAULT_MIX, DEFAULT_SECRET);
+
+        boolean help;
+        int connections = 16;
+        int pipeline = 1;
+        double rate = 0;
+        int requests = 50_000;
+        int warmup = 10_000;
+        String mix = DEFAULT_MIX;
+        @Nullable Path corpus;
+        String secret = DEFAULT_SECRET;
+        @Nullable InetSocketAddress target;
+        @Nullable Path serverConfig;
+        double minThroughput;
+        double maxP99Millis;
+        double maxErrorRate = -1;
+
+        static Options parse(String[] args) {
+            final Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                final String option = args[i];
+                if (option.equals("--help")) {
+                    options.help = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for option " + option);
+                }
+                final String value = args[++i];
+                try {
+                    switch (option) {
+                        case "--connections" -> options.connections = Integer.parseInt(value);
+                        case "--pipeline" -> options.pipeline = Integer.parseInt(value);
+                        case "--rate" -> options.rate = Double.parseDouble(value);
+                        case "--requests" -> options.requests = Integer.parseInt(value);
+                        case "--warmup" -> options.warmup = Integer.parseInt(value);
+                        case "--mix" -> options.mix = value;
+                        case "--corpus" -> options.corpus = Path.of(value);
+                        case "--secret" -> options.secret = value;
+                        case "--target" -> {
+                            final int colon = value.lastIndexOf(':');
+                            options.target = InetSocketAddress.createUnresolved(value.substring(0, colon),
+                                    Integer.parseInt(value.substring(colon + 1)));
+                        }
+                        case "--server-config" -> options.serverConfig = Path.of(value);
+                        case "--min-throughput" -> options.minThroughput = Double.parseDouble(value);
+                        case "--max-p99" -> options.maxP99Millis = Double.parseDouble(value);
+                        case "--max-error-rate" -> options.maxErrorRate = Double.parseDouble(value);
+                        default -> throw new IllegalArgumentException("Unknown option " + option);
+                    }
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException("Invalid value for option " + option + ": " + value);
+                }
+            }
+            if (options.connections < 1 || options.pipeline < 1 || options.requests < 1 || options.warmup < 0) {
+                throw new IllegalArgumentException("Connections, pipeline depth and requests must be positive");
+            }
+            return options;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package org.parchmentmc.nitwit;
 
 import com.apollographql.apollo.ApolloClient;
+import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
 import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
 import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
 import com.github.api.type.CustomType;
+import io.reactivex.rxjava3.core.Single;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.OnlineStatus;
@@ -11,28 +13,37 @@ import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.entities.Emoji;
 import net.dv8tion.jda.api.requests.restaction.MessageAction;
 import okhttp3.Cache;
-import okhttp3.ConnectionPool;
-import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.apache.commons.lang3.time.StopWatch;
-import org.kohsuke.github.GHAppInstallation;
-import org.kohsuke.github.GHAppInstallationToken;
-import org.kohsuke.github.GitHub;
-import org.kohsuke.github.GitHubBuilder;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.parchmentmc.nitwit.config.*;
 import org.parchmentmc.nitwit.config.serializers.ColorSerializer;
 import org.parchmentmc.nitwit.config.serializers.DurationSerializer;
 import org.parchmentmc.nitwit.config.serializers.EmojiSerializer;
 import org.parchmentmc.nitwit.discord.DiscordClient;
+import org.parchmentmc.nitwit.discord.ReadinessAnnouncer;
 import org.parchmentmc.nitwit.discord.commands.impl.ListPullRequestsCommand;
 import org.parchmentmc.nitwit.discord.commands.impl.QueryPullRequestCommand;
 import org.parchmentmc.nitwit.discord.listeners.StateListener;
 import org.parchmentmc.nitwit.discord.pagination.PaginationButtonListener;
-import org.parchmentmc.nitwit.util.AuthenticationHelper;
-import org.parchmentmc.nitwit.util.AuthenticationInterceptor;
+import org.parchmentmc.nitwit.util.HttpClientProfile;
+import org.parchmentmc.nitwit.util.InstallationTokenManager;
 import org.parchmentmc.nitwit.util.graphql.DateTimeAdapter;
+import org.parchmentmc.nitwit.util.graphql.DiskNormalizedCacheFactory;
+import org.parchmentmc.nitwit.util.graphql.GraphQLHelper;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.Priority;
+import org.parchmentmc.nitwit.util.graphql.InstallationClientPool;
+import org.parchmentmc.nitwit.util.graphql.NodeIdCacheKeyResolver;
+import org.parchmentmc.nitwit.util.graphql.QueryBatchingInterceptor;
 import org.parchmentmc.nitwit.util.graphql.URIAdapter;
+import org.parchmentmc.nitwit.util.pr.MembershipIndex;
+import org.parchmentmc.nitwit.util.pr.PullRequestStateStore;
+import org.parchmentmc.nitwit.util.pr.ReadinessCoalescer;
+import org.parchmentmc.nitwit.util.pr.RepositoryRegistry;
+import org.parchmentmc.nitwit.util.pr.RequirementCalculator;
+import org.parchmentmc.nitwit.util.pr.TrackedRepository;
 import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
 import org.spongepowered.configurate.ConfigurationOptions;
 import org.spongepowered.configurate.hocon.HoconConfigurationLoader;
 import org.spongepowered.configurate.reference.ConfigurationReference;
@@ -43,8 +54,14 @@ import java.awt.*;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.parchmentmc.nitwit.util.LambdaUtil.rethrowConsumer;
@@ -61,30 +78,10 @@ public class DiscordMain {
     public static void main(String[] args) throws Exception {
         final StopWatch loading = StopWatch.createStarted();
 
-        final ValueReference<Configuration, CommentedConfigurationNode> configReference;
-        final Configuration config;
-        { // Normal configuration
-            final HoconConfigurationLoader loader = HoconConfigurationLoader.builder()
-                    .emitComments(true)
-                    .prettyPrinting(true)
-                    .defaultOptions(ConfigurationOptions.defaults().serializers(ADDED_SERIALIZERS))
-                    .path(Path.of("nitwit.conf"))
-                    .build();
-            final ConfigurationReference<CommentedConfigurationNode> configRef = loader.loadToReference();
-            configReference = configRef.referenceTo(Configuration.class);
-            config = configReference.get();
-        }
+        final ValueReference<Configuration, CommentedConfigurationNode> configReference = loadConfiguration();
+        final Configuration config = configReference.get();
 
-        final SecretsConfig secrets;
-        { // Secrets
-            final HoconConfigurationLoader loader = HoconConfigurationLoader.builder()
-                    .emitComments(true)
-                    .prettyPrinting(true)
-                    .path(Path.of("secrets.conf"))
-                    .build();
-            final CommentedConfigurationNode node = loader.load();
-            secrets = node.get(SecretsConfig.class);
-        }
+        final SecretsConfig secrets = loadSecrets();
 
         if (secrets == null) {
             throw new IllegalStateException("Failed to load secrets configuration");
@@ -98,9 +95,6 @@ public class DiscordMain {
         MessageAction.setDefaultFailOnInvalidReply(false);
 
         final CompletableFuture<OkHttpClient> okHttpClient = CompletableFuture.supplyAsync(() -> {
-            final Dispatcher dispatcher = new Dispatcher();
-            dispatcher.setMaxRequestsPerHost(25);
-
             final Path okHttpCacheDirectory = config.cache.okhttpDirectory;
             final Cache okHttpCache = okHttpCacheDirectory != null
                     ? new Cache(okHttpCacheDirectory.toFile(),
@@ -109,43 +103,102 @@ public class DiscordMain {
 
             return new OkHttpClient.Builder()
                     .cache(okHttpCache)
-                    .connectionPool(new ConnectionPool(5, 30, TimeUnit.SECONDS))
-                    .dispatcher(dispatcher)
                     .build();
         });
+        // GitHub and Discord traffic have their own dispatcher limits and connection pools, so a backlog of one
+        // cannot hold up the other, while sharing the dispatcher threads and HTTP cache of the base client
+        final CompletableFuture<HttpClientProfile> githubHttp = okHttpClient.thenApply(base ->
+                new HttpClientProfile("github", base, config.http.github));
+        final CompletableFuture<HttpClientProfile> discordHttp = okHttpClient.thenApply(base ->
+                new HttpClientProfile("discord", base, config.http.discord));
+        if (config.http.github.maxRequestsPerHost < config.graphql.batchMaxSize) {
+            System.err.println("The GitHub HTTP client allows fewer requests per host than the max GraphQL batch "
+                    + "size; batches will be cut short");
+        }
 
-        final CompletableFuture<ApolloClient> apolloClient = okHttpClient.thenApplyAsync(rethrowFunction(client -> {
-            final Path privateKey = secrets.ghAppPrivateKey();
-            final String appId = secrets.ghAppId();
-            final String jwt = AuthenticationHelper.createJWT(privateKey, appId, 600000);
+        final Duration httpStatisticsInterval = config.http.statisticsInterval;
+        if (!httpStatisticsInterval.isZero() && !httpStatisticsInterval.isNegative()) {
+            final ScheduledExecutorService statistics = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "http-statistics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            githubHttp.thenCombine(discordHttp, List::of).thenAccept(profiles ->
+                    statistics.scheduleAtFixedRate(() -> {
+                        for (HttpClientProfile profile : profiles) {
+                            System.out.println("HTTP " + profile.getName() + ": " + profile.statistics());
+                        }
+                    }, httpStatisticsInterval.toMillis(), httpStatisticsInterval.toMillis(), TimeUnit.MILLISECONDS));
+        }
 
-            final GitHub jwtGH = new GitHubBuilder().withJwtToken(jwt).build();
+        // Token and membership refreshes of every tracked repository share this thread
+        final ScheduledExecutorService githubScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "github-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-            final GHAppInstallation installation = jwtGH.getApp().getInstallationByOrganization(config.github.organization);
-            final GHAppInstallationToken installationToken = installation.createToken().create();
+        GraphQLHelper.configureFetchPolicies(config.graphql);
+        final CompletableFuture<InstallationClientPool> clientPool = githubHttp.thenApplyAsync(rethrowFunction(profile -> {
+            final OkHttpClient client = profile.getClient();
+            final InstallationTokenManager tokenManager = new InstallationTokenManager(secrets.ghAppPrivateKey(),
+                    secrets.ghAppId(), githubScheduler);
 
-            return ApolloClient.builder()
+            final NormalizedCacheFactory<?> memoryCache = new LruNormalizedCacheFactory(EvictionPolicy.builder()
+                    .maxSizeBytes(config.cache.apolloSize * 1024L)
+                    .build());
+            final Path apolloCacheDirectory = config.cache.apolloDirectory;
+            final NormalizedCacheFactory<?> apolloCache = apolloCacheDirectory != null
+                    ? memoryCache.chain(new DiskNormalizedCacheFactory(apolloCacheDirectory,
+                    config.cache.apolloDiskSize * 1024L, config.cache.apolloMaxAge))
+                    : memoryCache;
+
+            // Only used to derive the client of each installation, which then share its cache
+            final ApolloClient baseClient = ApolloClient.builder()
                     .serverUrl("https://api.github.com/graphql")
-                    .okHttpClient(client.newBuilder()
-                            .addInterceptor(AuthenticationInterceptor.bearer(installationToken.getToken()))
-                            .build())
-                    .normalizedCache(new LruNormalizedCacheFactory(EvictionPolicy.builder()
-                            .maxSizeBytes(config.cache.apolloSize)
-                            .build()))
+                    .okHttpClient(client)
+                    .normalizedCache(apolloCache, new NodeIdCacheKeyResolver())
                     .addCustomTypeAdapter(CustomType.DATETIME, new DateTimeAdapter(ZoneOffset.UTC))
                     .addCustomTypeAdapter(CustomType.URI, new URIAdapter())
                     .build();
+            return new InstallationClientPool(baseClient, client, tokenManager,
+                    new QueryBatchingInterceptor(config.graphql.batchWindow, config.graphql.batchMaxSize),
+                    config.graphql);
         }));
 
-        final CompletableFuture<JDA> jdaDiscord = okHttpClient.thenApplyAsync(rethrowFunction(client ->
+        // Each tracked repository uses the client of the installation in its organization, created once per
+        // organization, and has its own index of the roles of its members
+        final Map<String, GitHubConfig> repositoryConfigs = new LinkedHashMap<>();
+        repositoryConfigs.put(RepositoryRegistry.DEFAULT_REPOSITORY, config.github);
+        config.repositories.forEach((name, repositoryConfig) -> {
+            if (repositoryConfigs.putIfAbsent(name, repositoryConfig) != null) {
+                throw new IllegalStateException("Repository name " + name + " is reserved");
+            }
+        });
+        final List<TrackedRepository> trackedRepositories = new ArrayList<>();
+        repositoryConfigs.forEach((name, repositoryConfig) -> {
+            final CompletableFuture<ApolloClient> graphQL = clientPool.thenApplyAsync(rethrowFunction(pool ->
+                    pool.get(repositoryConfig.organization, repositoryConfig.tokenRefreshMargin)));
+            final MembershipIndex membershipIndex = new MembershipIndex(repositoryConfig, githubScheduler);
+            graphQL.thenAccept(client -> membershipIndex.start(client, repositoryConfig.membershipRefreshInterval));
+            trackedRepositories.add(new TrackedRepository(name, repositoryConfig, graphQL, membershipIndex));
+        });
+        final RepositoryRegistry repositories = new RepositoryRegistry(trackedRepositories);
+
+        final CompletableFuture<JDA> jdaDiscord = discordHttp.thenApplyAsync(rethrowFunction(profile ->
                 JDABuilder.createDefault(secrets.discordToken())
-                        .setHttpClient(client)
+                        .setHttpClient(profile.getClient())
                         .setStatus(OnlineStatus.DO_NOT_DISTURB)
                         .addEventListeners(new StateListener())
                         .setActivity(Activity.playing("the ready game"))
                         .build()));
 
-        final DiscordClient client = new DiscordClient(jdaDiscord, apolloClient, configReference);
+        // Keep pull request states up to date from webhook events, if the webhook server runs in this process
+        final PullRequestStateStore stateStore = config.webhook.inProcess
+                ? new PullRequestStateStore(config.webhook.stateStoreMaxAge)
+                : null;
+
+        final DiscordClient client = new DiscordClient(jdaDiscord, repositories, configReference, stateStore);
         ListPullRequestsCommand.register(client.getCommands().getDispatcher());
         QueryPullRequestCommand.register(client.getCommands().getDispatcher());
 
@@ -153,10 +206,56 @@ public class DiscordMain {
                 .add(ListPullRequestsCommand.ButtonListener.PULL_REQUEST_LISTING_ID,
                         new ListPullRequestsCommand.ButtonListener(client))));
 
+        if (stateStore != null) {
+            // Evaluate the readiness of updated pull requests once each burst of events for them has settled, and
+            // announce the changes
+            final ReadinessAnnouncer announcer = new ReadinessAnnouncer(jdaDiscord);
+            final ReadinessCoalescer coalescer = new ReadinessCoalescer(config.webhook.coalesceQuietPeriod,
+                    config.webhook.coalesceMaxDelay, (key, events) -> {
+                final @Nullable TrackedRepository repository = repositories.getByFullName(key.repository());
+                if (repository == null) {
+                    return;
+                }
+                Single.fromCompletionStage(repository.graphQL())
+                        .flatMap(graphQL -> RequirementCalculator.queryReviewState(graphQL, repository.config(),
+                                repository.membershipIndex(), stateStore.get(graphQL, key.owner(), key.name(),
+                                        key.number(), Priority.BACKGROUND)))
+                        .subscribe(state -> announcer.update(repository, key, state), e -> {
+                            System.err.println("Failed to evaluate readiness of pull request " + key);
+                            e.printStackTrace();
+                        });
+            });
+            WebhookMain.start(config.webhook, secrets, stateStore, repositories.getAll().stream()
+                    .map(TrackedRepository::membershipIndex)
+                    .toList(), coalescer, false);
+        }
+
         loading.split();
         System.out.println("Client initialization took " + loading.toSplitString());
-        CompletableFuture.allOf(jdaDiscord.thenAccept(rethrowConsumer(s -> s.awaitStatus(JDA.Status.CONNECTED))), apolloClient).join();
+        CompletableFuture.allOf(jdaDiscord.thenAccept(rethrowConsumer(s -> s.awaitStatus(JDA.Status.CONNECTED))),
+                repositories.ready()).join();
         loading.stop();
         System.out.println("Full loading took " + loading);
     }
+
+    static ValueReference<Configuration, CommentedConfigurationNode> loadConfiguration() throws ConfigurateException {
+        final HoconConfigurationLoader loader = HoconConfigurationLoader.builder()
+                .emitComments(true)
+                .prettyPrinting(true)
+                .defaultOptions(ConfigurationOptions.defaults().serializers(ADDED_SERIALIZERS))
+                .path(Path.of("nitwit.conf"))
+                .build();
+        final ConfigurationReference<CommentedConfigurationNode> configRef = loader.loadToReference();
+        return configRef.referenceTo(Configuration.class);
+    }
+
+    static SecretsConfig loadSecrets() throws ConfigurateException {
+        final HoconConfigurationLoader loader = HoconConfigurationLoader.builder()
+                .emitComments(true)
+                .prettyPrinting(true)
+                .path(Path.of("secrets.conf"))
+                .build();
+        final CommentedConfigurationNode node = loader.load();
+        return node.get(SecretsConfig.class);
+    }
 }
@@ -1,47 +1,226 @@
 package org.parchmentmc.nitwit;
 
-import com.sun.net.httpserver.HttpContext;
-import com.sun.net.httpserver.HttpServer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.config.Configuration;
+import org.parchmentmc.nitwit.config.SecretsConfig;
+import org.parchmentmc.nitwit.config.WebhookConfig;
+import org.parchmentmc.nitwit.util.graphql.GraphQLHelper;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter;
+import org.parchmentmc.nitwit.util.pr.MembershipIndex;
+import org.parchmentmc.nitwit.util.pr.PullRequestStateStore;
+import org.parchmentmc.nitwit.util.pr.ReadinessCoalescer;
+import org.parchmentmc.nitwit.webhook.AdmissionFilter;
+import org.parchmentmc.nitwit.webhook.BulkWebhookHttpHandler;
+import org.parchmentmc.nitwit.webhook.DeliveryDeduplicator;
 import org.parchmentmc.nitwit.webhook.RequestMethodFilter;
-import org.parchmentmc.nitwit.webhook.RequiredHeadersFilter;
+import org.parchmentmc.nitwit.webhook.WebhookDispatcher;
 import org.parchmentmc.nitwit.webhook.WebhookHttpHandler;
 import org.parchmentmc.nitwit.webhook.events.PingEvent;
+import org.parchmentmc.nitwit.webhook.journal.DeliveryJournal;
+import org.parchmentmc.nitwit.webhook.server.JdkWebhookServer;
+import org.parchmentmc.nitwit.webhook.server.NioWebhookServer;
+import org.parchmentmc.nitwit.webhook.server.WebhookServer;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.parchmentmc.nitwit.webhook.WebhookHttpHandler.GITHUB_DELIVERY_GUID_HEADER;
 import static org.parchmentmc.nitwit.webhook.WebhookHttpHandler.GITHUB_EVENT_HEADER;
 
 public class WebhookMain {
-    private static final int PORT = 3000;
-
     public static void main(String[] args) throws Exception {
+        final Configuration config = DiscordMain.loadConfiguration().get();
+        if (config == null) {
+            throw new IllegalStateException("Failed to load configuration");
+        }
+
+        final SecretsConfig secrets = DiscordMain.loadSecrets();
+        if (secrets == null) {
+            throw new IllegalStateException("Failed to load secrets configuration");
+        }
+
+        final PullRequestStateStore stateStore = new PullRequestStateStore(config.webhook.stateStoreMaxAge);
+        start(config.webhook, secrets, stateStore, List.of(), null, Arrays.asList(args).contains("--replay-journal"));
+    }
+
+    /**
+     * Creates and starts the webhook server.
+     *
+     * @param webhookConfig     the webhook configuration
+     * @param secrets           the secrets configuration
+     * @param stateStore        the pull request state store to keep up to date
+     * @param membershipIndexes the membership indexes of the tracked repositories to keep up to date
+     * @param coalescer         the coalescer for readiness evaluations of updated pull requests, or {@code null} for
+     *                          none
+     * @param replayAll         whether to replay every journaled delivery, rather than only those not yet handled
+     * @return the started server
+     * @throws IOException          if an I/O error occurs while creating the server or opening the journal
+     * @throws InterruptedException if interrupted while replaying the journal
+     */
+    public static WebhookServer start(WebhookConfig webhookConfig, SecretsConfig secrets, PullRequestStateStore stateStore,
+                                      Collection<MembershipIndex> membershipIndexes,
+                                      @Nullable ReadinessCoalescer coalescer, boolean replayAll)
+            throws IOException, InterruptedException {
+        final @Nullable String webhookSecret = secrets.webhookSecret();
+        if (webhookSecret == null) {
+            System.err.println("No webhook secret configured; delivery signatures will not be validated");
+        }
+
 //        final SSLContext sslContext = createSSLContext();
 //        SSLContext.setDefault(sslContext); // Set as default SSL context
 
-//        final HttpsServer server = HttpsServer.create(new InetSocketAddress(PORT), 0);
+//        final HttpsServer server = HttpsServer.create(new InetSocketAddress(webhookConfig.port), 0);
 //        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
-        final HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
-
-        server.setExecutor(Executors.newSingleThreadExecutor()); // Single thread executor
-
-        final HttpContext webhookContext = server.createContext("/webhook");
-
-        // We only care about POSTs
-        webhookContext.getFilters().add(new RequestMethodFilter("POST"));
-        // We require the github event and github delivery GUID headers
-        webhookContext.getFilters().add(new RequiredHeadersFilter(GITHUB_EVENT_HEADER, GITHUB_DELIVERY_GUID_HEADER));
-
-        webhookContext.setHandler(new WebhookHttpHandler().addHandler(new PingEvent.Handler()));
+        // Server threads only verify and parse deliveries; the handlers are run by the dispatcher's workers
+        final ExecutorService serverExecutor = Executors.newFixedThreadPool(webhookConfig.serverThreads);
+        final InetSocketAddress address = new InetSocketAddress(webhookConfig.port);
+        final WebhookServer server = switch (webhookConfig.serverBackend) {
+            case JDK -> new JdkWebhookServer(address, serverExecutor, webhookConfig.serverIdleTimeout);
+            case NIO -> new NioWebhookServer(address, webhookConfig.serverAcceptorThreads,
+                    webhookConfig.serverSelectorThreads, serverExecutor, webhookConfig.serverIdleTimeout);
+        };
+
+        final WebhookDispatcher dispatcher = new WebhookDispatcher(webhookConfig.dispatchWorkers,
+                webhookConfig.dispatchQueueCapacity);
+
+        final byte[] secretToken = webhookSecret != null ? webhookSecret.getBytes(StandardCharsets.UTF_8) : null;
+        final @Nullable DeliveryDeduplicator deduplicator = webhookConfig.dedupCapacity > 0
+                ? new DeliveryDeduplicator(webhookConfig.dedupCapacity, webhookConfig.dedupWindow)
+                : null;
+        final @Nullable DeliveryJournal journal = !webhookConfig.journalDirectory.isBlank()
+                ? new DeliveryJournal(Path.of(webhookConfig.journalDirectory),
+                journalSegmentSize(webhookConfig), webhookConfig.journalMaxSegments,
+                webhookConfig.journalSync)
+                : null;
+        final WebhookHttpHandler handler = new WebhookHttpHandler(secretToken, true, dispatcher)
+                .setDeduplicator(deduplicator)
+                .setJournal(journal)
+                .addHandler(new PingEvent.Handler());
+        stateStore.createHandlers().forEach(handler::addHandler);
+        if (!membershipIndexes.isEmpty()) {
+            MembershipIndex.createHandlers(membershipIndexes).forEach(handler::addHandler);
+        }
+
+        // Only POSTs with the github event and github delivery GUID headers, within the limits, are read at all
+        final AdmissionFilter admission = new AdmissionFilter("POST", GITHUB_EVENT_HEADER, GITHUB_EVENT_HEADER,
+                GITHUB_DELIVERY_GUID_HEADER)
+                .setMaxContentLength(webhookConfig.admissionMaxPayloadSize * 1024L)
+                .setAllowedEvents(webhookConfig.admissionAllowedEvents.isEmpty() ? handler.getEventNames()
+                        : new HashSet<>(webhookConfig.admissionAllowedEvents))
+                .setMaxConcurrentRequests(webhookConfig.admissionMaxConcurrentRequests)
+                .setBacklogLimit(dispatcher, webhookConfig.admissionBacklogHighWaterMark)
+                .setRetryAfter(webhookConfig.admissionRetryAfter);
+
+        if (coalescer != null) {
+            stateStore.addListener(coalescer::submit);
+        }
+        server.createContext("/webhook", handler, List.of(admission));
+
+        // Stored or relayed deliveries, authenticated by a bearer token instead of signatures
+        final @Nullable String bulkToken = secrets.webhookBulkToken();
+        final @Nullable BulkWebhookHttpHandler bulkHandler = bulkToken != null
+                ? new BulkWebhookHttpHandler(handler, bulkToken, webhookConfig.admissionMaxPayloadSize * 1024 + 1024)
+                : null;
+        if (bulkHandler != null) {
+            server.createContext("/webhook/bulk", bulkHandler, List.of(new RequestMethodFilter("POST")));
+        }
+
+        if (journal != null) {
+            // Replay deliveries which were not handled before the last shutdown, or all of them if asked to
+            final long start = System.nanoTime();
+            final int replayed = handler.replayJournal(journal, replayAll);
+            if (replayed > 0) {
+                System.out.printf("Replayed %s journaled deliveries in %.1fms%n", replayed,
+                        (System.nanoTime() - start) / 1e6);
+            }
+        }
+
+        final Duration statisticsInterval = webhookConfig.statisticsInterval;
+        if (!statisticsInterval.isZero() && !statisticsInterval.isNegative()) {
+            final ScheduledExecutorService statistics = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "webhook-statistics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            statistics.scheduleAtFixedRate(() -> {
+                System.out.println("Webhook admission: " + admission.statistics());
+                System.out.println("Webhook dispatch: " + dispatcher.statistics());
+                if (bulkHandler != null) {
+                    System.out.println("Bulk webhook ingestion: " + bulkHandler.statistics());
+                }
+                if (deduplicator != null) {
+                    System.out.println("Webhook deduplication: " + deduplicator.statistics());
+                }
+                System.out.println("Pull request states: " + stateStore.statistics());
+                for (MembershipIndex membershipIndex : membershipIndexes) {
+                    System.out.println("Membership index of " + membershipIndex.getRepository() + ": "
+                            + membershipIndex.statistics());
+                }
+                if (coalescer != null) {
+                    System.out.println("Readiness evaluations: " + coalescer.statistics());
+                    System.out.println("GraphQL: " + GraphQLHelper.statistics());
+                    for (GraphQLRateLimiter rateLimiter : GraphQLHelper.getRateLimiters()) {
+                        System.out.println("GraphQL rate limit of " + rateLimiter.getName() + ": "
+                                + rateLimiter.statistics());
+                    }
+                }
+            }, statisticsInterval.toMillis(), statisticsInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(Duration.ofSeconds(1));
+            serverExecutor.shutdown();
+            try {
+                if (!dispatcher.shutdown(Duration.ofSeconds(30))) {
+                    System.err.println("Timed out waiting for accepted webhook deliveries to be handled");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (coalescer != null) {
+                coalescer.shutdown();
+            }
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "webhook-shutdown"));
 
         server.start();
+        return server;
+    }
+
+    /**
+     * {@return the size of each journal segment, in bytes} Segments are memory-mapped, so the size must fit in an
+     * {@code int}.
+     */
+    private static int journalSegmentSize(WebhookConfig webhookConfig) {
+        try {
+            return Math.multiplyExact(webhookConfig.journalSegmentSize, 1024 * 1024);
+        } catch (ArithmeticException e) {
+            throw new IllegalStateException("Journal segment size must be less than 2048 MiB: "
+                    + webhookConfig.journalSegmentSize + " MiB", e);
+        }
     }
 
     static SSLContext createSSLContext() throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException {
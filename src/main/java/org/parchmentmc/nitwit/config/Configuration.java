@@ -6,6 +6,8 @@ import org.spongepowered.configurate.objectmapping.meta.Required;
 import org.spongepowered.configurate.objectmapping.meta.Setting;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
 
 @ConfigSerializable
 public class Configuration {
@@ -14,12 +16,22 @@ public class Configuration {
     @Setting("github")
     @Required
     public GitHubConfig github = new GitHubConfig();
+    @Setting("repositories")
+    @Comment("Additional repositories to track, by name, each of which may be in a different organization; the "
+            + "repository of the 'github' section is tracked as 'default'")
+    public Map<String, GitHubConfig> repositories = Map.of();
     @Setting("discord")
     public DiscordConfig discord = new DiscordConfig();
     @Setting("cosmetic")
     public CosmeticConfig cosmetic = new CosmeticConfig();
     @Setting("cache")
     public CacheConfig cache = new CacheConfig();
+    @Setting("http")
+    public HttpConfig http = new HttpConfig();
+    @Setting("graphql")
+    public GraphQLConfig graphql = new GraphQLConfig();
+    @Setting("webhook")
+    public WebhookConfig webhook = new WebhookConfig();
 
     Configuration() {
     }
@@ -37,8 +49,136 @@ public class Configuration {
         @Setting("apollo.size")
         @Comment("The max size of the Apollo GraphQL in-memory cache, in kibibytes")
         public int apolloSize = 32 * 1024;
+        @Setting("apollo.dir")
+        @Comment("The directory of the persistent Apollo GraphQL cache, which backs the in-memory cache across restarts")
+        public Path apolloDirectory = null;
+        @Setting("apollo.disk_size")
+        @Comment("The max size of the persistent Apollo GraphQL cache directory, in kibibytes")
+        public int apolloDiskSize = 128 * 1024;
+        @Setting("apollo.max_age")
+        @Comment("How long records of the persistent Apollo GraphQL cache are kept after they were last fetched; "
+                + "operations with a CACHE_FIRST fetch policy only use those fetched within their own max age")
+        public Duration apolloMaxAge = Duration.ofHours(6);
 
         CacheConfig() {
         }
     }
+
+    @ConfigSerializable
+    public static class HttpConfig {
+
+        @Setting("github")
+        @Comment("The HTTP client for the GitHub API; it must allow at least as many requests per host as the max "
+                + "GraphQL batch size")
+        public HttpProfileConfig github = new HttpProfileConfig(64, 25, 5, Duration.ofMinutes(5));
+        @Setting("discord")
+        @Comment("The HTTP client for the Discord API")
+        public HttpProfileConfig discord = new HttpProfileConfig(64, 5, 5, Duration.ofSeconds(30));
+
+        @Setting("statistics_interval")
+        @Comment("The interval between printing the connection pool and dispatcher statistics of the HTTP clients, "
+                + "or 0 to disable")
+        public Duration statisticsInterval = Duration.ZERO;
+
+        HttpConfig() {
+        }
+    }
+
+    @ConfigSerializable
+    public static class HttpProfileConfig {
+
+        @Setting("max_requests")
+        @Comment("The max amount of concurrent asynchronous requests")
+        public int maxRequests = 64;
+        @Setting("max_requests_per_host")
+        @Comment("The max amount of concurrent asynchronous requests to the same host")
+        public int maxRequestsPerHost = 5;
+        @Setting("max_idle_connections")
+        @Comment("The max amount of idle connections kept in the connection pool")
+        public int maxIdleConnections = 5;
+        @Setting("keep_alive")
+        @Comment("How long an idle connection is kept in the connection pool")
+        public Duration keepAlive = Duration.ofMinutes(5);
+
+        HttpProfileConfig() {
+        }
+
+        public HttpProfileConfig(int maxRequests, int maxRequestsPerHost, int maxIdleConnections, Duration keepAlive) {
+            this.maxRequests = maxRequests;
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAlive = keepAlive;
+        }
+    }
+
+    @ConfigSerializable
+    public static class GraphQLConfig {
+
+        @Setting("batch.window")
+        @Comment("How long to wait for more GraphQL queries to merge into the same request")
+        public Duration batchWindow = Duration.ofMillis(15);
+        @Setting("batch.max_size")
+        @Comment("The max amount of GraphQL queries merged into one request, or 1 to not merge queries")
+        public int batchMaxSize = 12;
+
+        @Setting("fetch_policies")
+        @Comment("The fetch policies of GraphQL operations, by operation name; pull requests are only briefly fresh, "
+                + "as they change often")
+        public Map<String, FetchPolicyConfig> fetchPolicies = Map.of(
+                "GetTeamMembers", new FetchPolicyConfig(FetchMode.CACHE_FIRST, Duration.ofHours(1), true, true),
+                "GetCollaborators", new FetchPolicyConfig(FetchMode.CACHE_FIRST, Duration.ofHours(1), true, true),
+                "GetPullRequest", new FetchPolicyConfig(FetchMode.CACHE_FIRST, Duration.ofMinutes(1), false, true),
+                "GetLatestReviews", new FetchPolicyConfig(FetchMode.CACHE_FIRST, Duration.ofMinutes(1), false, true),
+                "GetReviewThreads", new FetchPolicyConfig(FetchMode.CACHE_FIRST, Duration.ofMinutes(1), false, true),
+                "PullRequests", new FetchPolicyConfig(FetchMode.CACHE_FIRST, Duration.ofMinutes(1), false, true));
+        @Setting("default_fetch_policy")
+        @Comment("The fetch policy of GraphQL operations without their own fetch policy")
+        public FetchPolicyConfig defaultFetchPolicy = new FetchPolicyConfig(FetchMode.NETWORK_ONLY, Duration.ZERO,
+                false, true);
+
+        @Setting("rate_limit.background_reserve")
+        @Comment("The GitHub API rate limit points kept for interactive commands; background queries slow down as the "
+                + "remaining points approach it, and wait for the rate limit to reset once they reach it")
+        public int rateLimitBackgroundReserve = 500;
+        @Setting("rate_limit.max_delay")
+        @Comment("The longest a query waits for the rate limit; queries which would wait longer fail instead")
+        public Duration rateLimitMaxDelay = Duration.ofMinutes(1);
+
+        GraphQLConfig() {
+        }
+    }
+
+    @ConfigSerializable
+    public static class FetchPolicyConfig {
+
+        @Setting("mode")
+        @Comment("Where responses are fetched from: CACHE_ONLY, NETWORK_ONLY, or CACHE_FIRST to use a cached response "
+                + "while it is fresh")
+        public FetchMode mode = FetchMode.NETWORK_ONLY;
+        @Setting("max_age")
+        @Comment("How long a response is fresh after it was fetched from the network, for CACHE_FIRST")
+        public Duration maxAge = Duration.ZERO;
+        @Setting("stale_while_revalidate")
+        @Comment("Whether a stale cached response is used while it is fetched again in the background, for CACHE_FIRST")
+        public boolean staleWhileRevalidate = false;
+        @Setting("stale_if_error")
+        @Comment("Whether a cached response is used, however stale, when fetching from the network fails")
+        public boolean staleIfError = false;
+
+        FetchPolicyConfig() {
+        }
+
+        public FetchPolicyConfig(FetchMode mode, Duration maxAge, boolean staleWhileRevalidate, boolean staleIfError) {
+            this.mode = mode;
+            this.maxAge = maxAge;
+            this.staleWhileRevalidate = staleWhileRevalidate;
+            this.staleIfError = staleIfError;
+        }
+    }
+
+    public enum FetchMode {
+        CACHE_ONLY,
+        NETWORK_ONLY,
+        CACHE_FIRST
+    }
 }
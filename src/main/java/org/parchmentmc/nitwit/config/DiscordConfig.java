@@ -6,6 +6,7 @@ import org.spongepowered.configurate.objectmapping.meta.Comment;
 import org.spongepowered.configurate.objectmapping.meta.Setting;
 
 import java.time.Duration;
+import java.util.Map;
 
 @ConfigSerializable
 public class DiscordConfig {
@@ -35,6 +36,15 @@ public class DiscordConfig {
     @Comment("The amount of time that buttons on messages will be 'active' for after message send")
     public Duration buttonTimeLimit = Duration.ofMinutes(30);
 
+    @Setting("channel_repositories")
+    @Comment("The name of the tracked repository which commands in a channel refer to, by channel snowflake ID")
+    public Map<String, String> channelRepositories = Map.of();
+
+    @Setting("guild_repositories")
+    @Comment("The name of the tracked repository which commands in a guild refer to, by guild snowflake ID, for "
+            + "channels without their own; commands elsewhere refer to the 'default' repository")
+    public Map<String, String> guildRepositories = Map.of();
+
     DiscordConfig() {
     }
 }
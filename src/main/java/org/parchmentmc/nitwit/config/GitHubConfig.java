@@ -39,6 +39,18 @@ public class GitHubConfig {
     @Comment("The shortened review duration for PR review wait time")
     public Duration shortDuration = Duration.ofHours(24);
 
+    @Setting("token_refresh_margin")
+    @Comment("How long before the GitHub App installation token expires it is replaced with a new one")
+    public Duration tokenRefreshMargin = Duration.ofMinutes(10);
+
+    @Setting("membership_refresh_interval")
+    @Comment("The interval between full refreshes of the collaborators and reviewers team members; membership webhook events update them in between")
+    public Duration membershipRefreshInterval = Duration.ofHours(1);
+
+    @Setting("readiness_channel")
+    @Comment("The snowflake ID of the Discord channel where changes in the readiness of pull requests are announced, or 0 for none; requires the webhook server to run in-process")
+    public long readinessChannel = 0;
+
     GitHubConfig() {
     }
 }
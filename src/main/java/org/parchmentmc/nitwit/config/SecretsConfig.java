@@ -24,6 +24,16 @@ public class SecretsConfig {
     @Comment("The location of the GH App private key")
     protected Path ghAppPrivateKey;
 
+    @Setting("webhook_secret")
+    @Comment("The secret token for validating webhook delivery signatures")
+    @Nullable
+    protected String webhookSecret;
+
+    @Setting("webhook_bulk_token")
+    @Comment("The bearer token for bulk webhook ingestion, or unset to disable the bulk endpoint")
+    @Nullable
+    protected String webhookBulkToken;
+
     SecretsConfig() {
     }
 
@@ -51,6 +61,16 @@ public class SecretsConfig {
         return privateKey;
     }
 
+    @Nullable
+    public String webhookSecret() {
+        return get("SECRETS.WEBHOOK_SECRET", webhookSecret, Function.identity());
+    }
+
+    @Nullable
+    public String webhookBulkToken() {
+        return get("SECRETS.WEBHOOK_BULK_TOKEN", webhookBulkToken, Function.identity());
+    }
+
     @Nullable
     static <T> T get(String key, @Nullable T defaultValue, Function<@Nullable String, @Nullable T> converter) {
         @Nullable T ret = converter.apply(System.getProperty(key));
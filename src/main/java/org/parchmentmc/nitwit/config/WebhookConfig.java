@@ -0,0 +1,103 @@
+package org.parchmentmc.nitwit.config;
+
+import org.spongepowered.configurate.objectmapping.ConfigSerializable;
+import org.spongepowered.configurate.objectmapping.meta.Comment;
+import org.spongepowered.configurate.objectmapping.meta.Setting;
+
+import java.time.Duration;
+import java.util.List;
+
+@ConfigSerializable
+public class WebhookConfig {
+
+    @Setting("in_process")
+    @Comment("Whether the Discord bot runs the webhook server in its own process, so commands can read pull request states kept up to date by webhook events")
+    public boolean inProcess = false;
+
+    @Setting("port")
+    @Comment("The port which the webhook HTTP server listens on")
+    public int port = 3000;
+
+    @Setting("server_threads")
+    @Comment("The amount of HTTP server threads, which verify and parse incoming deliveries")
+    public int serverThreads = 2;
+
+    @Setting("server.backend")
+    @Comment("The HTTP server backend: JDK for the JDK's built-in server, or NIO for the selector-based server")
+    public ServerBackend serverBackend = ServerBackend.JDK;
+    @Setting("server.acceptor_threads")
+    @Comment("The amount of threads accepting connections, for the NIO backend")
+    public int serverAcceptorThreads = 1;
+    @Setting("server.selector_threads")
+    @Comment("The amount of threads reading and writing connections, for the NIO backend")
+    public int serverSelectorThreads = 2;
+    @Setting("server.idle_timeout")
+    @Comment("The time after which idle keep-alive connections are closed")
+    public Duration serverIdleTimeout = Duration.ofSeconds(30);
+
+    @Setting("admission.max_payload_size")
+    @Comment("The maximum size of a delivery payload, in kibibytes")
+    public int admissionMaxPayloadSize = 25 * 1024;
+    @Setting("admission.max_concurrent_requests")
+    @Comment("The maximum amount of deliveries being read and parsed at the same time, before new deliveries are rejected")
+    public int admissionMaxConcurrentRequests = 64;
+    @Setting("admission.backlog_high_water_mark")
+    @Comment("The amount of accepted deliveries waiting for a worker, past which new deliveries are rejected before their payload is read")
+    public int admissionBacklogHighWaterMark = 384;
+    @Setting("admission.retry_after")
+    @Comment("The delay which senders are told to wait before retrying a delivery rejected because of load")
+    public Duration admissionRetryAfter = Duration.ofSeconds(10);
+    @Setting("admission.allowed_events")
+    @Comment("The events which are accepted, or empty to accept every event with a handler")
+    public List<String> admissionAllowedEvents = List.of();
+
+    @Setting("dispatch.workers")
+    @Comment("The amount of worker threads which run the event handlers for accepted deliveries")
+    public int dispatchWorkers = 4;
+    @Setting("dispatch.queue_capacity")
+    @Comment("The maximum amount of accepted deliveries waiting for a worker, before new deliveries are rejected")
+    public int dispatchQueueCapacity = 512;
+
+    @Setting("dedup.capacity")
+    @Comment("The amount of recent delivery IDs remembered to skip redeliveries, or 0 to disable")
+    public int dedupCapacity = 8192;
+    @Setting("dedup.window")
+    @Comment("How long a delivery ID is remembered to skip redeliveries")
+    public Duration dedupWindow = Duration.ofHours(24);
+
+    @Setting("journal.directory")
+    @Comment("The directory for the journal of accepted deliveries, which are replayed on startup if not yet handled, or empty to disable")
+    public String journalDirectory = "";
+    @Setting("journal.segment_size")
+    @Comment("The size of each journal segment file, in MiB")
+    public int journalSegmentSize = 32;
+    @Setting("journal.max_segments")
+    @Comment("The amount of journal segments retained before the oldest segments are compacted")
+    public int journalMaxSegments = 8;
+    @Setting("journal.sync")
+    @Comment("Whether to force every journal write to disk before acknowledging the delivery")
+    public boolean journalSync = false;
+
+    @Setting("state_store.max_age")
+    @Comment("The maximum age of a stored pull request state before it is loaded again, as a safeguard against missed events")
+    public Duration stateStoreMaxAge = Duration.ofMinutes(30);
+
+    @Setting("coalesce.quiet_period")
+    @Comment("The time without events for a pull request after which its readiness is evaluated")
+    public Duration coalesceQuietPeriod = Duration.ofSeconds(5);
+    @Setting("coalesce.max_delay")
+    @Comment("The maximum time between the first event for a pull request and the evaluation of its readiness")
+    public Duration coalesceMaxDelay = Duration.ofSeconds(30);
+
+    @Setting("statistics_interval")
+    @Comment("The interval between printing the webhook statistics, or 0 to disable")
+    public Duration statisticsInterval = Duration.ZERO;
+
+    WebhookConfig() {
+    }
+
+    public enum ServerBackend {
+        JDK,
+        NIO
+    }
+}
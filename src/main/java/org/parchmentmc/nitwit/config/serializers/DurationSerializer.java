@@ -47,7 +47,7 @@ public class DurationSerializer implements TypeSerializer<Duration> {
 
     private static final Pattern DURATION =
             Pattern.compile("(-?)" + "(?:(?<days>\\d+)[dD])?" + "(?:(?<hours>\\d+)[hH])?" + "(?:(?<minutes>\\d+)[mM])?"
-                    + "(?:(?<seconds>\\d+)[sS])?");
+                    + "(?:(?<seconds>\\d+)[sS])?" + "(?:(?<millis>\\d+)(?:ms|MS))?");
 
     @Nullable
     private static Duration deserialize(@Nullable String string) {
@@ -85,11 +85,16 @@ public class DurationSerializer implements TypeSerializer<Duration> {
             duration = duration.plusSeconds(Long.parseLong(seconds));
         }
 
+        final @Nullable String millis = matcher.group("millis");
+        if (millis != null) {
+            duration = duration.plusMillis(Long.parseLong(millis));
+        }
+
         return duration;
     }
 
     private static String serialize(Duration duration) {
-        duration = duration.withNanos(0).minusMillis(duration.toMillisPart());
+        duration = duration.minusNanos(duration.toNanosPart() % 1_000_000);
         if (duration.isZero()) {
             return "0";
         }
@@ -107,11 +112,15 @@ public class DurationSerializer implements TypeSerializer<Duration> {
         }
         final int minutes = duration.toMinutesPart();
         if (minutes > 0) {
-            builder.append(minutes).append('h');
+            builder.append(minutes).append('m');
         }
         final int seconds = duration.toSecondsPart();
         if (seconds > 0) {
-            builder.append(seconds).append('h');
+            builder.append(seconds).append('s');
+        }
+        final int millis = duration.toMillisPart();
+        if (millis > 0) {
+            builder.append(millis).append("ms");
         }
         return builder.toString();
     }
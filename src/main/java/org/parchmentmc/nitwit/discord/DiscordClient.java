@@ -1,10 +1,13 @@
 package org.parchmentmc.nitwit.discord;
 
-import com.apollographql.apollo.ApolloClient;
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Message;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.parchmentmc.nitwit.config.Configuration;
 import org.parchmentmc.nitwit.util.LambdaUtil;
+import org.parchmentmc.nitwit.util.pr.PullRequestStateStore;
+import org.parchmentmc.nitwit.util.pr.RepositoryRegistry;
+import org.parchmentmc.nitwit.util.pr.TrackedRepository;
 import org.spongepowered.configurate.CommentedConfigurationNode;
 import org.spongepowered.configurate.reference.ValueReference;
 
@@ -20,16 +23,19 @@ public class DiscordClient {
 
     private final CompletableFuture<JDA> jdaFuture;
     private JDA jda = null;
-    private final CompletableFuture<ApolloClient> apolloFuture;
-    private ApolloClient apollo = null;
     private final ValueReference<Configuration, CommentedConfigurationNode> configuration;
     private final CommandManager commandManager;
+    @Nullable
+    private final PullRequestStateStore stateStore;
+    private final RepositoryRegistry repositories;
 
-    public DiscordClient(CompletableFuture<JDA> jdaFuture, CompletableFuture<ApolloClient> apolloFuture,
-                         ValueReference<Configuration, CommentedConfigurationNode> configuration) {
+    public DiscordClient(CompletableFuture<JDA> jdaFuture, RepositoryRegistry repositories,
+                         ValueReference<Configuration, CommentedConfigurationNode> configuration,
+                         @Nullable PullRequestStateStore stateStore) {
         this.jdaFuture = jdaFuture;
-        this.apolloFuture = apolloFuture;
+        this.repositories = repositories;
         this.configuration = configuration;
+        this.stateStore = stateStore;
         this.commandManager = new CommandManager(this);
         jdaFuture.thenAccept(jda -> jda.addEventListener(commandManager));
         ACTIVE = this;
@@ -46,19 +52,31 @@ public class DiscordClient {
         return jda;
     }
 
-    public ApolloClient getGraphQLClient() {
-        if (apollo == null) {
-            if (!apolloFuture.isDone()) {
-                throw new IllegalStateException("Cannot access Apollo Client while loading is not finished");
-            }
-            apollo = LambdaUtil.uncheck(apolloFuture::get);
-        }
+    public Configuration config() {
+        return Objects.requireNonNull(configuration.get());
+    }
 
-        return apollo;
+    /**
+     * {@return the store of pull request states kept up to date by webhook events, or {@code null} if the webhook
+     * server is not running in-process}
+     */
+    @Nullable
+    public PullRequestStateStore getStateStore() {
+        return stateStore;
     }
 
-    public Configuration config() {
-        return Objects.requireNonNull(configuration.get());
+    public RepositoryRegistry getRepositories() {
+        return repositories;
+    }
+
+    /**
+     * {@return the repository which commands in the channel of the given message refer to}
+     *
+     * @param message the message
+     */
+    public TrackedRepository getRepository(Message message) {
+        return repositories.select(config().discord, message.isFromGuild() ? message.getGuild().getId() : null,
+                message.getChannel().getId());
     }
 
     public CommandManager getCommands() {
@@ -0,0 +1,83 @@
+package org.parchmentmc.nitwit.discord;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.TextChannel;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.util.pr.RequirementCalculator.ReviewState;
+import org.parchmentmc.nitwit.util.pr.TrackedRepository;
+import org.parchmentmc.nitwit.webhook.events.PullRequestKey;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Announces changes in the readiness of pull requests in the Discord channel configured for their repository.
+ *
+ * <p>The last evaluated readiness of each pull request is remembered, so only changes are announced. A pull request
+ * evaluated for the first time is taken to have been under review before.</p>
+ */
+public class ReadinessAnnouncer {
+    /**
+     * The amount of pull requests whose readiness is remembered.
+     */
+    private static final int CAPACITY = 1024;
+
+    private final CompletableFuture<JDA> jda;
+    private final Map<PullRequestKey, ReviewState> states = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<PullRequestKey, ReviewState> eldest) {
+                    return size() > CAPACITY;
+                }
+            });
+
+    /**
+     * Creates an announcer.
+     *
+     * @param jda the Discord client, which the announcements wait for
+     */
+    public ReadinessAnnouncer(CompletableFuture<JDA> jda) {
+        this.jda = jda;
+    }
+
+    /**
+     * Records the evaluated readiness of a pull request, announcing it if it changed.
+     *
+     * @param repository the repository of the pull request
+     * @param key        the pull request
+     * @param state      the evaluated readiness
+     */
+    public void update(TrackedRepository repository, PullRequestKey key, ReviewState state) {
+        final @Nullable ReviewState previous = states.put(key, state);
+        if (state == (previous != null ? previous : ReviewState.UNDER_REVIEW)) {
+            return;
+        }
+
+        final long channelID = repository.config().readinessChannel;
+        if (channelID == 0) {
+            return;
+        }
+        jda.thenAccept(discord -> {
+            final @Nullable TextChannel channel = discord.getTextChannelById(channelID);
+            if (channel == null) {
+                System.err.println("Unknown readiness channel " + channelID + " of repository " + repository.name());
+                return;
+            }
+            channel.sendMessage(message(key, state)).queue(null, e -> {
+                System.err.println("Failed to announce readiness of pull request " + key);
+                e.printStackTrace();
+            });
+        });
+    }
+
+    private static String message(PullRequestKey key, ReviewState state) {
+        final String link = "https://github.com/" + key.repository() + "/pull/" + key.number();
+        return "Pull request " + key + switch (state) {
+            case UNDER_REVIEW -> " is back under review: ";
+            case WAITING -> " is waiting out its review period: ";
+            case READY_FOR_MERGE -> " is **ready for merge**: ";
+        } + link;
+    }
+}
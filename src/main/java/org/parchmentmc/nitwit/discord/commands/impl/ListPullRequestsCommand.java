@@ -20,6 +20,7 @@ import org.parchmentmc.nitwit.discord.pagination.PaginationHelper;
 import org.parchmentmc.nitwit.discord.pagination.PaginationInfo;
 import org.parchmentmc.nitwit.graphql.PullRequestsQuery;
 import org.parchmentmc.nitwit.util.graphql.GraphQLHelper;
+import org.parchmentmc.nitwit.util.pr.TrackedRepository;
 
 import java.util.Collection;
 import java.util.Comparator;
@@ -48,11 +49,12 @@ public class ListPullRequestsCommand {
         final Message message = msgCtx.getMessage();
         final String authorID = msgCtx.getUser().getId();
 
-        final ApolloClient apollo = client.getGraphQLClient();
-        final String owner = client.config().github.organization;
-        final String repo = client.config().github.repositoryName;
+        final TrackedRepository tracked = client.getRepository(message);
+        final ApolloClient apollo = tracked.getGraphQLClient();
+        final String owner = tracked.owner();
+        final String repo = tracked.repository();
 
-        query(apollo, owner, repo, List.of(client.config().github.mappingsLabel), null, null)
+        query(apollo, owner, repo, List.of(tracked.config().mappingsLabel), null, null)
                 .singleOrError()
                 .flatMap(nullableMapS(Response<PullRequestsQuery.Data>::getData,
                         npe("Pull requests query returned no data.")))
@@ -135,15 +137,17 @@ public class ListPullRequestsCommand {
             final String userID = info.userID();
             final String[] tokens = info.tokens();
 
-            final ApolloClient apollo = client.getGraphQLClient();
-            final String owner = client.config().github.organization;
-            final String repo = client.config().github.repositoryName;
+            // The message being paged is in the same channel as the command, so it selects the same repository
+            final TrackedRepository tracked = client.getRepository(event.getMessage());
+            final ApolloClient apollo = tracked.getGraphQLClient();
+            final String owner = tracked.owner();
+            final String repo = tracked.repository();
 
             if (tokens.length >= 2) {
                 String cursor = tokens[1];
                 switch (tokens[0]) {
                     case PULL_REQUEST_LISTING_NEXT -> query(apollo, owner, repo,
-                            List.of(client.config().github.mappingsLabel), null, cursor)
+                            List.of(tracked.config().mappingsLabel), null, cursor)
                             .singleOrError()
                             .flatMap(nullableMapS(Response<PullRequestsQuery.Data>::getData,
                                     npe("Pull requests query returned no data.")))
@@ -152,7 +156,7 @@ public class ListPullRequestsCommand {
                             .blockingSubscribe(msg -> event.editMessage(msg).queue());
 
                     case PULL_REQUEST_LISTING_PREVIOUS -> query(apollo, owner, repo,
-                            List.of(client.config().github.mappingsLabel), cursor, null)
+                            List.of(tracked.config().mappingsLabel), cursor, null)
                             .singleOrError()
                             .flatMap(nullableMapS(Response<PullRequestsQuery.Data>::getData,
                                     npe("Pull requests query returned no data.")))
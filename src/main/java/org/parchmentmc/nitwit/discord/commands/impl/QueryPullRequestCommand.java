@@ -4,12 +4,15 @@ import com.apollographql.apollo.ApolloClient;
 import com.github.api.fragment.PullRequestInfo;
 import com.github.api.type.MergeableState;
 import com.github.api.type.PullRequestReviewState;
-import com.github.api.type.RepositoryPermission;
 import com.github.api.type.StatusState;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.CommandDispatcher;
-import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.LiteralMessage;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import io.reactivex.rxjava3.core.Single;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.MessageBuilder;
@@ -19,58 +22,137 @@ import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.utils.MarkdownUtil;
 import net.dv8tion.jda.api.utils.TimeFormat;
 import org.parchmentmc.nitwit.config.CosmeticConfig;
+import org.parchmentmc.nitwit.config.GitHubConfig;
 import org.parchmentmc.nitwit.discord.DiscordClient;
 import org.parchmentmc.nitwit.discord.commands.CommandHelper;
 import org.parchmentmc.nitwit.discord.commands.MessageContext;
+import org.parchmentmc.nitwit.util.pr.MembershipIndex;
+import org.parchmentmc.nitwit.util.pr.PullRequestStateStore;
 import org.parchmentmc.nitwit.util.pr.RequirementCalculator;
+import org.parchmentmc.nitwit.util.pr.TrackedRepository;
 
 import javax.annotation.Nullable;
 import java.awt.*;
 import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class QueryPullRequestCommand {
+    /**
+     * The maximum amount of pull requests queried at once, which is also the maximum amount of embeds in a message.
+     */
+    static final int MAX_PULL_REQUESTS = 10;
+
+    private static final SimpleCommandExceptionType NO_NUMBERS = new SimpleCommandExceptionType(
+            new LiteralMessage("No pull request numbers given."));
+    private static final DynamicCommandExceptionType INVALID_NUMBER = new DynamicCommandExceptionType(token ->
+            new LiteralMessage("Invalid pull request number or range: " + token));
+    private static final SimpleCommandExceptionType TOO_MANY_NUMBERS = new SimpleCommandExceptionType(
+            new LiteralMessage("Too many pull requests, at most " + MAX_PULL_REQUESTS + " can be queried at once."));
+
     public static void register(CommandDispatcher<MessageContext> dispatcher) {
         dispatcher.register(CommandHelper.literal("query")
-                .then(CommandHelper.argument("number", IntegerArgumentType.integer(1))
+                .then(CommandHelper.argument("numbers", StringArgumentType.greedyString())
                         .executes(QueryPullRequestCommand::doQuery)
                 )
         );
     }
 
-    static record MembersInfo(List<String> reviewers, List<String> collaborators) {
+    /**
+     * Parses a list of pull request numbers and ranges, such as {@code 12 15, #20-23}.
+     *
+     * @param input the list, separated by whitespace or commas
+     * @return the distinct numbers, in the order given
+     * @throws CommandSyntaxException if a number or range is invalid, or there are too many numbers
+     */
+    static List<Integer> parseNumbers(String input) throws CommandSyntaxException {
+        final Set<Integer> numbers = new LinkedHashSet<>();
+        for (String token : input.split("[\\s,]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            final String[] bounds = token.split("-", -1);
+            if (bounds.length > 2) {
+                throw INVALID_NUMBER.create(token);
+            }
+            final int from = parseNumber(bounds[0], token);
+            final int to = bounds.length == 2 ? parseNumber(bounds[1], token) : from;
+            if (to < from) {
+                throw INVALID_NUMBER.create(token);
+            }
+            if (to - from >= MAX_PULL_REQUESTS) {
+                throw TOO_MANY_NUMBERS.create();
+            }
+            for (int number = from; number <= to; number++) {
+                numbers.add(number);
+            }
+            if (numbers.size() > MAX_PULL_REQUESTS) {
+                throw TOO_MANY_NUMBERS.create();
+            }
+        }
+        if (numbers.isEmpty()) {
+            throw NO_NUMBERS.create();
+        }
+        return List.copyOf(numbers);
+    }
+
+    private static int parseNumber(String number, String token) throws CommandSyntaxException {
+        try {
+            final int value = Integer.parseInt(number.startsWith("#") ? number.substring(1) : number);
+            if (value < 1) {
+                throw INVALID_NUMBER.create(token);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw INVALID_NUMBER.create(token);
+        }
     }
 
-    private static int doQuery(CommandContext<MessageContext> ctx) {
-        final int number = IntegerArgumentType.getInteger(ctx, "number");
+    private static int doQuery(CommandContext<MessageContext> ctx) throws CommandSyntaxException {
+        final List<Integer> numbers = parseNumbers(StringArgumentType.getString(ctx, "numbers"));
         final MessageContext msgCtx = ctx.getSource();
         final DiscordClient client = msgCtx.getClient();
         final Message message = msgCtx.getMessage();
 
-        final ApolloClient graphQL = client.getGraphQLClient();
-        final String organization = client.config().github.organization;
-        final String repository = client.config().github.repositoryName;
-        final String teamName = client.config().github.reviewersTeam;
+        final TrackedRepository tracked = client.getRepository(message);
+        final ApolloClient graphQL = tracked.getGraphQLClient();
+        final GitHubConfig github = tracked.config();
+        final String organization = tracked.owner();
+        final String repository = tracked.repository();
 
         final Single<Message> replySingle = Single.fromFuture(message.replyEmbeds(CommandHelper.createProcessingEmbed()).submit());
 
-        final Single<List<String>> teamMembersSingle =
-                RequirementCalculator.getTeamMembers(graphQL, organization, teamName);
-        final Single<List<String>> collaboratorsSingle =
-                RequirementCalculator.getCollaborators(graphQL, organization, repository, RepositoryPermission.WRITE);
-
-        final Single<MembersInfo> membersInfoSingle = Single.zip(teamMembersSingle, collaboratorsSingle, MembersInfo::new);
-
-        final Single<RequirementCalculator.PullRequestState> prStateSingle = RequirementCalculator.queryState(graphQL, organization, repository, number);
-
-        final Single<Message> messageSingle = Single
-                .zip(prStateSingle, membersInfoSingle, (prState, membersInfo) -> createMessage(client, prState, membersInfo))
-                .onErrorReturn(CommandHelper::createErrorMessage);
+        // Only queried if the index has not been loaded yet
+        final Single<MembershipIndex> membersSingle = tracked.membershipIndex().get(graphQL);
+
+        // The queries are all issued at once, so they are merged into a single GraphQL request
+        final PullRequestStateStore stateStore = client.getStateStore();
+        final Single<Message> messageSingle;
+        if (numbers.size() == 1) {
+            messageSingle = Single
+                    .zip(queryState(graphQL, stateStore, organization, repository, numbers.get(0)), membersSingle,
+                            (prState, members) -> createMessage(client, github, prState, members))
+                    .onErrorReturn(CommandHelper::createErrorMessage);
+        } else {
+            final List<Single<MessageEmbed>> embedSingles = new ArrayList<>(numbers.size());
+            for (int number : numbers) {
+                embedSingles.add(Single
+                        .zip(queryState(graphQL, stateStore, organization, repository, number), membersSingle,
+                                (prState, members) -> createCompactEmbed(client, github, prState, members))
+                        .onErrorReturn(e -> CommandHelper.createErrorEmbed("Pull request #" + number + ':', e)));
+            }
+            messageSingle = Single.zip(embedSingles, embeds -> new MessageBuilder()
+                    .setEmbeds(Arrays.stream(embeds).map(MessageEmbed.class::cast).toList())
+                    .build());
+        }
 
         Single.zip(replySingle, messageSingle, (reply, newMessage) -> Single.fromFuture(reply.editMessage(newMessage).submit()))
                 .blockingSubscribe();
@@ -78,12 +160,21 @@ public class QueryPullRequestCommand {
         return Command.SINGLE_SUCCESS;
     }
 
-    private static Message createMessage(DiscordClient client, RequirementCalculator.PullRequestState prState,
-                                         MembersInfo membersInfo) {
+    private static Single<RequirementCalculator.PullRequestState> queryState(ApolloClient graphQL,
+                                                                           @Nullable PullRequestStateStore stateStore,
+                                                                           String organization, String repository,
+                                                                           int number) {
+        return stateStore != null
+                ? stateStore.get(graphQL, organization, repository, number)
+                : RequirementCalculator.queryState(graphQL, organization, repository, number);
+    }
+
+    private static Message createMessage(DiscordClient client, GitHubConfig github,
+                                         RequirementCalculator.PullRequestState prState, MembershipIndex members) {
         final MessageBuilder builder = new MessageBuilder();
 
-        final MessageEmbed mainEmbed = createMainEmbed(client, prState, membersInfo);
-        final MessageEmbed reviewsEmbed = createReviewsEmbed(client, membersInfo, prState);
+        final MessageEmbed mainEmbed = createMainEmbed(client, github, prState, members);
+        final MessageEmbed reviewsEmbed = createReviewsEmbed(client, members, prState);
 
         if (reviewsEmbed != null) {
             builder.setEmbeds(mainEmbed, reviewsEmbed);
@@ -95,7 +186,7 @@ public class QueryPullRequestCommand {
     }
 
     @Nullable
-    private static MessageEmbed createReviewsEmbed(DiscordClient client, MembersInfo membersInfo,
+    private static MessageEmbed createReviewsEmbed(DiscordClient client, MembershipIndex members,
                                                    RequirementCalculator.PullRequestState prState) {
         final List<RequirementCalculator.Review> changeRequestingReviews = prState.latestReviewsWithState(PullRequestReviewState.CHANGES_REQUESTED);
         final List<RequirementCalculator.Review> approvingReviews = prState.latestReviewsWithState(PullRequestReviewState.APPROVED);
@@ -121,7 +212,7 @@ public class QueryPullRequestCommand {
 
             description.append(stateEmote.getAsMention())
                     .append(" from ")
-                    .append(prefixAndMarkdown(review.userLogin(), membersInfo))
+                    .append(prefixAndMarkdown(review.userLogin(), members))
                     .append(" on ")
                     .append(TimeFormat.DATE_TIME_SHORT.format(review.submitTime()))
                     .append(" (")
@@ -133,30 +224,18 @@ public class QueryPullRequestCommand {
         return builder.build();
     }
 
-    private static MessageEmbed createMainEmbed(DiscordClient client, RequirementCalculator.PullRequestState prState,
-                                                MembersInfo membersInfo) {
+    private static MessageEmbed createMainEmbed(DiscordClient client, GitHubConfig github,
+                                                RequirementCalculator.PullRequestState prState,
+                                                MembershipIndex members) {
         final RequirementCalculator.Review baseReview = RequirementCalculator.getTimeBaseReview(prState.latestReviews(),
-                membersInfo.collaborators()::contains, membersInfo.reviewers()::contains);
+                members::isCollaborator, members::isReviewer);
 
         final PullRequestInfo info = prState.pullRequest().fragments().pullRequestInfo();
 
         final EmbedBuilder builder = new EmbedBuilder();
 
-        final CosmeticConfig.EmoteConfig emotes = client.config().cosmetic.emotes;
-        final Emoji stateEmote = switch (info.state()) {
-            case OPEN -> info.isDraft() ? emotes.prDraft : emotes.prOpen;
-            case CLOSED -> emotes.prClosed;
-            case MERGED -> emotes.prMerged;
-            default -> emotes.pending;
-        };
-
-        final CosmeticConfig.ColorsConfig colors = client.config().cosmetic.colors;
-        builder.setColor(switch (info.state()) {
-            case OPEN -> info.isDraft() ? colors.neutral : colors.success;
-            case CLOSED -> colors.danger;
-            case MERGED -> colors.merged;
-            default -> null;
-        });
+        final Emoji stateEmote = getStateEmote(client, info);
+        builder.setColor(getStateColor(client, info));
 
         builder.setTitle(stateEmote.getAsMention() + " Pull Request #" + info.number(), info.url().toASCIIString());
         builder.appendDescription(MarkdownUtil.codeblock(info.title()) + '\n');
@@ -236,19 +315,7 @@ public class QueryPullRequestCommand {
         builder.addField("Requirements", fieldBuilder.toString(), false);
 
         if (baseReview != null) {
-            Duration lastCallDuration = client.config().github.reviewDuration;
-            final String shortDurationLabel = client.config().github.shortDurationLabel;
-            if (shortDurationLabel != null) {
-                if (Optional.ofNullable(info.labels())
-                        .map(PullRequestInfo.Labels::nodes)
-                        .stream()
-                        .flatMap(Collection::stream)
-                        .map(PullRequestInfo.Node::name)
-                        .anyMatch(shortDurationLabel::equals)) {
-
-                    lastCallDuration = client.config().github.shortDuration;
-                }
-            }
+            final Duration lastCallDuration = RequirementCalculator.getReviewDuration(info, github);
 
             final OffsetDateTime timeBase = baseReview.submitTime();
             final OffsetDateTime mergeReadyTime = timeBase.plus(lastCallDuration);
@@ -262,13 +329,77 @@ public class QueryPullRequestCommand {
         return builder.build();
     }
 
-    private static String prefixAndMarkdown(String login, MembersInfo info) {
+    /**
+     * Creates a compact embed of a pull request, for replies about multiple pull requests: the title links to the
+     * pull request, and the requirements and review state fit on a few lines.
+     */
+    private static MessageEmbed createCompactEmbed(DiscordClient client, GitHubConfig github,
+                                                   RequirementCalculator.PullRequestState prState,
+                                                   MembershipIndex members) {
+        final PullRequestInfo info = prState.pullRequest().fragments().pullRequestInfo();
+        final RequirementCalculator.Review baseReview = RequirementCalculator.getTimeBaseReview(prState.latestReviews(),
+                members::isCollaborator, members::isReviewer);
+        final Duration reviewDuration = RequirementCalculator.getReviewDuration(info, github);
+
+        final String title = getStateEmote(client, info).getAsMention() + " #" + info.number() + ": " + info.title();
+        final EmbedBuilder builder = new EmbedBuilder()
+                .setTitle(title.length() > MessageEmbed.TITLE_MAX_LENGTH
+                        ? title.substring(0, MessageEmbed.TITLE_MAX_LENGTH - 3) + "..."
+                        : title, info.url().toASCIIString())
+                .setColor(getStateColor(client, info));
+
+        final long unresolved = prState.unresolvedThreads();
+        final int changesRequested = prState.latestReviewsWithState(PullRequestReviewState.CHANGES_REQUESTED).size();
+        final int approvals = prState.latestReviewsWithState(PullRequestReviewState.APPROVED).size();
+        builder.appendDescription(String.join(" \u00B7 ",
+                CommandHelper.getIcon(client, prState.mergeableState() == MergeableState.MERGEABLE).getAsMention()
+                        + " mergeable",
+                CommandHelper.getIcon(client, prState.commitStatus() == StatusState.SUCCESS).getAsMention()
+                        + " checks",
+                CommandHelper.getIcon(client, unresolved == 0).getAsMention() + ' ' + unresolved + " unresolved",
+                CommandHelper.getIcon(client, changesRequested == 0).getAsMention() + ' ' + changesRequested
+                        + " changes requested",
+                CommandHelper.getIcon(client, approvals >= 2).getAsMention() + ' ' + approvals + " approvals"));
+
+        final RequirementCalculator.ReviewState reviewState = RequirementCalculator.getReviewState(prState, baseReview,
+                reviewDuration, OffsetDateTime.now(ZoneOffset.UTC));
+        builder.appendDescription("\n" + switch (reviewState) {
+            case UNDER_REVIEW -> "Under review";
+            case WAITING -> "Ready for merge " + TimeFormat.RELATIVE.format(baseReview.submitTime().plus(reviewDuration));
+            case READY_FOR_MERGE -> "**Ready for merge**";
+        });
+
+        return builder.build();
+    }
+
+    private static Emoji getStateEmote(DiscordClient client, PullRequestInfo info) {
+        final CosmeticConfig.EmoteConfig emotes = client.config().cosmetic.emotes;
+        return switch (info.state()) {
+            case OPEN -> info.isDraft() ? emotes.prDraft : emotes.prOpen;
+            case CLOSED -> emotes.prClosed;
+            case MERGED -> emotes.prMerged;
+            default -> emotes.pending;
+        };
+    }
+
+    @Nullable
+    private static Color getStateColor(DiscordClient client, PullRequestInfo info) {
+        final CosmeticConfig.ColorsConfig colors = client.config().cosmetic.colors;
+        return switch (info.state()) {
+            case OPEN -> info.isDraft() ? colors.neutral : colors.success;
+            case CLOSED -> colors.danger;
+            case MERGED -> colors.merged;
+            default -> null;
+        };
+    }
+
+    private static String prefixAndMarkdown(String login, MembershipIndex members) {
         String ret = '@' + login;
 
-        if (info.collaborators().contains(login)) {
+        if (members.isCollaborator(login)) {
             ret = MarkdownUtil.italics(ret);
         }
-        if (info.reviewers().contains(login)) {
+        if (members.isReviewer(login)) {
             ret = MarkdownUtil.bold(ret);
         }
 
@@ -31,13 +31,15 @@ public final class AuthenticationHelper {
     }
 
     public static String createJWT(Path privateKey, String githubAppId, long ttlMillis) throws Exception {
+        return createJWT(readPrivateKey(privateKey), githubAppId, ttlMillis);
+    }
+
+    public static String createJWT(Key signingKey, String githubAppId, long ttlMillis) {
         SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.RS256;
 
         long nowMillis = System.currentTimeMillis();
         Date now = new Date(nowMillis);
 
-        Key signingKey = readPrivateKey(privateKey);
-
         JwtBuilder builder = Jwts.builder()
                 .setIssuedAt(now)
                 .setIssuer(githubAppId)
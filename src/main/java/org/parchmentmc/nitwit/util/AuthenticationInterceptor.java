@@ -7,19 +7,33 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Interceptor which adds an Authorization token
  */
 public class AuthenticationInterceptor implements Interceptor {
-    private final String value;
+    private final Supplier<String> value;
 
     public static AuthenticationInterceptor bearer(String token) {
         Objects.requireNonNull(token, "token == null");
-        return new AuthenticationInterceptor("Bearer " + token);
+        final String value = "Bearer " + token;
+        return new AuthenticationInterceptor(() -> value);
     }
 
-    AuthenticationInterceptor(String value) {
+    /**
+     * Creates an interceptor which adds the current token of the given supplier to each request, for tokens which
+     * are replaced over time.
+     *
+     * @param token the supplier of the current token
+     * @return the interceptor
+     */
+    public static AuthenticationInterceptor bearer(Supplier<String> token) {
+        Objects.requireNonNull(token, "token == null");
+        return new AuthenticationInterceptor(() -> "Bearer " + token.get());
+    }
+
+    AuthenticationInterceptor(Supplier<String> value) {
         this.value = value;
     }
 
@@ -27,7 +41,7 @@ public class AuthenticationInterceptor implements Interceptor {
     @Override
     public Response intercept(@NotNull Chain chain) throws IOException {
         final Request request = chain.request().newBuilder()
-                .addHeader("Authorization", value)
+                .addHeader("Authorization", value.get())
                 .build();
 
         return chain.proceed(request);
@@ -0,0 +1,109 @@
+package org.parchmentmc.nitwit.util;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import org.parchmentmc.nitwit.config.Configuration.HttpProfileConfig;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An HTTP client for the traffic to one upstream, such as GitHub or Discord, so a backlog of requests to one upstream
+ * cannot hold up the requests to another.
+ *
+ * <p>The client is derived from a base client, so it shares its HTTP cache and the threads of its dispatcher, while
+ * it has its own dispatcher limits and connection pool. The protocol of each response received from the network is
+ * counted, and the protocol negotiated with each host is logged once, which shows whether requests are multiplexed
+ * over HTTP/2.</p>
+ */
+public class HttpClientProfile {
+    private final String name;
+    private final OkHttpClient client;
+    private final Map<Protocol, LongAdder> responses = new EnumMap<>(Protocol.class);
+    /**
+     * The hosts and protocols which were logged, as {@code host protocol}.
+     */
+    private final Set<String> negotiated = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a profile.
+     *
+     * @param name   the name of the profile, for logging
+     * @param base   the base client, whose dispatcher threads and HTTP cache are shared
+     * @param config the configuration of the profile
+     */
+    public HttpClientProfile(String name, OkHttpClient base, HttpProfileConfig config) {
+        this.name = name;
+        for (Protocol protocol : Protocol.values()) {
+            responses.put(protocol, new LongAdder());
+        }
+
+        final Dispatcher dispatcher = new Dispatcher(base.dispatcher().executorService());
+        dispatcher.setMaxRequests(config.maxRequests);
+        dispatcher.setMaxRequestsPerHost(config.maxRequestsPerHost);
+        this.client = base.newBuilder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(config.maxIdleConnections, config.keepAlive.toMillis(),
+                        TimeUnit.MILLISECONDS))
+                .addNetworkInterceptor(chain -> record(chain.proceed(chain.request())))
+                .build();
+    }
+
+    private Response record(Response response) {
+        final Protocol protocol = response.protocol();
+        responses.get(protocol).increment();
+        final String host = response.request().url().host();
+        if (negotiated.add(host + ' ' + protocol)) {
+            System.out.println("HTTP client " + name + " is connected to " + host + " over " + protocol);
+        }
+        return response;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * {@return a snapshot of the connection pool and dispatcher gauges, and the responses by protocol}
+     */
+    public Statistics statistics() {
+        final Map<Protocol, Long> byProtocol = new EnumMap<>(Protocol.class);
+        responses.forEach((protocol, count) -> {
+            final long sum = count.sum();
+            if (sum > 0) {
+                byProtocol.put(protocol, sum);
+            }
+        });
+        return new Statistics(client.connectionPool().connectionCount(), client.connectionPool().idleConnectionCount(),
+                client.dispatcher().runningCallsCount(), client.dispatcher().queuedCallsCount(), byProtocol);
+    }
+
+    /**
+     * A snapshot of the statistics of a profile.
+     *
+     * @param connections     the amount of pooled connections
+     * @param idleConnections the amount of pooled connections which are idle
+     * @param runningCalls    the amount of calls being executed
+     * @param queuedCalls     the amount of calls waiting for the dispatcher limits
+     * @param responses       the total amount of network responses by protocol
+     */
+    public record Statistics(int connections, int idleConnections, int runningCalls, int queuedCalls,
+                             Map<Protocol, Long> responses) {
+        @Override
+        public String toString() {
+            return "%s connections (%s idle), %s running, %s queued, responses %s".formatted(connections,
+                    idleConnections, runningCalls, queuedCalls, responses);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.parchmentmc.nitwit.util;
+
+import org.jetbrains.annotations.Nullable;
+import org.kohsuke.github.GHAppInstallationToken;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the installation tokens of a GitHub App, refreshing them in the background before they expire.
+ *
+ * <p>The private key of the app is read and parsed once, and the JWT signed with it is reused by every installation
+ * until shortly before it expires. The current token of each installation is held in a volatile field, so requests
+ * read it without locking and never wait for a refresh. A new token is created once the refresh margin before the
+ * expiry of the current token is reached; failed refreshes are retried with backoff, while requests keep using the
+ * current token. The refreshes of all installations run on the given scheduler, so tracking more installations does
+ * not need more threads.</p>
+ */
+public class InstallationTokenManager {
+    /**
+     * The lifetime of the JWTs, which GitHub limits to 10 minutes.
+     */
+    private static final long JWT_TIME_TO_LIVE = Duration.ofMinutes(10).toMillis();
+    /**
+     * How long before its expiry a JWT is replaced, so it does not expire while in use.
+     */
+    private static final long JWT_RENEW_MARGIN = Duration.ofMinutes(1).toMillis();
+    private static final long MIN_RETRY_DELAY = Duration.ofSeconds(15).toMillis();
+    private static final long MAX_RETRY_DELAY = Duration.ofMinutes(5).toMillis();
+
+    private final PrivateKey privateKey;
+    private final String appId;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private @Nullable String jwt = null;
+    private long jwtExpiresAtMillis = 0;
+
+    /**
+     * Creates a token manager, reading the private key of the app.
+     *
+     * @param privateKey the location of the PKCS#8 private key of the app
+     * @param appId      the ID of the app
+     * @param scheduler  the scheduler which runs the refreshes of the tokens
+     * @throws Exception if the private key cannot be read
+     */
+    public InstallationTokenManager(Path privateKey, String appId, ScheduledExecutorService scheduler)
+            throws Exception {
+        this.privateKey = AuthenticationHelper.readPrivateKey(privateKey);
+        this.appId = appId;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Creates the first token of the installation of the app in the given organization, and schedules its refreshes.
+     *
+     * @param organization  the organization which the app is installed in
+     * @param refreshMargin how long before the expiry of a token it is refreshed
+     * @return the installation, with its current token
+     * @throws IOException if the token cannot be created
+     */
+    public Installation start(String organization, Duration refreshMargin) throws IOException {
+        final Installation installation = new Installation(organization, refreshMargin.toMillis());
+        final Token created = installation.createToken();
+        installation.token = created;
+        installation.schedule(installation.refreshDelay(created.expiresAt(), Instant.now()));
+        return installation;
+    }
+
+    /**
+     * {@return a JWT for authenticating as the app, signed with the cached private key}
+     */
+    public synchronized String getJWT() {
+        final long now = System.currentTimeMillis();
+        if (jwt == null || now >= jwtExpiresAtMillis - JWT_RENEW_MARGIN) {
+            jwt = AuthenticationHelper.createJWT(privateKey, appId, JWT_TIME_TO_LIVE);
+            jwtExpiresAtMillis = now + JWT_TIME_TO_LIVE;
+        }
+        return jwt;
+    }
+
+    /**
+     * An installation of the app, with its current token.
+     */
+    public final class Installation {
+        private final String organization;
+        private final long refreshMarginMillis;
+
+        private volatile @Nullable Token token = null;
+        // Only accessed by the scheduler thread
+        private long retryDelayMillis = MIN_RETRY_DELAY;
+
+        private Installation(String organization, long refreshMarginMillis) {
+            this.organization = organization;
+            this.refreshMarginMillis = refreshMarginMillis;
+        }
+
+        public String getOrganization() {
+            return organization;
+        }
+
+        /**
+         * {@return the current installation token}
+         */
+        public String getToken() {
+            final @Nullable Token current = token;
+            if (current == null) {
+                throw new IllegalStateException("No installation token was created yet for " + organization);
+            }
+            return current.value();
+        }
+
+        private Token createToken() throws IOException {
+            final GitHub jwtGH = new GitHubBuilder().withJwtToken(getJWT()).build();
+            final GHAppInstallationToken created = jwtGH.getApp().getInstallationByOrganization(organization)
+                    .createToken().create();
+            return new Token(created.getToken(), created.getExpiresAt().toInstant());
+        }
+
+        private void refresh() {
+            try {
+                final Token created = createToken();
+                token = created;
+                retryDelayMillis = MIN_RETRY_DELAY;
+                schedule(refreshDelay(created.expiresAt(), Instant.now()));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to refresh the GitHub App installation token for " + organization
+                        + ", retrying in " + retryDelayMillis / 1000 + "s");
+                e.printStackTrace();
+                schedule(retryDelayMillis);
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY);
+            }
+        }
+
+        private void schedule(long delayMillis) {
+            scheduler.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * {@return the time to wait before refreshing a token, in milliseconds} The token is refreshed the refresh
+         * margin before it expires, but no sooner than halfway through its remaining lifetime, so a margin longer than
+         * the lifetime of tokens does not cause refreshes in a loop.
+         *
+         * @param expiresAt the expiry of the token
+         * @param now       the current time
+         */
+        long refreshDelay(Instant expiresAt, Instant now) {
+            final long lifetime = Math.max(0, Duration.between(now, expiresAt).toMillis());
+            return Math.max(lifetime - refreshMarginMillis, lifetime / 2);
+        }
+    }
+
+    private record Token(String value, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,253 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GraphQL query document whose operation is rewritten so it can be merged with other operations into one document.
+ * The top-level fields of the operation are aliased, and its variables renamed, with a prefix unique within the merged
+ * document; the fragments are kept as they are, and shared between the merged operations.
+ *
+ * <p>Only the subset of GraphQL which Apollo generates for plain queries is supported: a single query operation without
+ * directives and top-level fragment spreads, whose fragments do not use variables.</p>
+ */
+final class AliasedDocument {
+    /**
+     * The variable definitions of the operation, with the variables renamed.
+     */
+    final String variableDefinitions;
+    /**
+     * The top-level selections of the operation, with the fields aliased and the variables renamed.
+     */
+    final String selections;
+    /**
+     * The fragment definitions of the document, by name.
+     */
+    final Map<String, String> fragments;
+
+    private AliasedDocument(String variableDefinitions, String selections, Map<String, String> fragments) {
+        this.variableDefinitions = variableDefinitions;
+        this.selections = selections;
+        this.fragments = fragments;
+    }
+
+    /**
+     * Rewrites a query document for merging.
+     *
+     * @param document the query document
+     * @param prefix   the prefix for the top-level aliases and the variables
+     * @return the rewritten document, or {@code null} if it cannot be merged
+     */
+    static @Nullable AliasedDocument rewrite(String document, String prefix) {
+        final List<String> definitions = splitDefinitions(document);
+        if (definitions == null) {
+            return null;
+        }
+
+        @Nullable String operation = null;
+        final Map<String, String> fragments = new LinkedHashMap<>();
+        for (String definition : definitions) {
+            if (definition.startsWith("fragment ")) {
+                final String name = definition.substring("fragment ".length()).trim().split("\\s", 2)[0];
+                if (definition.indexOf('$') != -1 || fragments.put(name, definition) != null) {
+                    return null; // Variables in fragments would need renaming for each operation
+                }
+            } else if (definition.startsWith("query") && operation == null) {
+                operation = definition;
+            } else {
+                return null; // Mutations, subscriptions, or multiple operations
+            }
+        }
+        if (operation == null) {
+            return null;
+        }
+
+        final int body = indexOfOutsideParentheses(operation, '{');
+        if (body == -1) {
+            return null;
+        }
+        final String header = operation.substring(0, body);
+        if (header.indexOf('@') != -1) {
+            return null;
+        }
+        final int variablesStart = header.indexOf('(');
+        final String variableDefinitions = variablesStart != -1
+                ? renameVariables(header.substring(variablesStart + 1, header.lastIndexOf(')')), prefix)
+                : "";
+
+        final String selections = aliasSelections(
+                renameVariables(operation.substring(body + 1, operation.lastIndexOf('}')), prefix), prefix);
+        if (selections == null) {
+            return null;
+        }
+        return new AliasedDocument(variableDefinitions.trim(), selections.trim(), fragments);
+    }
+
+    /**
+     * Splits a document into its top-level definitions, or returns {@code null} if the braces are unbalanced.
+     */
+    private static @Nullable List<String> splitDefinitions(String document) {
+        final List<String> definitions = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        for (int i = 0; i < document.length(); i++) {
+            final char c = document.charAt(i);
+            if (c == '"' || c == '#') {
+                i = skipIgnored(document, i) - 1;
+                continue;
+            }
+            if (start == -1 && !Character.isWhitespace(c) && c != ',') {
+                start = i;
+            }
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (--depth < 0) {
+                    return null;
+                }
+                if (depth == 0) {
+                    definitions.add(document.substring(start, i + 1));
+                    start = -1;
+                }
+            }
+        }
+        return depth == 0 && start == -1 ? definitions : null;
+    }
+
+    private static int indexOfOutsideParentheses(String text, char target) {
+        int parentheses = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '"' || c == '#') {
+                i = skipIgnored(text, i) - 1;
+            } else if (c == '(') {
+                parentheses++;
+            } else if (c == ')') {
+                parentheses--;
+            } else if (c == target && parentheses == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Renames every variable, both its definition and its uses, by prefixing its name.
+     */
+    private static String renameVariables(String text, String prefix) {
+        final StringBuilder builder = new StringBuilder(text.length() + 32);
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '"' || c == '#') {
+                final int end = skipIgnored(text, i);
+                builder.append(text, i, end);
+                i = end - 1;
+                continue;
+            }
+            builder.append(c);
+            if (c == '$') {
+                builder.append(prefix);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Aliases every top-level field of a selection set by prefixing its response name, or returns {@code null} if the
+     * selection set contains a top-level fragment spread.
+     */
+    private static @Nullable String aliasSelections(String selections, String prefix) {
+        final StringBuilder builder = new StringBuilder(selections.length() + 64);
+        int depth = 0; // Braces and parentheses
+        char previous = '{'; // The last significant character at the top level
+        for (int i = 0; i < selections.length(); i++) {
+            final char c = selections.charAt(i);
+            if (c == '"' || c == '#') {
+                final int end = skipIgnored(selections, i);
+                builder.append(selections, i, end);
+                i = end - 1;
+                continue;
+            }
+            if (c == '{' || c == '(') {
+                depth++;
+            } else if (c == '}' || c == ')') {
+                depth--;
+            }
+
+            if (depth == 0 && isNameStart(c)) {
+                int end = i;
+                while (end < selections.length() && isNamePart(selections.charAt(end))) {
+                    end++;
+                }
+                final String name = selections.substring(i, end);
+                if (previous != ':' && previous != '@') { // The start of a field, rather than its name or a directive
+                    final boolean aliased = nextSignificant(selections, end) == ':';
+                    builder.append(prefix).append(name);
+                    if (!aliased) {
+                        builder.append(": ").append(name);
+                    }
+                } else {
+                    builder.append(name);
+                }
+                previous = 'a';
+                i = end - 1;
+                continue;
+            }
+
+            if (depth == 0 && c == '.') {
+                return null;
+            }
+            builder.append(c);
+            if (!Character.isWhitespace(c) && c != ',') {
+                // A closing brace or parenthesis which returns to the top level ends the previous field
+                previous = depth == 0 && (c == '}' || c == ')') ? 'a' : c;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static char nextSignificant(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (!Character.isWhitespace(c) && c != ',') {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index after the string literal or comment starting at the given index.
+     */
+    private static int skipIgnored(String text, int start) {
+        if (text.charAt(start) == '#') {
+            final int end = text.indexOf('\n', start);
+            return end == -1 ? text.length() : end + 1;
+        }
+        if (text.startsWith("\"\"\"", start)) {
+            final int end = text.indexOf("\"\"\"", start + 3);
+            return end == -1 ? text.length() : end + 3;
+        }
+        for (int i = start + 1; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        return text.length();
+    }
+
+    private static boolean isNameStart(char c) {
+        return c == '_' || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isNamePart(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9');
+    }
+}
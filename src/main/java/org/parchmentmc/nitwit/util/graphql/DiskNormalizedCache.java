@@ -0,0 +1,331 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.cache.ApolloCacheHeaders;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.util.io.MacInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A normalized cache which persists its records to a directory, so the cache survives restarts. It is meant to be
+ * chained behind the in-memory cache, which loads records from it only when they are not in memory.
+ *
+ * <p>Each record is stored in its own file, named after the hash of its key, and read only when it is requested, so
+ * opening the cache does not load anything. Records are written to a temporary file, which is synced to the disk
+ * before it replaces the record file, so a crash leaves either the previous or the new record; records which are
+ * truncated or otherwise unreadable are deleted and treated as missing.</p>
+ *
+ * <p>Records expire once the max age has passed since they were last fetched. A read may ask for a shorter max age
+ * through the {@link #MAX_AGE_HEADER} cache header, such as the freshness window of the operation being read, so an
+ * operation is not answered from records older than that after a restart. The oldest records are evicted once the
+ * total size of the records exceeds the max size. Both are done on a background thread, which also removes
+ * expired records and leftover temporary files when the cache is opened.</p>
+ */
+public class DiskNormalizedCache extends NormalizedCache {
+    private static final String RECORD_SUFFIX = ".record";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * The cache header with the max age in milliseconds of the records read, if shorter than the max age of the cache.
+     */
+    public static final String MAX_AGE_HEADER = "nitwit-max-age-millis";
+    /**
+     * The digest for hashing record keys into file names, for each thread.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available; should be impossible as it's JDK-mandated "
+                    + "to exist", e);
+        }
+    });
+    /**
+     * The fraction of the max size which the records are trimmed to once they exceed it, so that trimming is not
+     * needed again after every write.
+     */
+    private static final double TRIM_RATIO = 0.9;
+
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final long maxAgeMillis;
+    private final RecordFieldJsonAdapter adapter;
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "apollo-disk-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The approximate total size of the records, in bytes.
+     */
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicBoolean trimScheduled = new AtomicBoolean();
+
+    /**
+     * Opens a cache, scanning the directory for its size in the background.
+     *
+     * @param directory    the directory of the records, which is created if it does not exist
+     * @param maxSizeBytes the max total size of the records
+     * @param maxAge       the max age of a record since it was last fetched
+     * @param adapter      the adapter for serializing the fields of records
+     */
+    public DiskNormalizedCache(Path directory, long maxSizeBytes, Duration maxAge, RecordFieldJsonAdapter adapter) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.adapter = adapter;
+        maintenance.execute(() -> trim(true));
+    }
+
+    @Nullable
+    @Override
+    public Record loadRecord(@NotNull String key, @NotNull CacheHeaders cacheHeaders) {
+        final @Nullable Record record = readRecord(key, maxAgeMillis(cacheHeaders));
+        if (record != null && cacheHeaders.hasHeader(ApolloCacheHeaders.EVICT_AFTER_READ)) {
+            delete(recordPath(key));
+        }
+        final @Nullable NormalizedCache next = getNextCache();
+        return record == null && next != null ? next.loadRecord(key, cacheHeaders) : record;
+    }
+
+    @NotNull
+    @Override
+    protected Set<String> performMerge(@NotNull Record apolloRecord, @Nullable Record oldRecord,
+                                       @NotNull CacheHeaders cacheHeaders) {
+        if (oldRecord == null) {
+            writeRecord(apolloRecord);
+            return apolloRecord.keys();
+        }
+
+        // The old record was just read from its file, so it is not shared and can be merged into
+        final Set<String> changedKeys = oldRecord.mergeWith(apolloRecord);
+        if (!changedKeys.isEmpty()) {
+            writeRecord(oldRecord);
+        } else { // Still what was fetched, so renew its age
+            try {
+                Files.setLastModifiedTime(recordPath(oldRecord.getKey()), FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException ignored) {
+            }
+        }
+        return changedKeys;
+    }
+
+    @Override
+    public boolean remove(@NotNull CacheKey cacheKey, boolean cascade) {
+        boolean removed = false;
+        final @Nullable NormalizedCache next = getNextCache();
+        if (next != null) {
+            removed = next.remove(cacheKey, cascade);
+        }
+
+        if (cascade) {
+            final @Nullable Record record = readRecord(cacheKey.getKey(), maxAgeMillis);
+            if (record != null) {
+                for (CacheReference reference : record.referencedFields()) {
+                    removed |= remove(CacheKey.from(reference.getKey()), true);
+                }
+            }
+        }
+        return delete(recordPath(cacheKey.getKey())) || removed;
+    }
+
+    @Override
+    public void clearAll() {
+        final @Nullable NormalizedCache next = getNextCache();
+        if (next != null) {
+            next.clearAll();
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                delete(file);
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            System.err.println("Failed to clear the GraphQL cache directory " + directory);
+            e.printStackTrace();
+        }
+        size.set(0);
+    }
+
+    /**
+     * {@return the max age of the records read with the given cache headers}
+     */
+    private long maxAgeMillis(CacheHeaders cacheHeaders) {
+        final @Nullable String header = cacheHeaders.headerValue(MAX_AGE_HEADER);
+        if (header == null) {
+            return maxAgeMillis;
+        }
+        try {
+            return Math.min(Long.parseLong(header), maxAgeMillis);
+        } catch (NumberFormatException e) {
+            return maxAgeMillis;
+        }
+    }
+
+    private @Nullable Record readRecord(String key, long maxAgeMillis) {
+        final Path path = recordPath(key);
+        final String content;
+        try {
+            final FileTime modified = Files.getLastModifiedTime(path);
+            if (isExpired(modified, this.maxAgeMillis)) {
+                delete(path);
+                return null;
+            }
+            if (isExpired(modified, maxAgeMillis)) { // Too old for this read, but still of use to others
+                return null;
+            }
+            content = Files.readString(path, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to read GraphQL cache record " + path);
+            e.printStackTrace();
+            return null;
+        }
+
+        // The key comes first, to tell apart keys with the same hash
+        final int newline = content.indexOf('\n');
+        if (newline != key.length() || !content.startsWith(key)) {
+            return null;
+        }
+        try {
+            final Map<String, Object> fields = adapter.from(content.substring(newline + 1));
+            return Record.builder(key).addFields(fields).build();
+        } catch (IOException | RuntimeException e) { // Such as a record truncated by a crash
+            System.err.println("Discarding unreadable GraphQL cache record " + path + ": " + e);
+            delete(path);
+            return null;
+        }
+    }
+
+    private void writeRecord(Record record) {
+        final byte[] content = (record.getKey() + '\n' + adapter.toJson(record.getFields()))
+                .getBytes(StandardCharsets.UTF_8);
+        final Path path = recordPath(record.getKey());
+        @Nullable Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, null, TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // Otherwise the move may reach the disk before the content, leaving an empty record after a crash
+                channel.force(true);
+            }
+
+            final long previousSize = Files.exists(path) ? Files.size(path) : 0;
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            if (size.addAndGet(content.length - previousSize) > maxSizeBytes && trimScheduled.compareAndSet(false, true)) {
+                maintenance.execute(() -> trim(false));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write GraphQL cache record " + path);
+            e.printStackTrace();
+        } finally {
+            if (temp != null) {
+                delete(temp);
+            }
+        }
+    }
+
+    /**
+     * Deletes expired records, and evicts the oldest records until the records fit in the max size.
+     *
+     * @param startup whether the cache was just opened, so temporary files are leftovers of a previous run
+     */
+    private void trim(boolean startup) {
+        trimScheduled.set(false);
+        record Entry(Path path, long size, long modified) {
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                if (startup && name.endsWith(TEMP_SUFFIX)) {
+                    delete(file);
+                    continue;
+                }
+                if (!name.endsWith(RECORD_SUFFIX)) {
+                    continue;
+                }
+                final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (isExpired(attributes.lastModifiedTime(), maxAgeMillis)) {
+                    delete(file);
+                    continue;
+                }
+                entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                total += attributes.size();
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            System.err.println("Failed to scan the GraphQL cache directory " + directory);
+            e.printStackTrace();
+            return;
+        }
+
+        if (total > maxSizeBytes) {
+            entries.sort(Comparator.comparingLong(Entry::modified));
+            final long target = (long) (maxSizeBytes * TRIM_RATIO);
+            for (int i = 0; i < entries.size() && total > target; i++) {
+                if (delete(entries.get(i).path())) {
+                    total -= entries.get(i).size();
+                }
+            }
+        }
+        size.set(total);
+    }
+
+    private static boolean isExpired(FileTime modified, long maxAgeMillis) {
+        return System.currentTimeMillis() - modified.toMillis() > maxAgeMillis;
+    }
+
+    private Path recordPath(String key) {
+        final byte[] hash = DIGEST.get().digest(key.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(MacInputStream.bytesToHex(hash) + RECORD_SUFFIX);
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Failed to delete GraphQL cache file " + path);
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Factory for {@link DiskNormalizedCache}s, to be {@linkplain NormalizedCacheFactory#chain(NormalizedCacheFactory)
+ * chained} behind the factory of the in-memory cache.
+ */
+public class DiskNormalizedCacheFactory extends NormalizedCacheFactory<DiskNormalizedCache> {
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final Duration maxAge;
+
+    /**
+     * Creates a factory.
+     *
+     * @param directory    the directory of the records
+     * @param maxSizeBytes the max total size of the records
+     * @param maxAge       the max age of a record since it was last fetched
+     */
+    public DiskNormalizedCacheFactory(Path directory, long maxSizeBytes, Duration maxAge) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.maxAge = maxAge;
+    }
+
+    @NotNull
+    @Override
+    public DiskNormalizedCache create(@NotNull RecordFieldJsonAdapter recordFieldAdapter) {
+        return new DiskNormalizedCache(directory, maxSizeBytes, maxAge, recordFieldAdapter);
+    }
+}
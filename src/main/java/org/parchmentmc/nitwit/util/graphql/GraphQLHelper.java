@@ -4,11 +4,31 @@ import com.apollographql.apollo.ApolloClient;
 import com.apollographql.apollo.api.Error;
 import com.apollographql.apollo.api.Query;
 import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.fetcher.ApolloResponseFetchers;
 import com.apollographql.apollo.rx3.Rx3Apollo;
+import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.functions.Function;
+import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.config.Configuration;
+import org.parchmentmc.nitwit.config.Configuration.FetchMode;
+import org.parchmentmc.nitwit.config.Configuration.FetchPolicyConfig;
+import org.parchmentmc.nitwit.config.Configuration.GraphQLConfig;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.Priority;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -16,8 +36,355 @@ public final class GraphQLHelper {
     private GraphQLHelper() { // Prevent instantiation
     }
 
+    /**
+     * The amount of queries executed on the network, by operation name.
+     */
+    private static final Map<String, LongAdder> QUERY_COUNTS = new ConcurrentHashMap<>();
+    /**
+     * The amount of queries which joined an identical query already in flight, by operation name.
+     */
+    private static final Map<String, LongAdder> COALESCED_COUNTS = new ConcurrentHashMap<>();
+    /**
+     * The amount of queries answered from the cache, by operation name.
+     */
+    private static final Map<String, LongAdder> CACHED_COUNTS = new ConcurrentHashMap<>();
+    /**
+     * The queries in flight by priority, shared with identical queries of the same priority made until they complete.
+     * Queries of different priorities are kept apart, so an interactive query never waits for a deferred background
+     * query.
+     */
+    private static final Map<Priority, Map<FlightKey, Observable<?>>> IN_FLIGHT = new EnumMap<>(Map.of(
+            Priority.INTERACTIVE, new ConcurrentHashMap<>(),
+            Priority.BACKGROUND, new ConcurrentHashMap<>()));
+    /**
+     * The prefix of the keys of the cache records which hold the time at which a query with a max age was last fetched
+     * from the network, followed by its operation and variables. The records are kept in the normalized cache along
+     * with the response, so with a persistent cache a response is still fresh after a restart.
+     */
+    private static final String FETCHED_AT_KEY_PREFIX = "GraphQLHelper.fetchedAt:";
+    private static final String FETCHED_AT_FIELD = "millis";
+
+    private static volatile Map<String, FetchPolicyConfig> fetchPolicies = Configuration.EMPTY.graphql.fetchPolicies;
+    private static volatile FetchPolicyConfig defaultFetchPolicy = Configuration.EMPTY.graphql.defaultFetchPolicy;
+    /**
+     * The rate limiter of each client, as each installation of the GitHub App has its own rate limit.
+     */
+    private static final Map<ApolloClient, GraphQLRateLimiter> RATE_LIMITERS = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the fetch policies of the queries executed through {@link #queryRxJava(ApolloClient, Query)}.
+     *
+     * @param config the GraphQL configuration, with the fetch policies by operation name
+     */
+    public static void configureFetchPolicies(GraphQLConfig config) {
+        fetchPolicies = Map.copyOf(config.fetchPolicies);
+        defaultFetchPolicy = config.defaultFetchPolicy;
+    }
+
+    /**
+     * Sets the rate limiter which admits the queries executed on the network by the given client.
+     *
+     * @param client  the GraphQL client
+     * @param limiter the rate limiter, or {@code null} to not limit the queries of the client
+     */
+    public static void configureRateLimiter(ApolloClient client, @Nullable GraphQLRateLimiter limiter) {
+        if (limiter != null) {
+            RATE_LIMITERS.put(client, limiter);
+        } else {
+            RATE_LIMITERS.remove(client);
+        }
+    }
+
+    /**
+     * {@return the rate limiter which admits the queries executed on the network by the given client, or
+     * {@code null} if there is none}
+     *
+     * @param client the GraphQL client
+     */
+    public static @Nullable GraphQLRateLimiter getRateLimiter(ApolloClient client) {
+        return RATE_LIMITERS.get(client);
+    }
+
+    /**
+     * {@return the rate limiters of all clients}
+     */
+    public static Collection<GraphQLRateLimiter> getRateLimiters() {
+        return List.copyOf(RATE_LIMITERS.values());
+    }
+
+    /**
+     * Creates an observable which executes the given query when subscribed to, according to the fetch policy of its
+     * operation:
+     *
+     * <ul>
+     *     <li>{@link FetchMode#CACHE_ONLY CACHE_ONLY} answers from the cache, with no data if it is not cached;</li>
+     *     <li>{@link FetchMode#NETWORK_ONLY NETWORK_ONLY} always fetches the response from the network;</li>
+     *     <li>{@link FetchMode#CACHE_FIRST CACHE_FIRST} answers from the cache while the response is fresh (fetched
+     *     from the network within the max age), and fetches it from the network otherwise. With stale-while-revalidate,
+     *     a stale cached response is used anyway while the query is fetched again in the background.</li>
+     * </ul>
+     *
+     * <p>With stale-if-error, a cached response is used, however stale, when fetching from the network fails; errors
+     * reported by GraphQL itself are still raised.</p>
+     *
+     * <p>Identical queries (with the same client, operation and variables) made while one is already in flight on the
+     * network join it, and receive its response or error, rather than executing it again. Once the query completes or
+     * fails, the next identical query is executed anew.</p>
+     *
+     * <p>The query is {@linkplain Priority#INTERACTIVE interactive}; queries fetched again in the background to
+     * revalidate a stale cached response are {@linkplain Priority#BACKGROUND background} queries.</p>
+     *
+     * @param client the GraphQL client
+     * @param query  the query
+     * @param <D>    the type of the query data
+     * @return the observable for the query response
+     */
     public static <D> Observable<Response<D>> queryRxJava(ApolloClient client, Query<?, D, ?> query) {
-        return Rx3Apollo.from(client.query(query))
+        return queryRxJava(client, query, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Creates an observable which executes the given query when subscribed to, according to the fetch policy of its
+     * operation, with the given priority against the rate limit.
+     *
+     * @param client   the GraphQL client
+     * @param query    the query
+     * @param priority the priority of the query
+     * @param <D>      the type of the query data
+     * @return the observable for the query response
+     * @see #queryRxJava(ApolloClient, Query)
+     */
+    public static <D> Observable<Response<D>> queryRxJava(ApolloClient client, Query<?, D, ?> query,
+                                                          Priority priority) {
+        return queryRxJava(client, query, fetchPolicies.getOrDefault(query.name().name(), defaultFetchPolicy),
+                priority);
+    }
+
+    /**
+     * Creates an observable which executes the given query when subscribed to, according to the given fetch policy
+     * rather than the configured one.
+     *
+     * @param client the GraphQL client
+     * @param query  the query
+     * @param policy the fetch policy
+     * @param <D>    the type of the query data
+     * @return the observable for the query response
+     * @see #queryRxJava(ApolloClient, Query)
+     */
+    public static <D> Observable<Response<D>> queryRxJava(ApolloClient client, Query<?, D, ?> query,
+                                                          FetchPolicyConfig policy) {
+        return queryRxJava(client, query, policy, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Creates an observable which executes the given query when subscribed to, according to the given fetch policy
+     * rather than the configured one, with the given priority against the rate limit.
+     *
+     * @param client   the GraphQL client
+     * @param query    the query
+     * @param policy   the fetch policy
+     * @param priority the priority of the query
+     * @param <D>      the type of the query data
+     * @return the observable for the query response
+     * @see #queryRxJava(ApolloClient, Query)
+     */
+    public static <D> Observable<Response<D>> queryRxJava(ApolloClient client, Query<?, D, ?> query,
+                                                          FetchPolicyConfig policy, Priority priority) {
+        final String operation = query.name().name();
+        return Observable.defer(() -> {
+            final @Nullable FlightKey key = flightKey(client, query);
+            return switch (policy.mode) {
+                case CACHE_ONLY -> readCache(client, query)
+                        .doOnNext(cached -> {
+                            if (cached.getData() != null) {
+                                increment(CACHED_COUNTS, operation);
+                            }
+                        });
+                case NETWORK_ONLY -> fetchNetwork(client, query, key, policy, priority,
+                        policy.staleIfError ? readCache(client, query) : null);
+                case CACHE_FIRST -> readCache(client, query, freshnessHeaders(policy)).flatMap(cached -> {
+                    if (cached.getData() == null) {
+                        return fetchNetwork(client, query, key, policy, priority, null);
+                    }
+                    final @Nullable Long fetchedAt = key != null ? readFetchedAt(client, key, freshnessHeaders(policy)) : null;
+                    if (fetchedAt != null && System.currentTimeMillis() - fetchedAt <= policy.maxAge.toMillis()) {
+                        increment(CACHED_COUNTS, operation);
+                        return Observable.just(cached);
+                    }
+                    if (policy.staleWhileRevalidate) {
+                        fetchNetwork(client, query, key, policy, Priority.BACKGROUND, null).subscribe(resp -> {
+                        }, e -> {
+                            System.err.println("Failed to revalidate cached query " + operation);
+                            e.printStackTrace();
+                        });
+                        increment(CACHED_COUNTS, operation);
+                        return Observable.just(cached);
+                    }
+                    return fetchNetwork(client, query, key, policy, priority,
+                            policy.staleIfError ? Observable.just(cached) : null);
+                });
+            };
+        });
+    }
+
+    /**
+     * Creates a flowable which fetches the pages of a connection one after another, following the end cursor of each
+     * page while it has a next page. The next page is fetched as soon as a page is received, while that page is
+     * consumed downstream, so consuming and fetching overlap.
+     *
+     * <p>At most the given amount of pages is fetched; a warning is printed if the connection has more pages than
+     * that, as the result is then incomplete.</p>
+     *
+     * @param name       the name of the connection, for the warning
+     * @param after      the cursor to fetch the first page after, or {@code null} to start from the beginning
+     * @param maxPages   the max amount of pages to fetch
+     * @param fetchPage  the function which fetches the page after the given cursor (or {@code null} for the first
+     *                   page), usually through {@link #queryRxJava(ApolloClient, Query)}
+     * @param nextCursor the function which returns the end cursor of a page if it has a next page, or {@code null}
+     * @param <P>        the type of the pages
+     * @return the flowable of the pages, in order
+     */
+    public static <P> Flowable<P> paginate(String name, @Nullable String after, int maxPages,
+                                           Function<String, Single<P>> fetchPage, Function<P, String> nextCursor) {
+        return Flowable.defer(() -> fetchPage.apply(after).toFlowable())
+                .concatMap(page -> {
+                    final @Nullable String next = nextCursor.apply(page);
+                    if (next == null) {
+                        return Flowable.just(page);
+                    }
+                    if (maxPages <= 1) {
+                        System.err.println("Stopped paginating " + name + " at the page limit; the result is incomplete");
+                        return Flowable.just(page);
+                    }
+                    // Subscribed to eagerly, so the next page is fetched while this one is consumed
+                    return Flowable.concatArrayEager(Flowable.just(page),
+                            paginate(name, next, maxPages - 1, fetchPage, nextCursor));
+                });
+    }
+
+    private static @Nullable FlightKey flightKey(ApolloClient client, Query<?, ?, ?> query) {
+        try {
+            return new FlightKey(client, query.name().name(),
+                    query.variables().marshal(client.getScalarTypeAdapters()));
+        } catch (IOException e) { // Cannot tell whether it is identical to another query, so it is executed on its own
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the query from the network, joining an identical query in flight.
+     *
+     * @param stale the cached response to use if fetching fails, or {@code null} to raise the failure
+     */
+    private static <D> Observable<Response<D>> fetchNetwork(ApolloClient client, Query<?, D, ?> query,
+                                                            @Nullable FlightKey key, FetchPolicyConfig policy,
+                                                            Priority priority,
+                                                            @Nullable Observable<Response<D>> stale) {
+        final String operation = query.name().name();
+        final Observable<Response<D>> network;
+        if (key == null) {
+            network = execute(client, query, priority);
+        } else {
+            final boolean[] created = {false};
+            // The flight itself, so it only removes its own entry rather than a newer flight of the same query
+            final Observable<?>[] self = {null};
+            final Map<FlightKey, Observable<?>> inFlight = IN_FLIGHT.get(priority);
+            @SuppressWarnings("unchecked") final Observable<Response<D>> flight = (Observable<Response<D>>) inFlight
+                    .computeIfAbsent(key, k -> {
+                        created[0] = true;
+                        return self[0] = execute(client, query, priority)
+                                .doOnNext(resp -> {
+                                    // Later queries must not join once the response is in, as it may be outdated
+                                    inFlight.remove(k, self[0]);
+                                    if (policy.mode == FetchMode.CACHE_FIRST) {
+                                        writeFetchedAt(client, k, System.currentTimeMillis());
+                                    }
+                                })
+                                .doFinally(() -> inFlight.remove(k, self[0]))
+                                .cache();
+                    });
+            if (!created[0]) {
+                increment(COALESCED_COUNTS, operation);
+            }
+            network = flight;
+        }
+
+        if (stale == null) {
+            return network;
+        }
+        return network.onErrorResumeNext(e -> {
+            if (e instanceof GraphQLException) {
+                return Observable.error(e);
+            }
+            return stale.flatMap(cached -> {
+                if (cached.getData() == null) {
+                    return Observable.error(e);
+                }
+                System.err.println("Using cached response for query " + operation + " after failing to fetch it: " + e);
+                increment(CACHED_COUNTS, operation);
+                return Observable.just(cached);
+            });
+        });
+    }
+
+    /**
+     * {@return the time at which the query was last fetched from the network, in milliseconds since the epoch, or
+     * {@code null} if it is not known}
+     */
+    private static @Nullable Long readFetchedAt(ApolloClient client, FlightKey key, CacheHeaders cacheHeaders) {
+        final @Nullable Record record = client.getApolloStore()
+                .readTransaction(cache -> cache.read(fetchedAtKey(key), cacheHeaders));
+        // Numbers are read back from the persistent cache as big decimals
+        return record != null && record.field(FETCHED_AT_FIELD) instanceof BigDecimal millis
+                ? millis.longValue() : null;
+    }
+
+    private static void writeFetchedAt(ApolloClient client, FlightKey key, long millis) {
+        final Record record = Record.builder(fetchedAtKey(key))
+                .addField(FETCHED_AT_FIELD, BigDecimal.valueOf(millis))
+                .build();
+        client.getApolloStore().writeTransaction(cache -> cache.merge(record, CacheHeaders.NONE));
+    }
+
+    /**
+     * {@return the key of the cache record of the fetch time of a query} It leaves out the client, as the cached
+     * response is shared by all clients of the cache.
+     */
+    private static String fetchedAtKey(FlightKey key) {
+        return FETCHED_AT_KEY_PREFIX + key.operation() + ':' + key.variables();
+    }
+
+    private static <D> Observable<Response<D>> readCache(ApolloClient client, Query<?, D, ?> query) {
+        return readCache(client, query, CacheHeaders.NONE);
+    }
+
+    private static <D> Observable<Response<D>> readCache(ApolloClient client, Query<?, D, ?> query,
+                                                         CacheHeaders cacheHeaders) {
+        return Rx3Apollo.from(client.query(query).responseFetcher(ApolloResponseFetchers.CACHE_ONLY)
+                .cacheHeaders(cacheHeaders));
+    }
+
+    /**
+     * {@return the cache headers which keep the persistent cache from answering with records older than the max age of
+     * the given policy} Such records are no use to it after a restart, even as stale responses, as they may be far
+     * older than the responses which were kept in memory.
+     */
+    private static CacheHeaders freshnessHeaders(FetchPolicyConfig policy) {
+        return CacheHeaders.builder()
+                .addHeader(DiskNormalizedCache.MAX_AGE_HEADER, Long.toString(policy.maxAge.toMillis()))
+                .build();
+    }
+
+    private static <D> Observable<Response<D>> execute(ApolloClient client, Query<?, D, ?> query, Priority priority) {
+        final LongAdder count = QUERY_COUNTS.computeIfAbsent(query.name().name(), k -> new LongAdder());
+        final Observable<Response<D>> call = Rx3Apollo.from(client.query(query)
+                        .responseFetcher(ApolloResponseFetchers.NETWORK_ONLY))
+                .doOnSubscribe(disposable -> count.increment());
+        final @Nullable GraphQLRateLimiter limiter = RATE_LIMITERS.get(client);
+        // A secondary rate limit blocks the limiter, so the retry is admitted once it has passed
+        return (limiter != null
+                ? limiter.admit(priority).andThen(call).retry(1, GraphQLRateLimiter::isSecondaryRateLimit)
+                : call)
                 .map(resp -> {
                     if (resp.hasErrors()) {
                         throw new GraphQLException("**Operation " + resp.getOperation().name() + " has errors.**", resp.getErrors());
@@ -26,6 +393,54 @@ public final class GraphQLHelper {
                 });
     }
 
+    private static void increment(Map<String, LongAdder> counts, String operation) {
+        counts.computeIfAbsent(operation, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * {@return the amount of queries executed, coalesced and answered from the cache through
+     * {@link #queryRxJava(ApolloClient, Query)} so far}
+     */
+    public static Statistics statistics() {
+        return new Statistics(snapshot(QUERY_COUNTS), snapshot(COALESCED_COUNTS), snapshot(CACHED_COUNTS));
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counts) {
+        final Map<String, Long> snapshot = new TreeMap<>();
+        counts.forEach((operation, count) -> snapshot.put(operation, count.sum()));
+        return snapshot;
+    }
+
+    /**
+     * Statistics of the executed queries.
+     *
+     * @param queries   the amount of queries executed on the network, by operation name
+     * @param coalesced the amount of queries which joined an identical query in flight, by operation name
+     * @param cached    the amount of queries answered from the cache, by operation name
+     */
+    public record Statistics(Map<String, Long> queries, Map<String, Long> coalesced, Map<String, Long> cached) {
+        public long total() {
+            return queries.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long totalCoalesced() {
+            return coalesced.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long totalCached() {
+            return cached.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        @Override
+        public String toString() {
+            return "%s queries %s, %s coalesced %s, %s from cache %s".formatted(total(), queries, totalCoalesced(),
+                    coalesced, totalCached(), cached);
+        }
+    }
+
+    private record FlightKey(ApolloClient client, String operation, String variables) {
+    }
+
     public static class GraphQLException extends RuntimeException {
         private final List<Error> errors;
 
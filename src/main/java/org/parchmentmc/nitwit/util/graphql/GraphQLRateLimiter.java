@@ -0,0 +1,240 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.exception.ApolloHttpException;
+import io.reactivex.rxjava3.core.Completable;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Schedules GraphQL queries against the point budget of GitHub's rate limit, so background work cannot use up the
+ * budget needed by interactive commands.
+ *
+ * <p>As an interceptor, it reads the remaining points and the reset time from the {@code X-RateLimit-*} headers of
+ * every response, and the {@code Retry-After} of secondary rate limit responses. It never waits itself, as it runs on a
+ * thread of the OkHttp dispatcher: a secondary rate limit response is returned as it is, and blocks the queries
+ * admitted after it until the {@code Retry-After} has passed. The query which received it may be retried through
+ * {@link #admit(Priority)}, once its failure is {@linkplain #isSecondaryRateLimit(Throwable) recognized}.</p>
+ *
+ * <p>Queries are admitted through {@link #admit(Priority)} before they are sent, which defers them without holding a
+ * thread:</p>
+ *
+ * <ul>
+ *     <li>{@link Priority#INTERACTIVE interactive} queries are sent while any points remain;</li>
+ *     <li>{@link Priority#BACKGROUND background} queries leave the reserve to interactive queries. As the remaining
+ *     points approach the reserve, background queries are spaced out so the points above the reserve last until the
+ *     reset; once the reserve is reached, they are deferred until the reset;</li>
+ *     <li>while blocked by a secondary rate limit, all queries are deferred until it ends, background queries a little
+ *     longer so interactive queries go first.</li>
+ * </ul>
+ *
+ * <p>Queries which would have to wait longer than the max delay fail with a {@link RateLimitedException} instead.
+ * Between responses, each admitted query is counted as costing one point.</p>
+ */
+public class GraphQLRateLimiter implements Interceptor {
+    /**
+     * How much later than interactive queries background queries resume after a secondary rate limit, so the
+     * interactive queries go first.
+     */
+    private static final long BACKGROUND_STAGGER_MILLIS = 1000;
+
+    private final String name;
+    private final int backgroundReserve;
+    private final long maxDelayMillis;
+
+    // Guarded by this
+    private int limit = -1;
+    private int remaining = -1;
+    private long resetAtMillis = 0;
+    private long blockedUntilMillis = 0;
+    private long nextBackgroundMillis = 0;
+
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder secondaryLimits = new LongAdder();
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param name              the name of the rate limit, such as the organization of the installation it belongs to
+     * @param backgroundReserve the points which background queries leave to interactive queries
+     * @param maxDelay          the longest a query waits for the rate limit before failing instead
+     */
+    public GraphQLRateLimiter(String name, int backgroundReserve, Duration maxDelay) {
+        this.name = name;
+        this.backgroundReserve = backgroundReserve;
+        this.maxDelayMillis = maxDelay.toMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Creates a completable which completes once a query of the given priority may be sent, or fails with a
+     * {@link RateLimitedException} if it would have to wait longer than the max delay.
+     *
+     * @param priority the priority of the query
+     * @return the completable for the admission of the query
+     */
+    public Completable admit(Priority priority) {
+        return Completable.defer(() -> {
+            final long delay = reserve(priority, System.currentTimeMillis());
+            if (delay <= 0) {
+                return Completable.complete();
+            }
+            if (delay > maxDelayMillis) {
+                rejected.increment();
+                return Completable.error(new RateLimitedException("The GitHub API rate limit of " + name
+                        + " is too low for " + priority.name().toLowerCase(Locale.ROOT) + " queries until " + Instant.ofEpochMilli(
+                        System.currentTimeMillis() + delay)));
+            }
+            deferred.increment();
+            // Checked again, as the budget may have changed in the meantime
+            return Completable.timer(delay, TimeUnit.MILLISECONDS).andThen(admit(priority));
+        });
+    }
+
+    /**
+     * Reserves a point for a query if it may be sent now.
+     *
+     * @return {@code 0} if the query may be sent, otherwise the time to wait before checking again in milliseconds
+     */
+    synchronized long reserve(Priority priority, long now) {
+        final long stagger = priority == Priority.BACKGROUND ? BACKGROUND_STAGGER_MILLIS : 0;
+        if (blockedUntilMillis > now) {
+            return blockedUntilMillis - now + stagger;
+        }
+        if (remaining < 0 || now >= resetAtMillis) { // Unknown, or renewed since
+            return 0;
+        }
+
+        final int floor = priority == Priority.BACKGROUND ? backgroundReserve : 0;
+        if (remaining <= floor) {
+            return resetAtMillis - now + stagger;
+        }
+        if (priority == Priority.BACKGROUND && remaining <= 2 * backgroundReserve) {
+            // Spread the points above the reserve over the time until the reset
+            if (nextBackgroundMillis > now) {
+                return nextBackgroundMillis - now;
+            }
+            nextBackgroundMillis = now + (resetAtMillis - now) / (remaining - backgroundReserve);
+        }
+        remaining--;
+        return 0;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        final Response response = chain.proceed(chain.request());
+        update(response);
+        return response;
+    }
+
+    /**
+     * {@return whether the given failure of a query is a secondary rate limit response} Such a query may be retried
+     * through {@link #admit(Priority)}, which defers it until the rate limit has passed.
+     *
+     * @param e the failure of the query
+     */
+    public static boolean isSecondaryRateLimit(Throwable e) {
+        return e instanceof ApolloHttpException http && (http.code() == 403 || http.code() == 429)
+                && http.rawResponse() != null && parseInt(http.rawResponse().header("Retry-After")) >= 0;
+    }
+
+    /**
+     * Updates the budget from the headers of a response, blocking queries if it is a secondary rate limit.
+     */
+    private void update(Response response) {
+        final long now = System.currentTimeMillis();
+        final int newLimit = parseInt(response.header("X-RateLimit-Limit"));
+        final int newRemaining = parseInt(response.header("X-RateLimit-Remaining"));
+        final int reset = parseInt(response.header("X-RateLimit-Reset"));
+        final int retryAfter = response.code() == 403 || response.code() == 429
+                ? parseInt(response.header("Retry-After"))
+                : -1;
+
+        synchronized (this) {
+            if (newRemaining >= 0 && reset >= 0) {
+                limit = newLimit;
+                remaining = newRemaining;
+                resetAtMillis = reset * 1000L;
+            }
+            if (retryAfter >= 0) {
+                blockedUntilMillis = Math.max(blockedUntilMillis, now + retryAfter * 1000L);
+            }
+        }
+        if (retryAfter >= 0) {
+            secondaryLimits.increment();
+            System.err.println("Hit the GitHub API secondary rate limit of " + name + ", blocked for " + retryAfter
+                    + "s");
+        }
+    }
+
+    private static int parseInt(@Nullable String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * {@return a snapshot of the rate limit statistics}
+     */
+    public synchronized Statistics statistics() {
+        return new Statistics(remaining, limit, remaining >= 0 ? Instant.ofEpochMilli(resetAtMillis) : null,
+                deferred.sum(), rejected.sum(), secondaryLimits.sum());
+    }
+
+    /**
+     * The priority of a query, which decides how much of the budget it may use.
+     */
+    public enum Priority {
+        /**
+         * A query which someone is waiting for, such as one for a Discord command.
+         */
+        INTERACTIVE,
+        /**
+         * A query which nobody is waiting for, such as a refresh of cached data.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * A snapshot of the rate limit statistics.
+     *
+     * @param remaining       the points remaining as last reported, or {@code -1} if unknown
+     * @param limit           the points per rate limit window as last reported, or {@code -1} if unknown
+     * @param resetAt         the time at which the rate limit resets, or {@code null} if unknown
+     * @param deferred        the total amount of times a query was deferred
+     * @param rejected        the total amount of queries which failed because the wait would be too long
+     * @param secondaryLimits the total amount of secondary rate limit responses
+     */
+    public record Statistics(int remaining, int limit, @Nullable Instant resetAt, long deferred, long rejected,
+                             long secondaryLimits) {
+        @Override
+        public String toString() {
+            return "%s/%s points remaining until %s, %s deferred, %s rejected, %s secondary limits".formatted(
+                    remaining, limit, resetAt, deferred, rejected, secondaryLimits);
+        }
+    }
+
+    public static class RateLimitedException extends IOException {
+        public RateLimitedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.ApolloClient;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.config.Configuration.GraphQLConfig;
+import org.parchmentmc.nitwit.util.AuthenticationInterceptor;
+import org.parchmentmc.nitwit.util.InstallationTokenManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The GraphQL clients of the installations of a GitHub App, one for each organization which the app is installed in.
+ *
+ * <p>Each client authenticates with the token of its installation and is admitted by its own
+ * {@linkplain GraphQLRateLimiter rate limiter}, as GitHub gives each installation its own rate limit. Everything else
+ * is shared: the clients are derived from the base client, so they use the same normalized cache and custom type
+ * adapters, and from the base HTTP client, so they use the same connection pool, dispatcher and HTTP cache. The
+ * batching interceptor is shared as well, as it batches by credentials. An additional installation therefore costs a
+ * token and a rate limiter, rather than its own caches and threads.</p>
+ */
+public class InstallationClientPool {
+    private final ApolloClient baseClient;
+    private final OkHttpClient baseHttpClient;
+    private final InstallationTokenManager tokenManager;
+    private final Interceptor batchingInterceptor;
+    private final GraphQLConfig config;
+    /**
+     * The clients by lower-cased organization, completed once the first token of the installation is created. Only
+     * creating the same client waits for it, so a slow token request does not hold up the other organizations.
+     */
+    private final Map<String, CompletableFuture<ApolloClient>> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a pool.
+     *
+     * @param baseClient          the client with the normalized cache and custom type adapters to share
+     * @param baseHttpClient      the HTTP client with the connection pool and HTTP cache to share
+     * @param tokenManager        the token manager of the app
+     * @param batchingInterceptor the interceptor which batches queries, shared by the clients
+     * @param config              the GraphQL configuration, with the settings of the rate limiters
+     */
+    public InstallationClientPool(ApolloClient baseClient, OkHttpClient baseHttpClient,
+                                  InstallationTokenManager tokenManager, Interceptor batchingInterceptor,
+                                  GraphQLConfig config) {
+        this.baseClient = baseClient;
+        this.baseHttpClient = baseHttpClient;
+        this.tokenManager = tokenManager;
+        this.batchingInterceptor = batchingInterceptor;
+        this.config = config;
+    }
+
+    /**
+     * {@return the client of the installation in the given organization} The installation token of the organization
+     * is created on the first call for it, which blocks until it is, as do concurrent calls for the same organization.
+     * The creation is attempted again on the next call if it fails.
+     *
+     * @param organization  the organization which the app is installed in
+     * @param refreshMargin how long before the expiry of a token it is refreshed, if the installation is new
+     * @throws IOException if the first token of the installation cannot be created
+     */
+    public ApolloClient get(String organization, Duration refreshMargin) throws IOException {
+        final String key = organization.toLowerCase(Locale.ROOT);
+        final CompletableFuture<ApolloClient> created = new CompletableFuture<>();
+        final @Nullable CompletableFuture<ApolloClient> existing = clients.putIfAbsent(key, created);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the client of " + organization);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to create the client of " + organization, e.getCause());
+            }
+        }
+
+        // Created outside of any lock, as creating the first token is a request to GitHub
+        try {
+            final ApolloClient client = create(organization, refreshMargin);
+            created.complete(client);
+            return client;
+        } catch (IOException | RuntimeException e) {
+            clients.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ApolloClient create(String organization, Duration refreshMargin) throws IOException {
+        // Installation tokens expire after an hour, so they are replaced in the background before that
+        final InstallationTokenManager.Installation installation = tokenManager.start(organization, refreshMargin);
+        final GraphQLRateLimiter rateLimiter = new GraphQLRateLimiter(organization,
+                config.rateLimitBackgroundReserve, config.rateLimitMaxDelay);
+        final ApolloClient client = baseClient.newBuilder()
+                .okHttpClient(baseHttpClient.newBuilder()
+                        .addInterceptor(AuthenticationInterceptor.bearer(installation::getToken))
+                        .addInterceptor(batchingInterceptor)
+                        // After batching, so it sees each request actually sent
+                        .addInterceptor(rateLimiter)
+                        .build())
+                .build();
+        GraphQLHelper.configureRateLimiter(client, rateLimiter);
+        return client;
+    }
+}
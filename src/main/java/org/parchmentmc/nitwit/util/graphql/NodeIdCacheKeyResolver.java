@@ -0,0 +1,37 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.api.Operation;
+import com.apollographql.apollo.api.ResponseField;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * Resolves the keys of normalized cache records from the global node IDs of GitHub's GraphQL API.
+ *
+ * <p>Every object which has its {@code id} selected is stored as a single record under that ID, whichever query and
+ * response path it was fetched through. A pull request fetched both by the list query and by the detail query is
+ * therefore stored once, and each query updates the fields the other one reads. Objects without an ID are keyed by
+ * their response path, as by default.</p>
+ *
+ * <p>Fields which look up a node by its ID, such as {@code node(id: $id)}, resolve to the record of that node, so
+ * they are served from the cache when the node was already fetched through another query.</p>
+ */
+public class NodeIdCacheKeyResolver extends CacheKeyResolver {
+    @NotNull
+    @Override
+    public CacheKey fromFieldRecordSet(@NotNull ResponseField field, @NotNull Map<String, Object> recordSet) {
+        return recordSet.get("id") instanceof String id ? CacheKey.from(id) : CacheKey.NO_KEY;
+    }
+
+    @NotNull
+    @Override
+    public CacheKey fromFieldArguments(@NotNull ResponseField field, @NotNull Operation.Variables variables) {
+        if (field.getType() != ResponseField.Type.OBJECT || !field.getArguments().containsKey("id")) {
+            return CacheKey.NO_KEY;
+        }
+        return field.resolveArgument("id", variables) instanceof String id ? CacheKey.from(id) : CacheKey.NO_KEY;
+    }
+}
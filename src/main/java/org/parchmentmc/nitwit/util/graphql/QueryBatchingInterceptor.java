@@ -0,0 +1,471 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Interceptor which merges GraphQL queries issued at about the same time into a single request.
+ *
+ * <p>The first query to arrive opens a batch, and waits for the batching window (or until the batch is full) for more
+ * queries to the same endpoint with the same credentials. The queries of the batch are then merged into one document,
+ * with their top-level fields aliased and their variables renamed so they do not clash, and sent as one request. The
+ * response is split back into a response for each query, as if it had been sent on its own, so callers such as Apollo
+ * parse it into their typed responses as usual.</p>
+ *
+ * <p>Queries which cannot be merged (such as mutations, or queries whose fragments use variables) are sent on their
+ * own, as are queries whose fragments conflict with those of the open batch. A failed batch request is reported to
+ * every query in it, except when it failed because the call of the query which sent it was cancelled: the rest of the
+ * batch is then sent again by the next query, so cancelling one query does not fail the others.</p>
+ *
+ * <p>Apollo performs each request on a thread of the OkHttp dispatcher, which waits here while the batch is open; the
+ * dispatcher must allow at least as many concurrent requests per host as the maximum batch size. The wait for the
+ * response of a batch is bounded by the batching window and the timeouts of the call, so a stuck batch cannot hold
+ * those threads forever.</p>
+ */
+public class QueryBatchingInterceptor implements Interceptor {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    /**
+     * The time allowed for a request when the call has no timeouts, for bounding the wait of followers.
+     */
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofMinutes(1);
+
+    private final long windowNanos;
+    private final int maxBatchSize;
+    /**
+     * The open batches, by endpoint and credentials. Also the lock for the batches.
+     */
+    private final Map<String, Batch> open = new HashMap<>();
+
+    /**
+     * Creates a batching interceptor.
+     *
+     * @param window       the time to wait for more queries after the first query of a batch
+     * @param maxBatchSize the maximum amount of queries in a batch
+     */
+    public QueryBatchingInterceptor(Duration window, int maxBatchSize) {
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        final Request request = chain.request();
+        final @Nullable RequestBody body = request.body();
+        if (maxBatchSize < 2 || body == null || !request.method().equals("POST")) {
+            return chain.proceed(request);
+        }
+
+        // Buffer the body, as it is needed both for merging and for sending the query on its own
+        final Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        final byte[] bytes = buffer.readByteArray();
+        final Request replayable = request.newBuilder().post(RequestBody.create(bytes, body.contentType())).build();
+
+        final @Nullable ObjectNode operation = parseOperation(bytes);
+        if (operation == null) {
+            return chain.proceed(replayable);
+        }
+
+        final String key = request.url() + " " + request.header("Authorization");
+        final Batch batch;
+        final Query query;
+        synchronized (open) {
+            final @Nullable Batch existing = open.get(key);
+            final @Nullable Batch candidate = existing != null ? existing : Batch.open(replayable, operation);
+            final @Nullable Query joined = existing != null ? existing.join(replayable, operation)
+                    : candidate != null ? candidate.leader : null;
+            if (candidate == null || joined == null) { // Cannot be merged, at least not into the open batch
+                return chain.proceed(replayable);
+            }
+            if (existing == null) {
+                open.put(key, candidate);
+            }
+            if (candidate.queries.size() >= maxBatchSize) { // Close the batch early, and wake its leader
+                open.remove(key);
+                open.notifyAll();
+            }
+            batch = candidate;
+            query = joined;
+        }
+
+        if (query != batch.leader) { // Follower; the first query of the batch sends it, or hands it over
+            final @Nullable List<Query> handedOver = query.await(followerTimeoutNanos(chain));
+            return handedOver != null ? lead(chain, handedOver) : query.response();
+        }
+
+        // Leader; wait for the window to pass or the batch to be closed when full
+        final long deadline = System.nanoTime() + windowNanos;
+        final List<Query> queries;
+        synchronized (open) {
+            try {
+                long remaining;
+                while (open.get(key) == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(open, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Send what there is, rather than failing the whole batch
+            }
+            open.remove(key, batch);
+            queries = List.copyOf(batch.queries);
+        }
+        return lead(chain, queries);
+    }
+
+    /**
+     * {@return how long a follower waits for its batch} This covers the batching window, and the request being sent
+     * twice, as it is sent again when the call of its leader is cancelled.
+     */
+    private long followerTimeoutNanos(Chain chain) {
+        final long requestMillis = chain.connectTimeoutMillis() + chain.writeTimeoutMillis()
+                + chain.readTimeoutMillis();
+        return windowNanos + 2 * TimeUnit.MILLISECONDS.toNanos(requestMillis > 0 ? requestMillis
+                : DEFAULT_REQUEST_TIMEOUT.toMillis());
+    }
+
+    /**
+     * Sends the queries as one request on the call of the first query, and completes the other queries with their
+     * responses. Whatever happens, each other query is completed: if the call of the first query was cancelled, the
+     * queries without a response are handed over to the next of them, which sends them on its own call; otherwise,
+     * they are failed.
+     *
+     * @param chain   the chain of the first query
+     * @param queries the queries to send, starting with the query which sends them
+     * @return the response of the first query
+     */
+    private static Response lead(Chain chain, List<Query> queries) throws IOException {
+        @Nullable Throwable failure = null;
+        try {
+            if (chain.call().isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            return send(chain, queries);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            final List<Query> unanswered = new ArrayList<>(queries.size());
+            for (Query follower : queries.subList(1, queries.size())) {
+                if (!follower.result.isDone() && !follower.handOver.isDone()) { // Neither answered nor given up
+                    unanswered.add(follower);
+                }
+            }
+            if (!unanswered.isEmpty()) {
+                if (chain.call().isCanceled()) {
+                    // To the first query which did not give up in the meantime
+                    for (int i = 0; i < unanswered.size(); i++) {
+                        final List<Query> rest = List.copyOf(unanswered.subList(i, unanswered.size()));
+                        if (unanswered.get(i).handOver.complete(rest)) {
+                            break;
+                        }
+                    }
+                } else {
+                    final Throwable cause = failure != null ? failure
+                            : new IOException("Batch request completed without a response for the query");
+                    for (Query follower : unanswered) {
+                        follower.result.completeExceptionally(cause);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Response send(Chain chain, List<Query> queries) throws IOException {
+        final Query leader = queries.get(0);
+        if (queries.size() == 1) {
+            return chain.proceed(leader.request);
+        }
+
+        // Rename the variables, and merge the selections and fragments
+        final List<String> names = new ArrayList<>(queries.size());
+        final List<String> variableDefinitions = new ArrayList<>(queries.size());
+        final StringBuilder selections = new StringBuilder();
+        final ObjectNode variables = MAPPER.createObjectNode();
+        // Only the fragments of the queries sent, as unused fragments make the document invalid
+        final Map<String, String> fragments = new LinkedHashMap<>();
+        for (Query query : queries) {
+            names.add(query.operationName);
+            fragments.putAll(query.document.fragments);
+            if (!query.document.variableDefinitions.isEmpty()) {
+                variableDefinitions.add(query.document.variableDefinitions);
+            }
+            selections.append(query.document.selections).append(' ');
+            for (Iterator<Map.Entry<String, JsonNode>> it = query.variables.fields(); it.hasNext(); ) {
+                final Map.Entry<String, JsonNode> variable = it.next();
+                variables.set(query.prefix + variable.getKey(), variable.getValue());
+            }
+        }
+        final String operationName = String.join("__", names);
+        final StringBuilder document = new StringBuilder("query ").append(operationName);
+        if (!variableDefinitions.isEmpty()) {
+            document.append('(').append(String.join(", ", variableDefinitions)).append(')');
+        }
+        document.append(" { ").append(selections).append('}');
+        for (String fragment : fragments.values()) {
+            document.append(' ').append(fragment);
+        }
+
+        final ObjectNode merged = MAPPER.createObjectNode()
+                .put("operationName", operationName)
+                .put("query", document.toString());
+        merged.set("variables", variables);
+        final Request.Builder request = leader.request.newBuilder()
+                .post(RequestBody.create(MAPPER.writeValueAsBytes(merged), JSON));
+        for (String header : leader.request.headers().names()) {
+            if (header.regionMatches(true, 0, "X-APOLLO-", 0, "X-APOLLO-".length())) { // Describe a single operation
+                request.removeHeader(header);
+            }
+        }
+
+        final byte[] responseBytes;
+        final Response response = chain.proceed(request.build());
+        try (ResponseBody responseBody = response.body()) {
+            responseBytes = responseBody != null ? responseBody.bytes() : new byte[0];
+        }
+
+        @Nullable JsonNode root = null;
+        if (response.isSuccessful()) {
+            try {
+                root = MAPPER.readTree(responseBytes);
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Nullable Response leaderResponse = null;
+        for (Query query : queries) {
+            // An error response, or one which is not JSON, is given to every query as it is
+            final byte[] split = root instanceof ObjectNode object
+                    ? MAPPER.writeValueAsBytes(split(object, query.prefix))
+                    : responseBytes;
+            final @Nullable ResponseBody originalBody = response.body();
+            final Response queryResponse = response.newBuilder()
+                    .request(query.request)
+                    .removeHeader("Content-Length")
+                    .body(ResponseBody.create(split, originalBody != null ? originalBody.contentType() : JSON))
+                    .build();
+            if (query == leader) {
+                leaderResponse = queryResponse;
+            } else {
+                query.result.complete(queryResponse);
+            }
+        }
+        return leaderResponse;
+    }
+
+    /**
+     * Extracts the response of one query from the merged response, removing the prefix from its top-level fields and
+     * its error paths. Errors without a path are given to every query.
+     */
+    private static ObjectNode split(ObjectNode merged, String prefix) {
+        final ObjectNode result = MAPPER.createObjectNode();
+
+        final @Nullable JsonNode data = merged.get("data");
+        if (data instanceof ObjectNode object) {
+            final ObjectNode queryData = result.putObject("data");
+            for (Iterator<Map.Entry<String, JsonNode>> it = object.fields(); it.hasNext(); ) {
+                final Map.Entry<String, JsonNode> field = it.next();
+                if (field.getKey().startsWith(prefix)) {
+                    queryData.set(field.getKey().substring(prefix.length()), field.getValue());
+                }
+            }
+        } else if (data != null) {
+            result.set("data", data);
+        }
+
+        if (merged.get("errors") instanceof ArrayNode errors) {
+            final ArrayNode queryErrors = MAPPER.createArrayNode();
+            for (JsonNode error : errors) {
+                final @Nullable JsonNode path = error.get("path");
+                if (path == null || path.isEmpty() || !path.get(0).isTextual()) {
+                    queryErrors.add(error);
+                } else if (path.get(0).asText().startsWith(prefix)) {
+                    final ObjectNode queryError = error.deepCopy();
+                    ((ArrayNode) queryError.get("path")).set(0, TextNode.valueOf(path.get(0).asText().substring(prefix.length())));
+                    queryErrors.add(queryError);
+                }
+            }
+            if (!queryErrors.isEmpty()) {
+                result.set("errors", queryErrors);
+            }
+        }
+
+        final @Nullable JsonNode extensions = merged.get("extensions");
+        if (extensions != null) {
+            result.set("extensions", extensions);
+        }
+        return result;
+    }
+
+    private static @Nullable ObjectNode parseOperation(byte[] body) {
+        final JsonNode operation;
+        try {
+            operation = MAPPER.readTree(body);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!(operation instanceof ObjectNode object) || !object.path("query").isTextual()
+                || object.has("extensions")) { // Such as persisted queries, which are sent by their hash
+            return null;
+        }
+        return object;
+    }
+
+    /**
+     * A batch of queries to the same endpoint with the same credentials.
+     */
+    private static final class Batch {
+        /**
+         * The first query, which sends the batch. Unlike {@link #queries}, this may be read without holding the lock.
+         */
+        final Query leader;
+        final List<Query> queries = new ArrayList<>();
+        final Map<String, String> fragments = new LinkedHashMap<>();
+
+        private Batch(Query leader) {
+            this.leader = leader;
+            queries.add(leader);
+            fragments.putAll(leader.document.fragments);
+        }
+
+        /**
+         * Opens a batch with the query as its first query, if it can be merged with other queries.
+         *
+         * @return the batch, or {@code null} if the query cannot be merged
+         */
+        static @Nullable Batch open(Request request, ObjectNode operation) {
+            final @Nullable Query leader = createQuery(request, operation, 0);
+            return leader != null ? new Batch(leader) : null;
+        }
+
+        /**
+         * Adds a query to this batch, if it can be merged with the other queries.
+         *
+         * @return the query, or {@code null} if it cannot be merged
+         */
+        @Nullable Query join(Request request, ObjectNode operation) {
+            final @Nullable Query query = createQuery(request, operation, queries.size());
+            if (query == null) {
+                return null;
+            }
+            for (Map.Entry<String, String> fragment : query.document.fragments.entrySet()) {
+                final @Nullable String existing = fragments.get(fragment.getKey());
+                if (existing != null && !existing.equals(fragment.getValue())) {
+                    return null;
+                }
+            }
+            fragments.putAll(query.document.fragments);
+            queries.add(query);
+            return query;
+        }
+
+        private static @Nullable Query createQuery(Request request, ObjectNode operation, int index) {
+            final String prefix = "b" + index + "_";
+            final @Nullable AliasedDocument document = AliasedDocument.rewrite(operation.get("query").asText(), prefix);
+            if (document == null) {
+                return null;
+            }
+            final JsonNode variables = operation.path("variables");
+            return new Query(request, prefix, operation.path("operationName").asText("Query"), document,
+                    variables.isObject() ? variables : MAPPER.createObjectNode());
+        }
+    }
+
+    /**
+     * A query in a batch.
+     */
+    private static final class Query {
+        final Request request;
+        final String prefix;
+        final String operationName;
+        final AliasedDocument document;
+        final JsonNode variables;
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        /**
+         * Completed with the queries left to send, starting with this one, if the call of the leader was cancelled, or
+         * completed exceptionally by this query once it stops waiting.
+         */
+        final CompletableFuture<List<Query>> handOver = new CompletableFuture<>();
+
+        Query(Request request, String prefix, String operationName, AliasedDocument document, JsonNode variables) {
+            this.request = request;
+            this.prefix = prefix;
+            this.operationName = operationName;
+            this.document = document;
+            this.variables = variables;
+        }
+
+        /**
+         * Waits for the response of this query, sent as part of its batch by another thread, or for the batch to be
+         * handed over to this query.
+         *
+         * @param timeoutNanos how long to wait
+         * @return the queries to send, if the batch was handed over, or {@code null} once the response is in
+         * @throws InterruptedIOException if the wait times out or is interrupted
+         */
+        @Nullable List<Query> await(long timeoutNanos) throws IOException {
+            try {
+                CompletableFuture.anyOf(result, handOver).get(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                giveUp(new InterruptedIOException("Interrupted while waiting for batched query " + operationName));
+            } catch (TimeoutException e) {
+                giveUp(new InterruptedIOException("Timed out waiting for batched query " + operationName));
+            } catch (ExecutionException ignored) { // The failure of the response, raised by response()
+            }
+            return handOver.getNow(null);
+        }
+
+        /**
+         * Stops waiting, unless the batch was just handed over to this query, which must send it then.
+         */
+        private void giveUp(InterruptedIOException e) throws InterruptedIOException {
+            if (handOver.completeExceptionally(e)) {
+                throw e;
+            }
+        }
+
+        /**
+         * {@return the response of this query, once it is in}
+         */
+        Response response() throws IOException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for batched query " + operationName);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw new IOException("Batched query " + operationName + " failed", io);
+                }
+                throw new IOException("Batched query " + operationName + " failed", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.parchmentmc.nitwit.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A reusable, per-thread buffer for reading request bodies in bulk.
+ *
+ * <p>The buffer grows as needed to fit the largest body read, but is shrunk back down after an unusually large body
+ * so a single large request does not pin memory to the thread forever.</p>
+ *
+ * <p>The declared length of a body is only trusted up to the retained capacity; beyond that, the buffer grows as the
+ * bytes actually arrive, so a request declaring a huge body cannot make the buffer allocate it up front. Bodies
+ * longer than {@link #MAX_LENGTH} are rejected, whatever is in front of the buffer.</p>
+ */
+public final class BodyBuffer {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int RETAINED_CAPACITY = 1024 * 1024;
+    /**
+     * The max length of a body, which is the max size of webhook payloads sent by GitHub.
+     */
+    public static final int MAX_LENGTH = 25 * 1024 * 1024;
+    private static final ThreadLocal<BodyBuffer> LOCAL = ThreadLocal.withInitial(BodyBuffer::new);
+
+    private byte[] array = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    private BodyBuffer() {
+    }
+
+    /**
+     * {@return the buffer for the current thread}
+     */
+    public static BodyBuffer local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Reads the given stream fully into this buffer, replacing the previous contents.
+     *
+     * @param in             the stream to read
+     * @param expectedLength the expected length of the stream if known (such as from {@code Content-Length}), or
+     *                       {@code -1} if unknown
+     * @return this buffer
+     * @throws IOException if an I/O error occurs while reading, or the body is longer than {@link #MAX_LENGTH}
+     */
+    public BodyBuffer readFrom(InputStream in, long expectedLength) throws IOException {
+        if (expectedLength > MAX_LENGTH) {
+            throw new IOException("Body is too large: " + expectedLength + " bytes");
+        }
+        if (expectedLength > array.length) {
+            array = new byte[(int) Math.min(expectedLength, RETAINED_CAPACITY)];
+        }
+
+        int read = 0;
+        int count;
+        while ((count = in.read(array, read, array.length - read)) != -1) {
+            read += count;
+            if (read == array.length) {
+                int next = -1;
+                if ((expectedLength >= 0 && read >= expectedLength || read >= MAX_LENGTH) && (next = in.read()) == -1) {
+                    break; // Filled exactly to the expected or max length, avoid growing needlessly
+                }
+                if (read >= MAX_LENGTH) {
+                    throw new IOException("Body is too large: more than " + MAX_LENGTH + " bytes");
+                }
+                array = Arrays.copyOf(array, Math.min(Math.max(array.length * 2, INITIAL_CAPACITY), MAX_LENGTH));
+                if (next != -1) {
+                    array[read++] = (byte) next;
+                }
+            }
+        }
+        length = read;
+        return this;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Clears this buffer, shrinking it if it has grown past the retained capacity.
+     */
+    public void release() {
+        length = 0;
+        if (array.length > RETAINED_CAPACITY) {
+            array = new byte[INITIAL_CAPACITY];
+        }
+    }
+}
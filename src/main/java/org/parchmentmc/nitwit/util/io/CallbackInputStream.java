@@ -23,4 +23,13 @@ public class CallbackInputStream<T extends InputStream> extends FilterInputStrea
         }
         return value;
     }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int count = super.read(b, off, len);
+        if (count == -1) { // End of stream, callback!
+            streamEndCallback.accept(inputStream);
+        }
+        return count;
+    }
 }
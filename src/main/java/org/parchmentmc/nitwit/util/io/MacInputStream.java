@@ -27,6 +27,15 @@ public class MacInputStream extends FilterInputStream {
         return value;
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int count = super.read(b, off, len);
+        if (count > 0) {
+            mac.update(b, off, count);
+        }
+        return count;
+    }
+
     // TODO: move to misc. helper utility class?
     private static final byte[] HEX_ARRAY = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
 
@@ -0,0 +1,330 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import com.apollographql.apollo.ApolloClient;
+import com.github.api.type.RepositoryPermission;
+import io.reactivex.rxjava3.core.Single;
+import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.config.Configuration.FetchMode;
+import org.parchmentmc.nitwit.config.Configuration.FetchPolicyConfig;
+import org.parchmentmc.nitwit.config.GitHubConfig;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.Priority;
+import org.parchmentmc.nitwit.webhook.WebhookEventHandler;
+import org.parchmentmc.nitwit.webhook.events.MemberEvent;
+import org.parchmentmc.nitwit.webhook.events.MembershipEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An index of the roles of the members of a tracked repository: its collaborators with write access, and the members
+ * of the reviewers team. It is shared by everything which needs the roles of a user, so each lookup is a single map
+ * access rather than a query.
+ *
+ * <p>The index is loaded through GraphQL when first needed, and then refreshed on a schedule. {@code membership} and
+ * {@code member} webhook events apply removals and team additions directly, and schedule a refresh for the changes
+ * the payload does not fully describe (such as the permission of a new collaborator). A refresh may have queried the
+ * members before an event was applied, so the events applied while it was in progress are applied again to its result,
+ * and the result of a refresh which completes after a later one is dropped.</p>
+ *
+ * <p>Refreshes run on a scheduler shared with the indexes of the other tracked repositories, and do not block it while
+ * the members are queried.</p>
+ */
+public class MembershipIndex {
+    /**
+     * The role of a collaborator of the repository with write access.
+     */
+    public static final int COLLABORATOR = 1;
+    /**
+     * The role of a member of the reviewers team.
+     */
+    public static final int REVIEWER = 1 << 1;
+
+    /**
+     * The delay before a refresh requested by an event, so a burst of events causes a single refresh.
+     */
+    private static final Duration EVENT_REFRESH_DELAY = Duration.ofSeconds(5);
+    /**
+     * Refreshes must see the current members, so they bypass the cache of the member queries.
+     */
+    private static final FetchPolicyConfig REFRESH_POLICY = new FetchPolicyConfig(FetchMode.NETWORK_ONLY,
+            Duration.ZERO, false, true);
+
+    private final String organization;
+    private final String repository;
+    private final String reviewersTeam;
+    /**
+     * The roles by lower-cased login, replaced as a whole on each refresh and event. Written while holding this.
+     */
+    private volatile Map<String, Integer> roles = Map.of();
+    /**
+     * The amount of updates applied by events. Guarded by this, as are the fields of the loads.
+     */
+    private long version = 0;
+    /**
+     * The amount of loads started, and the number of the load whose result the roles are based on.
+     */
+    private long loadsStarted = 0;
+    private long loadApplied = 0;
+    private int loadsInProgress = 0;
+    /**
+     * The updates applied by events while a load was in progress, which its result may not include.
+     */
+    private final List<Update> pendingUpdates = new ArrayList<>();
+    private volatile @Nullable Single<MembershipIndex> loading = null;
+    private volatile @Nullable ApolloClient client = null;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder events = new LongAdder();
+
+    /**
+     * Creates an empty index, which is loaded when first needed.
+     *
+     * @param config    the GitHub configuration, with the repository and the reviewers team
+     * @param scheduler the scheduler which runs the refreshes
+     */
+    public MembershipIndex(GitHubConfig config, ScheduledExecutorService scheduler) {
+        this.organization = config.organization;
+        this.repository = config.repositoryName;
+        this.reviewersTeam = config.reviewersTeam;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * {@return the full name of the repository of this index, as {@code owner/name}}
+     */
+    public String getRepository() {
+        return organization + '/' + repository;
+    }
+
+    /**
+     * Starts refreshing the index on a schedule, loading it now.
+     *
+     * @param client   the GraphQL client for loading the members
+     * @param interval the interval between refreshes
+     */
+    public void start(ApolloClient client, Duration interval) {
+        this.client = client;
+        scheduler.scheduleWithFixedDelay(() -> refresh(client), 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@return this index once it is loaded, loading it through GraphQL if it is not yet loaded}
+     *
+     * @param client the GraphQL client for loading the members
+     */
+    public Single<MembershipIndex> get(ApolloClient client) {
+        if (refreshes.sum() > 0) {
+            return Single.just(this);
+        }
+        @Nullable Single<MembershipIndex> current = loading;
+        if (current == null) {
+            synchronized (this) {
+                current = loading;
+                if (current == null) {
+                    // A failed load is not kept, so the next caller tries again
+                    current = load(client, Priority.INTERACTIVE).doOnError(e -> loading = null).cache();
+                    loading = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * {@return the roles of the given user, as a combination of {@link #COLLABORATOR} and {@link #REVIEWER}}
+     *
+     * @param login the login of the user
+     */
+    public int roles(String login) {
+        return roles.getOrDefault(login.toLowerCase(Locale.ROOT), 0);
+    }
+
+    public boolean isCollaborator(String login) {
+        return (roles(login) & COLLABORATOR) != 0;
+    }
+
+    public boolean isReviewer(String login) {
+        return (roles(login) & REVIEWER) != 0;
+    }
+
+    /**
+     * Creates the webhook event handlers which keep the given indexes up to date. Each event is passed to every
+     * index, which ignores events of other repositories and teams.
+     *
+     * @param indexes the indexes
+     * @return the event handlers
+     */
+    public static List<WebhookEventHandler<?>> createHandlers(Collection<MembershipIndex> indexes) {
+        final List<MembershipIndex> targets = List.copyOf(indexes);
+        return List.of(WebhookEventHandler.of(MembershipEvent.EVENT_NAME, MembershipEvent.class, event -> {
+                    for (MembershipIndex index : targets) {
+                        index.onMembership(event);
+                    }
+                }),
+                WebhookEventHandler.of(MemberEvent.EVENT_NAME, MemberEvent.class, event -> {
+                    for (MembershipIndex index : targets) {
+                        index.onMember(event);
+                    }
+                }));
+    }
+
+    private void refresh(ApolloClient client) {
+        load(client, Priority.BACKGROUND).subscribe(index -> {
+        }, e -> {
+            System.err.println("Failed to refresh the membership index of " + getRepository());
+            e.printStackTrace();
+        });
+    }
+
+    private Single<MembershipIndex> load(ApolloClient client, Priority priority) {
+        return Single.defer(() -> {
+            final long load;
+            final long startVersion;
+            synchronized (this) {
+                load = ++loadsStarted;
+                startVersion = version;
+                loadsInProgress++;
+            }
+            return Single.zip(
+                    RequirementCalculator.getCollaborators(client, organization, repository,
+                            RepositoryPermission.WRITE, REFRESH_POLICY, priority),
+                    RequirementCalculator.getTeamMembers(client, organization, reviewersTeam, REFRESH_POLICY,
+                            priority),
+                    (collaborators, reviewers) -> {
+                        final Map<String, Integer> roles = new HashMap<>();
+                        for (String login : collaborators) {
+                            roles.merge(login.toLowerCase(Locale.ROOT), COLLABORATOR, MembershipIndex::or);
+                        }
+                        for (String login : reviewers) {
+                            roles.merge(login.toLowerCase(Locale.ROOT), REVIEWER, MembershipIndex::or);
+                        }
+                        loaded(roles, load, startVersion);
+                        return this;
+                    })
+                    .doFinally(this::loadFinished);
+        });
+    }
+
+    /**
+     * Replaces the roles with the result of a load, unless a later load was already applied.
+     *
+     * @param roles        the loaded roles, which are modified
+     * @param load         the number of the load
+     * @param startVersion the version when the load started; later updates are applied again
+     */
+    private synchronized void loaded(Map<String, Integer> roles, long load, long startVersion) {
+        if (load < loadApplied) {
+            return;
+        }
+        for (Update update : pendingUpdates) {
+            if (update.version() > startVersion) {
+                update.applyTo(roles);
+            }
+        }
+        this.roles = Map.copyOf(roles);
+        loadApplied = load;
+        refreshes.increment();
+    }
+
+    private synchronized void loadFinished() {
+        if (--loadsInProgress == 0) {
+            pendingUpdates.clear();
+        }
+    }
+
+    private static int or(int a, int b) {
+        return a | b;
+    }
+
+    void onMembership(MembershipEvent event) {
+        if (!"team".equals(event.scope()) || !event.organization().login().equalsIgnoreCase(organization)
+                || !event.team().slug().equals(reviewersTeam)) {
+            return;
+        }
+        events.increment();
+        switch (event.action()) {
+            case "added" -> update(event.member().login(), REVIEWER, true);
+            case "removed" -> update(event.member().login(), REVIEWER, false);
+            default -> scheduleRefresh();
+        }
+    }
+
+    void onMember(MemberEvent event) {
+        if (!event.repository().full_name().equalsIgnoreCase(organization + '/' + repository)) {
+            return;
+        }
+        events.increment();
+        if (event.action().equals("removed")) {
+            update(event.member().login(), COLLABORATOR, false);
+        } else { // The payload does not tell whether the permission includes write access
+            scheduleRefresh();
+        }
+    }
+
+    private synchronized void update(String login, int role, boolean add) {
+        final Update update = new Update(++version, login.toLowerCase(Locale.ROOT), role, add);
+        if (loadsInProgress > 0) {
+            pendingUpdates.add(update);
+        }
+        final Map<String, Integer> updated = new HashMap<>(roles);
+        update.applyTo(updated);
+        roles = Map.copyOf(updated);
+    }
+
+    private void scheduleRefresh() {
+        final @Nullable ApolloClient client = this.client;
+        if (client != null && refreshScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                refreshScheduled.set(false);
+                refresh(client);
+            }, EVENT_REFRESH_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Statistics statistics() {
+        return new Statistics(roles.size(), refreshes.sum(), events.sum());
+    }
+
+    /**
+     * An update of the roles of a user, applied by an event.
+     *
+     * @param version the version of the index after the update
+     * @param login   the lower-cased login of the user
+     * @param role    the role added or removed
+     * @param add     whether the role is added, rather than removed
+     */
+    private record Update(long version, String login, int role, boolean add) {
+        void applyTo(Map<String, Integer> roles) {
+            roles.compute(login, (key, current) -> {
+                final int previous = current != null ? current : 0;
+                final int value = add ? previous | role : previous & ~role;
+                return value != 0 ? value : null;
+            });
+        }
+    }
+
+    /**
+     * A snapshot of the index statistics.
+     *
+     * @param members   the amount of users with a role
+     * @param refreshes the total amount of times the index was loaded through GraphQL
+     * @param events    the total amount of membership events applied to the index
+     */
+    public record Statistics(int members, long refreshes, long events) {
+        @Override
+        public String toString() {
+            return "%s members, %s refreshes, %s events".formatted(members, refreshes, events);
+        }
+    }
+}
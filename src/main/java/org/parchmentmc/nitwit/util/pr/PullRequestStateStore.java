@@ -0,0 +1,485 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import com.apollographql.apollo.ApolloClient;
+import com.github.api.fragment.DetailedPullRequestInfo;
+import com.github.api.type.MergeableState;
+import com.github.api.type.PullRequestReviewState;
+import com.github.api.type.StatusState;
+import io.reactivex.rxjava3.core.Single;
+import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.config.Configuration.FetchMode;
+import org.parchmentmc.nitwit.config.Configuration.FetchPolicyConfig;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.Priority;
+import org.parchmentmc.nitwit.util.pr.RequirementCalculator.PullRequestState;
+import org.parchmentmc.nitwit.util.pr.RequirementCalculator.Review;
+import org.parchmentmc.nitwit.webhook.WebhookEventHandler;
+import org.parchmentmc.nitwit.webhook.events.CheckSuiteEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestKey;
+import org.parchmentmc.nitwit.webhook.events.PullRequestReviewCommentEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestReviewEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestReviewThreadEvent;
+import org.parchmentmc.nitwit.webhook.events.StatusEvent;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * An in-memory store of the {@link PullRequestState} of open pull requests, kept up to date by webhook events.
+ *
+ * <p>The state of a pull request is loaded through {@link RequirementCalculator#queryState} the first time it is
+ * requested, and then updated incrementally as {@code pull_request}, {@code pull_request_review},
+ * {@code pull_request_review_thread}, {@code pull_request_review_comment}, {@code status} and {@code check_suite}
+ * events arrive. Events which change something the store cannot derive from the payload (such as the title or labels
+ * of a pull request) invalidate the state instead, so it is loaded again on the next request.</p>
+ *
+ * <p>The status check rollup cannot be computed from events alone, as there is no telling whether every status
+ * context and check suite of the head commit has reported yet. Only failures are applied, as they fail the rollup
+ * whatever the other contexts are; any other status change invalidates the state. After a push, the state is kept only
+ * if a failure is already known for the new head commit, and otherwise invalidated.</p>
+ *
+ * <p>The state of a pull request changed by an event since it was last loaded is loaded from the network, as a
+ * response cached by its fetch policy may predate the event.</p>
+ */
+public class PullRequestStateStore {
+    /**
+     * The amount of commits whose statuses are remembered before the commit is known to be the head of a pull request.
+     */
+    private static final int ORPHAN_CAPACITY = 256;
+    /**
+     * The amount of pull requests remembered to be changed since their state was last loaded.
+     */
+    private static final int CHANGED_CAPACITY = 1024;
+    /**
+     * The fetch policy for loading the state of a changed pull request.
+     */
+    private static final FetchPolicyConfig REFETCH_POLICY = new FetchPolicyConfig(FetchMode.NETWORK_ONLY,
+            Duration.ZERO, false, false);
+
+    private final long maxAgeNanos;
+    private final Map<PullRequestKey, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * The pull request for each head commit, keyed by {@code owner/name@sha}.
+     */
+    private final Map<String, PullRequestKey> heads = new ConcurrentHashMap<>();
+    /**
+     * Tokens for the loads in progress, which are discarded if the pull request is updated before the load completes.
+     */
+    private final Map<PullRequestKey, Object> loading = new ConcurrentHashMap<>();
+    /**
+     * Statuses for commits which are not (yet) known to be the head of a pull request, such as those arriving before
+     * the {@code synchronize} event of the push. Also the lock for registering a new head commit in {@link #heads}, so
+     * a status is either orphaned before the head is registered, or finds it registered.
+     */
+    private final Map<String, Map<String, StatusState>> orphans = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, StatusState>> eldest) {
+                    return size() > ORPHAN_CAPACITY;
+                }
+            });
+
+    /**
+     * The pull requests changed by an event since their state was last loaded. Once one is forgotten, a cached
+     * response is at worst as old as its fetch policy allows.
+     */
+    private final Set<PullRequestKey> changed = Collections.newSetFromMap(Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<PullRequestKey, Boolean> eldest) {
+                    return size() > CHANGED_CAPACITY;
+                }
+            }));
+
+    private final List<Consumer<PullRequestKey>> listeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Creates a store.
+     *
+     * @param maxAge the maximum age of a state before it is loaded again, as a safeguard against missed events
+     */
+    public PullRequestStateStore(Duration maxAge) {
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    /**
+     * Gets the state of the given pull request, loading it through GraphQL if it is not in the store.
+     *
+     * @param client          the GraphQL client for loading the state
+     * @param repositoryOwner the owner of the repository
+     * @param repositoryName  the name of the repository
+     * @param prNumber        the number of the pull request
+     * @return the state of the pull request
+     */
+    public Single<PullRequestState> get(ApolloClient client, String repositoryOwner, String repositoryName,
+                                        int prNumber) {
+        return get(client, repositoryOwner, repositoryName, prNumber, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Gets the state of the given pull request, loading it through GraphQL with the given priority if it is not in
+     * the store.
+     *
+     * @param client          the GraphQL client for loading the state
+     * @param repositoryOwner the owner of the repository
+     * @param repositoryName  the name of the repository
+     * @param prNumber        the number of the pull request
+     * @param priority        the priority of the query against the rate limit
+     * @return the state of the pull request
+     */
+    public Single<PullRequestState> get(ApolloClient client, String repositoryOwner, String repositoryName,
+                                        int prNumber, Priority priority) {
+        final PullRequestKey key = new PullRequestKey(repositoryOwner + '/' + repositoryName, prNumber);
+        final @Nullable PullRequestState cached = getCached(key);
+        if (cached != null) {
+            hits.increment();
+            return Single.just(cached);
+        }
+
+        misses.increment();
+        final Object token = new Object();
+        loading.put(key, token);
+        final boolean refetch = changed.remove(key);
+        return RequirementCalculator.queryState(client, repositoryOwner, repositoryName, prNumber,
+                        refetch ? REFETCH_POLICY : null, priority)
+                .doOnSuccess(state -> {
+                    // Only store the state if no event touched the pull request while it was loading
+                    if (loading.remove(key, token)) {
+                        store(key, state);
+                    }
+                })
+                .doOnError(e -> {
+                    loading.remove(key, token);
+                    if (refetch) {
+                        changed.add(key);
+                    }
+                });
+    }
+
+    /**
+     * {@return the state of the given pull request if it is in the store and not expired, otherwise {@code null}}
+     *
+     * @param key the pull request
+     */
+    public @Nullable PullRequestState getCached(PullRequestKey key) {
+        final @Nullable Entry entry = entries.get(key);
+        if (entry == null || System.nanoTime() - entry.loadedNanos() > maxAgeNanos) {
+            return null;
+        }
+        return entry.state();
+    }
+
+    /**
+     * Removes the state of the given pull request, so it is loaded again on the next request.
+     *
+     * @param key the pull request
+     */
+    public void invalidate(PullRequestKey key) {
+        loading.remove(key);
+        final @Nullable Entry removed = entries.remove(key);
+        if (removed != null) {
+            heads.remove(headKey(key.repository(), removed.headSha()), key);
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Adds a listener which is notified of every event affecting an open pull request, whether or not its state is in
+     * the store. Listeners are called from the webhook dispatcher's workers, so should return quickly.
+     *
+     * @param listener the listener
+     * @return this store
+     */
+    public PullRequestStateStore addListener(Consumer<PullRequestKey> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Creates the webhook event handlers which keep this store up to date.
+     *
+     * @return the event handlers
+     */
+    public List<WebhookEventHandler<?>> createHandlers() {
+        return List.of(
+                WebhookEventHandler.of(PullRequestEvent.EVENT_NAME, PullRequestEvent.class, this::onPullRequest),
+                WebhookEventHandler.of(PullRequestReviewEvent.EVENT_NAME, PullRequestReviewEvent.class, this::onReview),
+                WebhookEventHandler.of(PullRequestReviewThreadEvent.EVENT_NAME, PullRequestReviewThreadEvent.class,
+                        this::onReviewThread),
+                WebhookEventHandler.of(PullRequestReviewCommentEvent.EVENT_NAME, PullRequestReviewCommentEvent.class,
+                        this::onReviewComment),
+                WebhookEventHandler.of(StatusEvent.EVENT_NAME, StatusEvent.class, this::onStatus),
+                WebhookEventHandler.of(CheckSuiteEvent.EVENT_NAME, CheckSuiteEvent.class, this::onCheckSuite)
+        );
+    }
+
+    private void store(PullRequestKey key, PullRequestState state) {
+        final @Nullable List<DetailedPullRequestInfo.Node> commits = state.pullRequest().fragments()
+                .detailedPullRequestInfo().commits().nodes();
+        final String headSha = commits == null || commits.isEmpty() ? "" : commits.get(0).commit().oid();
+        final @Nullable Entry previous = entries.put(key, new Entry(state, System.nanoTime(), headSha));
+        if (previous != null && !previous.headSha().equals(headSha)) {
+            heads.remove(headKey(key.repository(), previous.headSha()), key);
+        }
+        heads.put(headKey(key.repository(), headSha), key);
+    }
+
+    void onPullRequest(PullRequestEvent event) {
+        final PullRequestKey key = event.orderingKey();
+        final PullRequestEvent.PullRequest pullRequest = event.pull_request();
+        switch (event.action()) {
+            case "closed" -> invalidate(key); // Only open pull requests are kept
+            case "synchronize" -> onPush(key, pullRequest);
+            // These change the information shown from the pull request itself, which is only loaded through GraphQL
+            case "opened", "reopened", "edited", "labeled", "unlabeled", "ready_for_review", "converted_to_draft" -> {
+                invalidate(key);
+                markChanged(key);
+            }
+            default -> {
+                if (pullRequest.mergeable() != null) {
+                    update(key, (k, entry) -> entry.with(withMergeable(entry.state(), pullRequest.mergeable())));
+                }
+            }
+        }
+    }
+
+    private void onPush(PullRequestKey key, PullRequestEvent.PullRequest pullRequest) {
+        final String headSha = pullRequest.head().sha();
+        loading.remove(key);
+        final boolean[] present = {false};
+        final @Nullable Entry updated;
+        synchronized (orphans) {
+            // The statuses already reported for the new head commit, which are only a part of them
+            final @Nullable Map<String, StatusState> orphaned = orphans.remove(headKey(key.repository(), headSha));
+            final @Nullable StatusState failure = orphaned != null ? failure(orphaned.values()) : null;
+            updated = entries.computeIfPresent(key, (k, entry) -> {
+                present[0] = true;
+                heads.remove(headKey(key.repository(), entry.headSha()), key);
+                if (failure == null) {
+                    return null;
+                }
+                heads.put(headKey(key.repository(), headSha), key);
+                return entry.with(withStatus(withMergeable(entry.state(), pullRequest.mergeable()), failure), headSha);
+            });
+        }
+        if (updated != null) {
+            updates.increment();
+        } else if (present[0]) {
+            invalidations.increment();
+        }
+        markChanged(key);
+    }
+
+    void onReview(PullRequestReviewEvent event) {
+        final PullRequestReviewEvent.Review payload = event.review();
+        final PullRequestReviewState state = PullRequestReviewState.safeValueOf(payload.state().toUpperCase(Locale.ROOT));
+        if (event.action().equals("edited") || state == PullRequestReviewState.$UNKNOWN) {
+            return; // Edits only change the body
+        }
+        final Review review = new Review(state, OffsetDateTime.parse(payload.submitted_at()), payload.user().login(),
+                URI.create(payload.html_url()));
+
+        update(event.orderingKey(), (key, entry) -> {
+            // The latest reviews hold one review per author; a comment does not replace a previous verdict
+            final List<Review> reviews = new ArrayList<>(entry.state().latestReviews());
+            boolean replaced = false;
+            for (int i = 0; i < reviews.size(); i++) {
+                if (review.userLogin().equals(reviews.get(i).userLogin())) {
+                    if (state != PullRequestReviewState.COMMENTED) {
+                        reviews.set(i, review);
+                    }
+                    replaced = true;
+                    break;
+                }
+            }
+            if (!replaced) {
+                reviews.add(review);
+            }
+            final PullRequestState s = entry.state();
+            return entry.with(new PullRequestState(s.pullRequest(), s.mergeableState(), s.commitStatus(),
+                    s.resolvedThreads(), s.unresolvedThreads(), List.copyOf(reviews)));
+        });
+    }
+
+    void onReviewThread(PullRequestReviewThreadEvent event) {
+        final int delta = switch (event.action()) {
+            case "resolved" -> 1;
+            case "unresolved" -> -1;
+            default -> 0;
+        };
+        if (delta != 0) {
+            update(event.orderingKey(), (key, entry) -> entry.with(withThreads(entry.state(), delta, -delta)));
+        }
+    }
+
+    void onReviewComment(PullRequestReviewCommentEvent event) {
+        if (event.comment().in_reply_to_id() != null) {
+            return; // Replies don't start new threads
+        }
+        switch (event.action()) {
+            case "created" -> update(event.orderingKey(), (key, entry) -> entry.with(withThreads(entry.state(), 0, 1)));
+            case "deleted" -> { // May or may not have removed the thread
+                invalidate(event.orderingKey());
+                markChanged(event.orderingKey());
+            }
+        }
+    }
+
+    void onStatus(StatusEvent event) {
+        final StatusState state = StatusState.safeValueOf(event.state().toUpperCase(Locale.ROOT));
+        updateContext(event.repository().full_name(), event.sha(), "status/" + event.context(), state);
+    }
+
+    void onCheckSuite(CheckSuiteEvent event) {
+        final CheckSuiteEvent.CheckSuite suite = event.check_suite();
+        final StatusState state;
+        if (!suite.status().equals("completed")) {
+            state = StatusState.PENDING;
+        } else {
+            state = switch (suite.conclusion() != null ? suite.conclusion() : "") {
+                case "success", "neutral", "skipped" -> StatusState.SUCCESS;
+                default -> StatusState.FAILURE;
+            };
+        }
+        updateContext(event.repository().full_name(), suite.head_sha(), "check_suite/" + suite.id(), state);
+    }
+
+    private void updateContext(String repository, String sha, String context, StatusState state) {
+        final @Nullable PullRequestKey key;
+        synchronized (orphans) {
+            key = heads.get(headKey(repository, sha));
+            if (key == null) {
+                orphans.computeIfAbsent(headKey(repository, sha), k -> new HashMap<>()).put(context, state);
+                return;
+            }
+        }
+        loading.remove(key);
+        final @Nullable Entry updated = entries.computeIfPresent(key, (k, entry) -> {
+            if (!entry.headSha().equals(sha)) {
+                return entry;
+            }
+            if (state == StatusState.FAILURE || state == StatusState.ERROR) { // Keeping an error over a failure
+                return entry.with(withStatus(entry.state(), failure(List.of(entry.state().commitStatus(), state))));
+            }
+            return null; // Can't tell how this changes the rollup without knowing every other context
+        });
+        if (updated != null) {
+            updates.increment();
+        } else {
+            heads.remove(headKey(repository, sha), key);
+            invalidations.increment();
+        }
+        markChanged(key);
+    }
+
+    private void update(PullRequestKey key, BiFunction<PullRequestKey, Entry, Entry> function) {
+        loading.remove(key); // Discard any load in progress, as it may have been read before this event
+        if (entries.computeIfPresent(key, function) != null) {
+            updates.increment();
+        }
+        markChanged(key);
+    }
+
+    private void markChanged(PullRequestKey key) {
+        changed.add(key);
+        for (Consumer<PullRequestKey> listener : listeners) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * {@return the rollup of the given statuses if they fail it whatever the other statuses are, otherwise
+     * {@code null}}
+     */
+    private static @Nullable StatusState failure(Collection<StatusState> states) {
+        @Nullable StatusState result = null;
+        for (StatusState state : states) {
+            if (state == StatusState.ERROR) {
+                return StatusState.ERROR;
+            } else if (state == StatusState.FAILURE) {
+                result = StatusState.FAILURE;
+            }
+        }
+        return result;
+    }
+
+    private static PullRequestState withMergeable(PullRequestState s, @Nullable Boolean mergeable) {
+        final MergeableState state = mergeable == null ? MergeableState.UNKNOWN
+                : mergeable ? MergeableState.MERGEABLE : MergeableState.CONFLICTING;
+        return new PullRequestState(s.pullRequest(), state, s.commitStatus(), s.resolvedThreads(),
+                s.unresolvedThreads(), s.latestReviews());
+    }
+
+    private static PullRequestState withStatus(PullRequestState s, StatusState status) {
+        return new PullRequestState(s.pullRequest(), s.mergeableState(), status, s.resolvedThreads(),
+                s.unresolvedThreads(), s.latestReviews());
+    }
+
+    private static PullRequestState withThreads(PullRequestState s, long resolvedDelta, long unresolvedDelta) {
+        return new PullRequestState(s.pullRequest(), s.mergeableState(), s.commitStatus(),
+                Math.max(0, s.resolvedThreads() + resolvedDelta), Math.max(0, s.unresolvedThreads() + unresolvedDelta),
+                s.latestReviews());
+    }
+
+    private static String headKey(String repository, String sha) {
+        return repository + '@' + sha;
+    }
+
+    public Statistics statistics() {
+        return new Statistics(entries.size(), hits.sum(), misses.sum(), updates.sum(), invalidations.sum());
+    }
+
+    /**
+     * A stored pull request state.
+     *
+     * @param state       the state of the pull request
+     * @param loadedNanos the {@link System#nanoTime()} when the state was loaded through GraphQL
+     * @param headSha     the SHA of the head commit
+     */
+    private record Entry(PullRequestState state, long loadedNanos, String headSha) {
+        Entry with(PullRequestState state) {
+            return new Entry(state, loadedNanos, headSha);
+        }
+
+        Entry with(PullRequestState state, String headSha) {
+            return new Entry(state, loadedNanos, headSha);
+        }
+    }
+
+    /**
+     * A snapshot of the store statistics.
+     *
+     * @param entries       the amount of pull requests in the store
+     * @param hits          the total amount of requests served from the store
+     * @param misses        the total amount of requests which loaded the state through GraphQL
+     * @param updates       the total amount of events applied to a stored state
+     * @param invalidations the total amount of stored states removed because of an event
+     */
+    public record Statistics(int entries, long hits, long misses, long updates, long invalidations) {
+        @Override
+        public String toString() {
+            return "%s pull requests, %s hits, %s misses, %s updates, %s invalidations"
+                    .formatted(entries, hits, misses, updates, invalidations);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import org.parchmentmc.nitwit.webhook.events.PullRequestKey;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces bursts of events for the same pull request into a single readiness evaluation.
+ *
+ * <p>A single push to a pull request produces a {@code synchronize} event, followed within seconds by status and
+ * check suite events for the new head commit, and often label changes. Rather than evaluating the readiness of the
+ * pull request for each of them, the events are collected into a batch per pull request, which is evaluated once no
+ * event arrived for the quiet period, or once the maximum delay passed since the first event of the batch.</p>
+ *
+ * <p>Events arriving while a batch is being evaluated start a new batch.</p>
+ */
+public class ReadinessCoalescer {
+    private final long quietPeriodNanos;
+    private final long maxDelayNanos;
+    private final Evaluator evaluator;
+    private final ScheduledExecutorService scheduler;
+    private final Map<PullRequestKey, Batch> batches = new ConcurrentHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder absorbed = new LongAdder();
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param quietPeriod the time without events after which a batch is evaluated
+     * @param maxDelay    the maximum time between the first event of a batch and its evaluation
+     * @param evaluator   the evaluator for the batches
+     */
+    public ReadinessCoalescer(Duration quietPeriod, Duration maxDelay, Evaluator evaluator) {
+        if (quietPeriod.isNegative()) throw new IllegalArgumentException("quietPeriod must not be negative: " + quietPeriod);
+        if (maxDelay.compareTo(quietPeriod) < 0) {
+            throw new IllegalArgumentException("maxDelay must not be shorter than quietPeriod: " + maxDelay);
+        }
+        this.quietPeriodNanos = quietPeriod.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.evaluator = evaluator;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "readiness-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits an event for the given pull request, adding it to the pending batch of the pull request or starting a
+     * new batch.
+     *
+     * @param key the pull request
+     */
+    public void submit(PullRequestKey key) {
+        submitted.increment();
+        batches.compute(key, (k, batch) -> {
+            final long now = System.nanoTime();
+            if (batch == null) {
+                batch = new Batch(now);
+                schedule(k, quietPeriodNanos);
+            }
+            batch.events++;
+            batch.lastNanos = now;
+            return batch;
+        });
+    }
+
+    private void schedule(PullRequestKey key, long delayNanos) {
+        scheduler.schedule(() -> fire(key), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void fire(PullRequestKey key) {
+        final int[] events = {0};
+        batches.computeIfPresent(key, (k, batch) -> {
+            final long now = System.nanoTime();
+            final long deadline = Math.min(batch.lastNanos + quietPeriodNanos, batch.firstNanos + maxDelayNanos);
+            if (now - deadline < 0) {
+                // Events arrived since this was scheduled; wait until the batch settles (or the maximum delay passes)
+                schedule(k, deadline - now);
+                return batch;
+            }
+            events[0] = batch.events;
+            return null;
+        });
+
+        if (events[0] > 0) {
+            evaluations.increment();
+            absorbed.add(events[0]);
+            try {
+                evaluator.evaluate(key, events[0]);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to evaluate readiness of pull request " + key);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Shuts down the coalescer, discarding the pending batches.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        batches.clear();
+    }
+
+    public Statistics statistics() {
+        return new Statistics(batches.size(), submitted.sum(), evaluations.sum(), absorbed.sum());
+    }
+
+    /**
+     * A pending batch of events for a pull request. Only accessed within the {@code compute} methods of the batches
+     * map.
+     */
+    private static final class Batch {
+        final long firstNanos;
+        long lastNanos;
+        int events;
+
+        Batch(long firstNanos) {
+            this.firstNanos = firstNanos;
+            this.lastNanos = firstNanos;
+        }
+    }
+
+    /**
+     * Evaluates the readiness of a pull request after a batch of events.
+     */
+    @FunctionalInterface
+    public interface Evaluator {
+        /**
+         * Evaluates the readiness of the given pull request. This is called from the coalescer's thread, so should
+         * not block.
+         *
+         * @param key            the pull request
+         * @param absorbedEvents the amount of events coalesced into this evaluation
+         */
+        void evaluate(PullRequestKey key, int absorbedEvents);
+    }
+
+    /**
+     * A snapshot of the coalescer statistics.
+     *
+     * @param pending     the amount of pull requests with a pending batch
+     * @param submitted   the total amount of events submitted
+     * @param evaluations the total amount of evaluations
+     * @param absorbed    the total amount of events coalesced into the evaluations
+     */
+    public record Statistics(int pending, long submitted, long evaluations, long absorbed) {
+        @Override
+        public String toString() {
+            return "%s pending, %s events submitted, %s evaluations (%.1f events per evaluation)"
+                    .formatted(pending, submitted, evaluations, evaluations == 0 ? 0 : (double) absorbed / evaluations);
+        }
+    }
+}
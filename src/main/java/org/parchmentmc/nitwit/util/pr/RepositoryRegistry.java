@@ -0,0 +1,110 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.config.DiscordConfig;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The repositories tracked by Nitwit, by their name in the configuration and by their full name on GitHub.
+ *
+ * <p>Discord commands refer to the repository selected for their channel, or else for their guild, or else to the
+ * {@linkplain #DEFAULT_REPOSITORY default} repository. Webhook events are matched to the repository of their
+ * payload by its full name.</p>
+ */
+public class RepositoryRegistry {
+    /**
+     * The name of the repository of the {@code github} section of the configuration.
+     */
+    public static final String DEFAULT_REPOSITORY = "default";
+
+    private final Map<String, TrackedRepository> byName;
+    /**
+     * The repositories by lower-cased full name.
+     */
+    private final Map<String, TrackedRepository> byFullName;
+    private final TrackedRepository defaultRepository;
+
+    /**
+     * Creates a registry.
+     *
+     * @param repositories the tracked repositories, including the default repository
+     * @throws IllegalArgumentException if there is no default repository, or two repositories have the same name or
+     *                                  full name
+     */
+    public RepositoryRegistry(Collection<TrackedRepository> repositories) {
+        final Map<String, TrackedRepository> byName = new LinkedHashMap<>();
+        final Map<String, TrackedRepository> byFullName = new HashMap<>();
+        for (TrackedRepository repository : repositories) {
+            if (byName.putIfAbsent(repository.name(), repository) != null) {
+                throw new IllegalArgumentException("Repository name " + repository.name() + " is used twice");
+            }
+            if (byFullName.putIfAbsent(repository.fullName().toLowerCase(Locale.ROOT), repository) != null) {
+                throw new IllegalArgumentException("Repository " + repository.fullName() + " is tracked twice");
+            }
+        }
+        final @Nullable TrackedRepository defaultRepository = byName.get(DEFAULT_REPOSITORY);
+        if (defaultRepository == null) {
+            throw new IllegalArgumentException("No " + DEFAULT_REPOSITORY + " repository");
+        }
+        this.byName = byName;
+        this.byFullName = byFullName;
+        this.defaultRepository = defaultRepository;
+    }
+
+    public TrackedRepository getDefault() {
+        return defaultRepository;
+    }
+
+    public @Nullable TrackedRepository get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * {@return the repository with the given full name, or {@code null} if it is not tracked}
+     *
+     * @param fullName the full name of the repository, as {@code owner/name}
+     */
+    public @Nullable TrackedRepository getByFullName(String fullName) {
+        return byFullName.get(fullName.toLowerCase(Locale.ROOT));
+    }
+
+    public Collection<TrackedRepository> getAll() {
+        return List.copyOf(byName.values());
+    }
+
+    /**
+     * {@return the repository which commands in the given channel refer to} Selections naming an unknown repository
+     * are ignored.
+     *
+     * @param config    the Discord configuration, with the selected repositories by channel and by guild
+     * @param guildID   the snowflake ID of the guild of the channel, or {@code null} if the channel is not in a guild
+     * @param channelID the snowflake ID of the channel
+     */
+    public TrackedRepository select(DiscordConfig config, @Nullable String guildID, String channelID) {
+        @Nullable TrackedRepository selected = lookup(config.channelRepositories.get(channelID));
+        if (selected == null && guildID != null) {
+            selected = lookup(config.guildRepositories.get(guildID));
+        }
+        return selected != null ? selected : defaultRepository;
+    }
+
+    private @Nullable TrackedRepository lookup(@Nullable String name) {
+        return name != null ? byName.get(name) : null;
+    }
+
+    /**
+     * {@return a future which completes once the GraphQL clients of all repositories are created}
+     */
+    public CompletableFuture<Void> ready() {
+        return CompletableFuture.allOf(byName.values().stream()
+                .map(TrackedRepository::graphQL)
+                .toArray(CompletableFuture[]::new));
+    }
+}
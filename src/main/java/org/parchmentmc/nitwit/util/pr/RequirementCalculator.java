@@ -1,37 +1,64 @@
 package org.parchmentmc.nitwit.util.pr;
 
 import com.apollographql.apollo.ApolloClient;
+import com.apollographql.apollo.api.Query;
 import com.apollographql.apollo.api.Response;
 import com.github.api.fragment.DetailedPullRequestInfo;
+import com.github.api.fragment.LatestReviewInfo;
+import com.github.api.fragment.PullRequestInfo;
 import com.github.api.type.MergeableState;
 import com.github.api.type.PullRequestReviewState;
 import com.github.api.type.RepositoryPermission;
 import com.github.api.type.StatusState;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
-import io.reactivex.rxjava3.observables.GroupedObservable;
 import org.jetbrains.annotations.Nullable;
+import org.parchmentmc.nitwit.config.Configuration.FetchPolicyConfig;
+import org.parchmentmc.nitwit.config.GitHubConfig;
 import org.parchmentmc.nitwit.graphql.GetCollaboratorsQuery;
+import org.parchmentmc.nitwit.graphql.GetLatestReviewsQuery;
 import org.parchmentmc.nitwit.graphql.GetPullRequestQuery;
+import org.parchmentmc.nitwit.graphql.GetReviewThreadsQuery;
 import org.parchmentmc.nitwit.graphql.GetTeamMembersQuery;
 import org.parchmentmc.nitwit.util.graphql.GraphQLHelper;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.Priority;
 
 import java.net.URI;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.function.Predicate;
 
 import static org.parchmentmc.nitwit.util.graphql.RxJavaHelper.npe;
 import static org.parchmentmc.nitwit.util.graphql.RxJavaHelper.nullableMapS;
 
 public class RequirementCalculator {
+    /**
+     * The max amount of pages fetched of a connection, such as the reviews of a pull request or the members of a team.
+     */
+    static final int MAX_PAGES = 20;
+
     public static Single<PullRequestState> queryState(ApolloClient client, String repositoryOwner,
                                                       String repositoryName, int prNumber) {
-        final Single<GetPullRequestQuery.PullRequest> pullRequestSingle = GraphQLHelper.queryRxJava(client,
-                new GetPullRequestQuery(repositoryOwner, repositoryName, prNumber))
+        return queryState(client, repositoryOwner, repositoryName, prNumber, Priority.INTERACTIVE);
+    }
+
+    public static Single<PullRequestState> queryState(ApolloClient client, String repositoryOwner,
+                                                      String repositoryName, int prNumber, Priority priority) {
+        return queryState(client, repositoryOwner, repositoryName, prNumber, null, priority);
+    }
+
+    public static Single<PullRequestState> queryState(ApolloClient client, String repositoryOwner,
+                                                      String repositoryName, int prNumber,
+                                                      @javax.annotation.Nullable FetchPolicyConfig fetchPolicy,
+                                                      Priority priority) {
+        final Single<GetPullRequestQuery.PullRequest> pullRequestSingle = query(client,
+                new GetPullRequestQuery(repositoryOwner, repositoryName, prNumber), fetchPolicy, priority)
                 .singleOrError()
                 .flatMap(nullableMapS(Response<GetPullRequestQuery.Data>::getData,
                         npe("Pull request query returned no data.")))
@@ -40,51 +67,138 @@ public class RequirementCalculator {
                 .flatMap(nullableMapS(GetPullRequestQuery.Repository::pullRequest,
                         npe("Could not find pull request #**%s**.", prNumber)));
 
-        final Single<DetailedPullRequestInfo> detailedPRInfoSingle = pullRequestSingle
-                .map(GetPullRequestQuery.PullRequest::fragments)
-                .map(GetPullRequestQuery.PullRequest.Fragments::detailedPullRequestInfo);
-
-        //
+        // Everything is computed from the one response; deriving several singles from the query would execute it
+        // once for each of them
+        return pullRequestSingle.flatMap(pullRequest -> {
+            final DetailedPullRequestInfo info = pullRequest.fragments().detailedPullRequestInfo();
+            final String id = pullRequest.fragments().pullRequestInfo().id();
+            // Most pull requests fit in the first page; only longer ones need the remaining pages
+            final @Nullable DetailedPullRequestInfo.LatestReviews latestReviews = info.latestReviews();
+            final Single<List<LatestReviewInfo>> moreReviews = latestReviews != null
+                    && latestReviews.pageInfo().hasNextPage()
+                    ? getLatestReviews(client, id, latestReviews.pageInfo().endCursor(), prNumber, fetchPolicy,
+                    priority)
+                    : Single.just(List.of());
+            final Single<List<Boolean>> moreThreads = info.reviewThreads().pageInfo().hasNextPage()
+                    ? getReviewThreads(client, id, info.reviewThreads().pageInfo().endCursor(), prNumber,
+                    fetchPolicy, priority)
+                    : Single.just(List.of());
+            return Single.zip(moreReviews, moreThreads,
+                    (reviews, threads) -> computeState(pullRequest, prNumber, reviews, threads));
+        });
+    }
 
-        final Single<MergeableState> mergeableStateSingle = detailedPRInfoSingle.map(DetailedPullRequestInfo::mergeable);
+    private static Single<List<LatestReviewInfo>> getLatestReviews(ApolloClient client, String pullRequestId,
+                                                                   @Nullable String after, int prNumber,
+                                                                   @javax.annotation.Nullable FetchPolicyConfig fetchPolicy,
+                                                                   Priority priority) {
+        return GraphQLHelper.paginate("latest reviews of PR #" + prNumber, after, MAX_PAGES - 1,
+                        cursor -> query(client, GetLatestReviewsQuery.builder()
+                                        .id(pullRequestId).after(cursor).build(), fetchPolicy, priority)
+                                .singleOrError()
+                                .flatMap(nullableMapS(Response<GetLatestReviewsQuery.Data>::getData,
+                                        npe("Latest reviews query returned no data.")))
+                                .flatMap(nullableMapS(data -> data.node() instanceof GetLatestReviewsQuery.AsPullRequest pr
+                                                ? pr.latestReviews() : null,
+                                        npe("Latest reviews list for PR #**%s* is null.", prNumber))),
+                        page -> page.pageInfo().hasNextPage() ? page.pageInfo().endCursor() : null)
+                .concatMapIterable(page -> requireNonNull(page.latestReviewNodes(),
+                        "Latest reviews (nodes) list for PR #**%s* is null.", prNumber))
+                .map(node -> node.fragments().latestReviewInfo())
+                .toList();
+    }
 
-        final Single<StatusState> statusStateSingle = detailedPRInfoSingle
-                .map(DetailedPullRequestInfo::commits)
-                .flatMap(nullableMapS(DetailedPullRequestInfo.Commits::nodes,
-                        npe("Commit list for PR #**%s* is null.", prNumber)))
-                .flattenStreamAsObservable(Collection::stream)
-                .take(1)
-                .singleOrError()
-                .map(DetailedPullRequestInfo.Node::commit)
-                .flatMap(nullableMapS(DetailedPullRequestInfo.Commit::statusCheckRollup,
-                        npe("Status check rollup for the latest commit for PR #**%s** is null", prNumber)))
-                .map(DetailedPullRequestInfo.StatusCheckRollup::state);
-
-        final Observable<GroupedObservable<Boolean, DetailedPullRequestInfo.ReviewThreadNode>> reviewThreads = detailedPRInfoSingle
-                .map(DetailedPullRequestInfo::reviewThreads)
-                .flatMap(nullableMapS(DetailedPullRequestInfo.ReviewThreads::reviewThreadNodes,
-                        npe("Review thread list for PR #**%s* is null.", prNumber)))
-                .flattenStreamAsObservable(Collection::stream)
-                .groupBy(DetailedPullRequestInfo.ReviewThreadNode::isResolved);
-
-        final Single<Long> resolvedThreads = reviewThreads
-                .filter(GroupedObservable::getKey)
-                .count();
-        final Single<Long> unresolvedThreads = reviewThreads
-                .filter(s -> !s.getKey())
-                .count();
-
-        final Single<List<Review>> latestReviewsSingle = detailedPRInfoSingle
-                .flatMap(nullableMapS(DetailedPullRequestInfo::latestReviews,
-                        npe("Latest reviews list for PR #**%s* is null.", prNumber)))
-                .flatMap(nullableMapS(DetailedPullRequestInfo.LatestReviews::latestReviewNodes,
-                        npe("Latest reviews (nodes) list for PR #**%s* is null.", prNumber)))
-                .flattenStreamAsObservable(Collection::stream)
-                .map(s -> new Review(s.state(), s.submittedAt(), s.author(), s.url()))
+    private static Single<List<Boolean>> getReviewThreads(ApolloClient client, String pullRequestId,
+                                                          @Nullable String after, int prNumber,
+                                                          @javax.annotation.Nullable FetchPolicyConfig fetchPolicy,
+                                                          Priority priority) {
+        return GraphQLHelper.paginate("review threads of PR #" + prNumber, after, MAX_PAGES - 1,
+                        cursor -> query(client, GetReviewThreadsQuery.builder()
+                                        .id(pullRequestId).after(cursor).build(), fetchPolicy, priority)
+                                .singleOrError()
+                                .flatMap(nullableMapS(Response<GetReviewThreadsQuery.Data>::getData,
+                                        npe("Review threads query returned no data.")))
+                                .flatMap(nullableMapS(data -> data.node() instanceof GetReviewThreadsQuery.AsPullRequest pr
+                                                ? pr.reviewThreads() : null,
+                                        npe("Review thread list for PR #**%s* is null.", prNumber))),
+                        page -> page.pageInfo().hasNextPage() ? page.pageInfo().endCursor() : null)
+                .concatMapIterable(page -> requireNonNull(page.reviewThreadNodes(),
+                        "Review thread list for PR #**%s* is null.", prNumber))
+                .map(GetReviewThreadsQuery.ReviewThreadNode::isResolved)
                 .toList();
+    }
+
+    /**
+     * Computes the state of a pull request from a single pass over its queried details.
+     *
+     * @param pullRequest the queried pull request
+     * @param prNumber    the number of the pull request, for error messages
+     * @param moreReviews the latest reviews past the first page of the query
+     * @param moreThreads the resolution of the review threads past the first page of the query
+     * @return the state of the pull request
+     * @throws NullPointerException   if a part of the details needed is missing
+     * @throws NoSuchElementException if the pull request has no commits
+     */
+    static PullRequestState computeState(GetPullRequestQuery.PullRequest pullRequest, int prNumber,
+                                         List<LatestReviewInfo> moreReviews, List<Boolean> moreThreads) {
+        final DetailedPullRequestInfo info = pullRequest.fragments().detailedPullRequestInfo();
+
+        final List<DetailedPullRequestInfo.Node> commits = requireNonNull(info.commits().nodes(),
+                "Commit list for PR #**%s* is null.", prNumber);
+        if (commits.isEmpty()) {
+            throw new NoSuchElementException("No commits found for PR #**" + prNumber + "**.");
+        }
+        final StatusState commitStatus = requireNonNull(commits.get(0).commit().statusCheckRollup(),
+                "Status check rollup for the latest commit for PR #**%s** is null", prNumber).state();
 
-        return Single.zip(pullRequestSingle, mergeableStateSingle, statusStateSingle, resolvedThreads,
-                unresolvedThreads, latestReviewsSingle, PullRequestState::new);
+        long resolvedThreads = 0;
+        long unresolvedThreads = 0;
+        for (DetailedPullRequestInfo.ReviewThreadNode thread : requireNonNull(info.reviewThreads().reviewThreadNodes(),
+                "Review thread list for PR #**%s* is null.", prNumber)) {
+            if (thread.isResolved()) {
+                resolvedThreads++;
+            } else {
+                unresolvedThreads++;
+            }
+        }
+        for (boolean resolved : moreThreads) {
+            if (resolved) {
+                resolvedThreads++;
+            } else {
+                unresolvedThreads++;
+            }
+        }
+
+        final DetailedPullRequestInfo.LatestReviews latestReviews = requireNonNull(info.latestReviews(),
+                "Latest reviews list for PR #**%s* is null.", prNumber);
+        final List<Review> reviews = new ArrayList<>();
+        for (DetailedPullRequestInfo.LatestReviewNode review : requireNonNull(latestReviews.latestReviewNodes(),
+                "Latest reviews (nodes) list for PR #**%s* is null.", prNumber)) {
+            reviews.add(new Review(review.fragments().latestReviewInfo()));
+        }
+        for (LatestReviewInfo review : moreReviews) {
+            reviews.add(new Review(review));
+        }
+
+        return new PullRequestState(pullRequest, info.mergeable(), commitStatus, resolvedThreads, unresolvedThreads,
+                reviews);
+    }
+
+    private static <T> T requireNonNull(@Nullable T value, String message, Object... args) {
+        if (value == null) {
+            throw new NullPointerException(message.formatted(args));
+        }
+        return value;
+    }
+
+    /**
+     * Executes a query according to the given fetch policy, or the configured one of its operation if {@code null}.
+     */
+    private static <D> Observable<Response<D>> query(ApolloClient client, Query<?, D, ?> query,
+                                                     @javax.annotation.Nullable FetchPolicyConfig fetchPolicy,
+                                                     Priority priority) {
+        return fetchPolicy != null ? GraphQLHelper.queryRxJava(client, query, fetchPolicy, priority)
+                : GraphQLHelper.queryRxJava(client, query, priority);
     }
 
     @Nullable
@@ -136,19 +250,92 @@ public class RequirementCalculator {
         return timeBaseReview;
     }
 
+    /**
+     * Gets the review wait duration of a pull request, which is shortened if it has the short duration label.
+     *
+     * @param info   the pull request
+     * @param config the GitHub configuration
+     * @return the review wait duration
+     */
+    public static Duration getReviewDuration(PullRequestInfo info, GitHubConfig config) {
+        final String shortDurationLabel = config.shortDurationLabel;
+        if (shortDurationLabel != null && Optional.ofNullable(info.labels())
+                .map(PullRequestInfo.Labels::nodes)
+                .stream()
+                .flatMap(Collection::stream)
+                .map(PullRequestInfo.Node::name)
+                .anyMatch(shortDurationLabel::equals)) {
+            return config.shortDuration;
+        }
+        return config.reviewDuration;
+    }
+
+    /**
+     * Evaluates the review state of a pull request.
+     *
+     * @param state          the state of the pull request
+     * @param timeBaseReview the review which the waiting period is based off of, or {@code null} if there is none
+     * @param reviewDuration the review wait duration
+     * @param now            the current time
+     * @return the review state
+     * @see #getTimeBaseReview(List, Predicate, Predicate)
+     */
+    public static ReviewState getReviewState(PullRequestState state, @Nullable Review timeBaseReview,
+                                             Duration reviewDuration, OffsetDateTime now) {
+        if (timeBaseReview == null || state.mergeableState() != MergeableState.MERGEABLE
+                || state.commitStatus() != StatusState.SUCCESS || state.unresolvedThreads() > 0) {
+            return ReviewState.UNDER_REVIEW;
+        }
+        return now.isBefore(timeBaseReview.submitTime().plus(reviewDuration))
+                ? ReviewState.WAITING
+                : ReviewState.READY_FOR_MERGE;
+    }
+
+    /**
+     * Evaluates the review state of a pull request, with the roles of the reviewers from the membership index.
+     *
+     * @param client          the GraphQL client, for loading the membership index if it is not yet loaded
+     * @param config          the GitHub configuration
+     * @param membershipIndex the membership index
+     * @param stateSingle     the state of the pull request
+     * @return the review state of the pull request
+     */
+    public static Single<ReviewState> queryReviewState(ApolloClient client, GitHubConfig config,
+                                                       MembershipIndex membershipIndex,
+                                                       Single<PullRequestState> stateSingle) {
+        return Single.zip(stateSingle, membershipIndex.get(client), (state, members) -> {
+            final Review timeBaseReview = getTimeBaseReview(state.latestReviews(), members::isCollaborator,
+                    members::isReviewer);
+            final Duration reviewDuration = getReviewDuration(state.pullRequest().fragments().pullRequestInfo(),
+                    config);
+            return getReviewState(state, timeBaseReview, reviewDuration, OffsetDateTime.now());
+        });
+    }
+
     public static Single<List<String>> getTeamMembers(ApolloClient client, String organization, String teamSlug) {
-        return GraphQLHelper.queryRxJava(client, new GetTeamMembersQuery(organization, teamSlug))
-                .singleOrError()
-                .flatMap(nullableMapS(Response<GetTeamMembersQuery.Data>::getData,
-                        npe("Organization team members query returned no data.", organization)))
-                .flatMap(nullableMapS(GetTeamMembersQuery.Data::organization,
-                        npe("No organization named **%s** found.", organization)))
-                .flatMap(nullableMapS(GetTeamMembersQuery.Organization::team,
-                        npe("No team named **%s** found in the *%s* organization.", teamSlug, organization)))
-                .map(GetTeamMembersQuery.Team::members)
-                .flatMap(nullableMapS(GetTeamMembersQuery.Members::memberNodes,
-                        npe("Members list for team **%s/%s** is null.", organization, teamSlug)))
-                .flattenStreamAsObservable(Collection::stream)
+        return getTeamMembers(client, organization, teamSlug, null, Priority.INTERACTIVE);
+    }
+
+    public static Single<List<String>> getTeamMembers(ApolloClient client, String organization, String teamSlug,
+                                                      @javax.annotation.Nullable FetchPolicyConfig fetchPolicy,
+                                                      Priority priority) {
+        return GraphQLHelper.paginate("members of team " + organization + '/' + teamSlug, null, MAX_PAGES,
+                        after -> {
+                            final GetTeamMembersQuery query = GetTeamMembersQuery.builder()
+                                    .organization(organization).team_slug(teamSlug).after(after).build();
+                            return query(client, query, fetchPolicy, priority)
+                                    .singleOrError()
+                                    .flatMap(nullableMapS(Response<GetTeamMembersQuery.Data>::getData,
+                                            npe("Organization team members query returned no data.", organization)))
+                                    .flatMap(nullableMapS(GetTeamMembersQuery.Data::organization,
+                                            npe("No organization named **%s** found.", organization)))
+                                    .flatMap(nullableMapS(GetTeamMembersQuery.Organization::team,
+                                            npe("No team named **%s** found in the *%s* organization.", teamSlug, organization)))
+                                    .map(GetTeamMembersQuery.Team::members);
+                        },
+                        page -> page.pageInfo().hasNextPage() ? page.pageInfo().endCursor() : null)
+                .concatMapIterable(page -> requireNonNull(page.memberNodes(),
+                        "Members list for team **%s/%s** is null.", organization, teamSlug))
                 .map(GetTeamMembersQuery.MemberNode::login)
                 .toList();
     }
@@ -156,17 +343,31 @@ public class RequirementCalculator {
     public static Single<List<String>> getCollaborators(ApolloClient client, String repositoryOwner,
                                                         String repositoryName,
                                                         @javax.annotation.Nullable RepositoryPermission minimumPermission) {
-        return GraphQLHelper.queryRxJava(client, new GetCollaboratorsQuery(repositoryOwner, repositoryName))
-                .singleOrError()
-                .flatMap(nullableMapS(Response<GetCollaboratorsQuery.Data>::getData,
-                        npe("Repository collaborators query returned no data.")))
-                .flatMap(nullableMapS(GetCollaboratorsQuery.Data::repository,
-                        npe("No repository at **%s/%s** found.", repositoryOwner, repositoryName)))
-                .flatMap(nullableMapS(GetCollaboratorsQuery.Repository::collaborators,
-                        npe("Collaborators list for **%s/%s** is null.", repositoryOwner, repositoryName)))
-                .flatMap(nullableMapS(GetCollaboratorsQuery.Collaborators::collaboratorEdges,
-                        npe("Collaborators list (edges) for **%s/%s** is null.", repositoryOwner, repositoryName)))
-                .flattenStreamAsObservable(Collection::stream)
+        return getCollaborators(client, repositoryOwner, repositoryName, minimumPermission, null,
+                Priority.INTERACTIVE);
+    }
+
+    public static Single<List<String>> getCollaborators(ApolloClient client, String repositoryOwner,
+                                                        String repositoryName,
+                                                        @javax.annotation.Nullable RepositoryPermission minimumPermission,
+                                                        @javax.annotation.Nullable FetchPolicyConfig fetchPolicy,
+                                                        Priority priority) {
+        return GraphQLHelper.paginate("collaborators of " + repositoryOwner + '/' + repositoryName, null, MAX_PAGES,
+                        after -> {
+                            final GetCollaboratorsQuery query = GetCollaboratorsQuery.builder()
+                                    .owner(repositoryOwner).repo(repositoryName).after(after).build();
+                            return query(client, query, fetchPolicy, priority)
+                                    .singleOrError()
+                                    .flatMap(nullableMapS(Response<GetCollaboratorsQuery.Data>::getData,
+                                            npe("Repository collaborators query returned no data.")))
+                                    .flatMap(nullableMapS(GetCollaboratorsQuery.Data::repository,
+                                            npe("No repository at **%s/%s** found.", repositoryOwner, repositoryName)))
+                                    .flatMap(nullableMapS(GetCollaboratorsQuery.Repository::collaborators,
+                                            npe("Collaborators list for **%s/%s** is null.", repositoryOwner, repositoryName)));
+                        },
+                        page -> page.pageInfo().hasNextPage() ? page.pageInfo().endCursor() : null)
+                .concatMapIterable(page -> requireNonNull(page.collaboratorEdges(),
+                        "Collaborators list (edges) for **%s/%s** is null.", repositoryOwner, repositoryName))
                 .filter(s -> minimumPermission != null && containsPermission(s.permission(), minimumPermission))
                 .map(GetCollaboratorsQuery.CollaboratorEdge::collaboratorNode)
                 .map(GetCollaboratorsQuery.CollaboratorNode::login)
@@ -187,8 +388,9 @@ public class RequirementCalculator {
     }
 
     public record Review(PullRequestReviewState state, OffsetDateTime submitTime, String userLogin, URI url) {
-        public Review(PullRequestReviewState state, OffsetDateTime submitTime, DetailedPullRequestInfo.Author author, URI url) {
-            this(state, submitTime, author instanceof DetailedPullRequestInfo.AsUser user ? user.login() : null, url);
+        public Review(LatestReviewInfo review) {
+            this(review.state(), review.submittedAt(),
+                    review.author() instanceof LatestReviewInfo.AsUser user ? user.login() : null, review.url());
         }
     }
 
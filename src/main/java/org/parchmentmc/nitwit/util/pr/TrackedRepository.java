@@ -0,0 +1,41 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import com.apollographql.apollo.ApolloClient;
+import org.parchmentmc.nitwit.config.GitHubConfig;
+import org.parchmentmc.nitwit.util.LambdaUtil;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A repository tracked by Nitwit, with the GraphQL client of the installation which it belongs to and the index of
+ * its members.
+ *
+ * @param name            the name of the repository in the configuration
+ * @param config          the configuration of the repository
+ * @param graphQL         the GraphQL client of the installation of the organization of the repository
+ * @param membershipIndex the index of the collaborators and reviewers team members of the repository
+ */
+public record TrackedRepository(String name, GitHubConfig config, CompletableFuture<ApolloClient> graphQL,
+                                MembershipIndex membershipIndex) {
+    public String owner() {
+        return config.organization;
+    }
+
+    public String repository() {
+        return config.repositoryName;
+    }
+
+    /**
+     * {@return the full name of the repository, as {@code owner/name}}
+     */
+    public String fullName() {
+        return config.organization + '/' + config.repositoryName;
+    }
+
+    public ApolloClient getGraphQLClient() {
+        if (!graphQL.isDone()) {
+            throw new IllegalStateException("Cannot access Apollo Client while loading is not finished");
+        }
+        return LambdaUtil.uncheck(graphQL::get);
+    }
+}
@@ -0,0 +1,321 @@
+package org.parchmentmc.nitwit.webhook;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Admits or rejects webhook requests before any of the request body is read.
+ *
+ * <p>A request is rejected if any of the following holds, checked in order:</p>
+ * <ol>
+ *     <li>the request method is not the expected method;</li>
+ *     <li>any of the required headers is missing;</li>
+ *     <li>the {@code Content-Length} is missing or exceeds the ceiling;</li>
+ *     <li>the event type is not in the allowlist;</li>
+ *     <li>the dispatcher's backlog is past its high-water mark ({@code 503 Service Unavailable});</li>
+ *     <li>too many requests are already being read and parsed ({@code 429 Too Many Requests}).</li>
+ * </ol>
+ * <p>The backlog is checked first so a request rejected for it does not take one of the concurrent request slots. The
+ * last two responses include a {@code Retry-After} header. Every rejection is counted by its reason.</p>
+ *
+ * <p>The header names and responses are computed once when the filter is created, and the headers are checked in a
+ * single pass over the request headers rather than looked up by name, which would normalize and copy each name. The
+ * only allocation when admitting a request is the iterator of that pass.</p>
+ */
+public class AdmissionFilter extends Filter {
+    private static final String CONTENT_LENGTH = normalize("Content-Length");
+
+    private final String requestMethod;
+    /**
+     * The required header names, as normalized by {@link com.sun.net.httpserver.Headers}.
+     */
+    private final String[] requiredHeaders;
+    private final long requiredMask;
+    private final String eventHeader;
+    private final byte[][] responses = new byte[Reason.values().length][];
+    private final AtomicLongArray rejections = new AtomicLongArray(Reason.values().length);
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private long maxContentLength = Long.MAX_VALUE;
+    private @Nullable Set<String> allowedEvents = null;
+    private int maxConcurrentRequests = Integer.MAX_VALUE;
+    private @Nullable WebhookDispatcher dispatcher = null;
+    private int backlogHighWaterMark = Integer.MAX_VALUE;
+    private String retryAfter = "1";
+
+    /**
+     * Creates an admission filter.
+     *
+     * @param requestMethod   the only accepted request method
+     * @param eventHeader     the header containing the event type, which must be one of the required headers
+     * @param requiredHeaders the required headers
+     */
+    public AdmissionFilter(String requestMethod, String eventHeader, String... requiredHeaders) {
+        if (requiredHeaders.length == 0 || requiredHeaders.length > Long.SIZE) {
+            throw new IllegalArgumentException("Between 1 and 64 required headers are needed: " + requiredHeaders.length);
+        }
+        this.requestMethod = requestMethod;
+        this.requiredHeaders = new String[requiredHeaders.length];
+        for (int i = 0; i < requiredHeaders.length; i++) {
+            this.requiredHeaders[i] = normalize(requiredHeaders[i]);
+        }
+        this.requiredMask = -1L >>> (Long.SIZE - requiredHeaders.length);
+        this.eventHeader = normalize(eventHeader);
+        if (!List.of(this.requiredHeaders).contains(this.eventHeader)) {
+            throw new IllegalArgumentException("Event header must be a required header: " + eventHeader);
+        }
+
+        for (Reason reason : Reason.values()) {
+            final String message = switch (reason) {
+                case METHOD -> "Unknown request method, we only understand " + requestMethod;
+                case MISSING_HEADERS -> "Missing required headers: " + String.join(", ", requiredHeaders);
+                case LENGTH_REQUIRED -> "Missing Content-Length request header.";
+                case TOO_LARGE -> "Request body is too large.";
+                case EVENT_NOT_ALLOWED -> "This webhook handler does not accept this event.";
+                case TOO_MANY_REQUESTS -> "Too many concurrent requests, try again later.";
+                case BACKLOG -> "Delivery backlog is too large, try again later.";
+            };
+            responses[reason.ordinal()] = (message + '\n').getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Sets the maximum {@code Content-Length} of a request. If set, requests without a {@code Content-Length} are
+     * rejected as well.
+     *
+     * @param maxContentLength the maximum length, in bytes
+     * @return this filter
+     */
+    public AdmissionFilter setMaxContentLength(long maxContentLength) {
+        this.maxContentLength = maxContentLength;
+        return this;
+    }
+
+    /**
+     * Sets the allowlist of event types.
+     *
+     * @param allowedEvents the allowed event types, or {@code null} to allow every event type
+     * @return this filter
+     */
+    public AdmissionFilter setAllowedEvents(@Nullable Set<String> allowedEvents) {
+        this.allowedEvents = allowedEvents != null ? Set.copyOf(allowedEvents) : null;
+        return this;
+    }
+
+    /**
+     * Sets the maximum amount of requests being read and parsed at the same time.
+     *
+     * @param maxConcurrentRequests the maximum amount of concurrent requests
+     * @return this filter
+     */
+    public AdmissionFilter setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * Sets the dispatcher whose backlog is checked, and the backlog past which requests are rejected.
+     *
+     * @param dispatcher    the dispatcher, or {@code null} to not check any backlog
+     * @param highWaterMark the amount of queued deliveries past which requests are rejected
+     * @return this filter
+     */
+    public AdmissionFilter setBacklogLimit(@Nullable WebhookDispatcher dispatcher, int highWaterMark) {
+        this.dispatcher = dispatcher;
+        this.backlogHighWaterMark = highWaterMark;
+        return this;
+    }
+
+    /**
+     * Sets the delay the sender is told to wait before retrying a request rejected because of load.
+     *
+     * @param retryAfter the delay, rounded up to whole seconds
+     * @return this filter
+     */
+    public AdmissionFilter setRetryAfter(Duration retryAfter) {
+        this.retryAfter = Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+        return this;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        final @Nullable Reason reason = check(exchange);
+        if (reason != null) {
+            reject(exchange, reason);
+            return;
+        }
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Checks whether to admit the request, reserving a slot for it if so.
+     *
+     * @return the reason to reject the request, or {@code null} to admit it
+     */
+    private @Nullable Reason check(HttpExchange exchange) {
+        if (!requestMethod.equals(exchange.getRequestMethod())) {
+            return Reason.METHOD;
+        }
+
+        // A single pass over the headers; looking each header up by name would normalize (and copy) the name
+        long found = 0;
+        @Nullable String event = null;
+        @Nullable String contentLength = null;
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            final String name = header.getKey();
+            final List<String> values = header.getValue();
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            if (name.equals(CONTENT_LENGTH)) {
+                contentLength = values.get(0);
+            }
+            for (int i = 0; i < requiredHeaders.length; i++) {
+                if (name.equals(requiredHeaders[i])) {
+                    found |= 1L << i;
+                    if (name.equals(eventHeader)) {
+                        event = values.get(0);
+                    }
+                    break;
+                }
+            }
+        }
+        if (found != requiredMask) {
+            return Reason.MISSING_HEADERS;
+        }
+
+        if (maxContentLength != Long.MAX_VALUE) {
+            if (contentLength == null) {
+                return Reason.LENGTH_REQUIRED;
+            }
+            final long length;
+            try {
+                length = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                return Reason.LENGTH_REQUIRED;
+            }
+            if (length > maxContentLength) {
+                return Reason.TOO_LARGE;
+            }
+        }
+
+        if (allowedEvents != null && !allowedEvents.contains(event)) {
+            return Reason.EVENT_NOT_ALLOWED;
+        }
+
+        if (dispatcher != null && dispatcher.getQueueDepth() >= backlogHighWaterMark) {
+            return Reason.BACKLOG;
+        }
+        if (inFlight.incrementAndGet() > maxConcurrentRequests) {
+            inFlight.decrementAndGet();
+            return Reason.TOO_MANY_REQUESTS;
+        }
+        return null;
+    }
+
+    private void reject(HttpExchange exchange, Reason reason) throws IOException {
+        rejections.incrementAndGet(reason.ordinal());
+        if (reason == Reason.TOO_MANY_REQUESTS || reason == Reason.BACKLOG) {
+            exchange.getResponseHeaders().set("Retry-After", retryAfter);
+        }
+        final byte[] response = responses[reason.ordinal()];
+        exchange.sendResponseHeaders(reason.code, response.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(response);
+        }
+    }
+
+    public Statistics statistics() {
+        final long[] counts = new long[rejections.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = rejections.get(i);
+        }
+        return new Statistics(inFlight.get(), counts);
+    }
+
+    @Override
+    public String description() {
+        return "admits " + requestMethod + " requests with the headers " + List.of(requiredHeaders)
+                + (allowedEvents != null ? " for the events " + allowedEvents : "");
+    }
+
+    /**
+     * Normalizes a header name the same way as {@link com.sun.net.httpserver.Headers}: the first character is upper
+     * case, and the rest are lower case.
+     */
+    private static String normalize(String name) {
+        if (name.isEmpty()) {
+            return name;
+        }
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The reasons for rejecting a request.
+     */
+    public enum Reason {
+        METHOD(HttpURLConnection.HTTP_BAD_METHOD),
+        MISSING_HEADERS(HttpURLConnection.HTTP_BAD_REQUEST),
+        LENGTH_REQUIRED(HttpURLConnection.HTTP_LENGTH_REQUIRED),
+        TOO_LARGE(HttpURLConnection.HTTP_ENTITY_TOO_LARGE),
+        EVENT_NOT_ALLOWED(HttpURLConnection.HTTP_BAD_REQUEST),
+        TOO_MANY_REQUESTS(429),
+        BACKLOG(HttpURLConnection.HTTP_UNAVAILABLE);
+
+        private final int code;
+
+        Reason(int code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * A snapshot of the admission statistics.
+     *
+     * @param inFlight   the amount of admitted requests currently being read and parsed
+     * @param rejections the total amount of rejected requests, indexed by the {@linkplain Reason#ordinal() ordinal}
+     *                   of their reason
+     */
+    public record Statistics(int inFlight, long[] rejections) {
+        public long rejections(Reason reason) {
+            return rejections[reason.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder().append(inFlight).append(" in flight, rejected");
+            long total = 0;
+            for (Reason reason : Reason.values()) {
+                final long count = rejections[reason.ordinal()];
+                total += count;
+                if (count > 0) {
+                    builder.append(' ').append(reason.name().toLowerCase(Locale.ROOT)).append(' ')
+                            .append(count).append(',');
+                }
+            }
+            if (total == 0) {
+                builder.append(" none");
+            } else {
+                builder.setLength(builder.length() - 1);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.parchmentmc.nitwit.webhook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.webhook.WebhookHttpHandler.RelayOutcome;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ingests webhook deliveries in bulk, such as stored deliveries backfilled after an outage or forwarded by a relay.
+ *
+ * <p>The request body is newline-delimited JSON, with one delivery per line:</p>
+ * <pre>{"event": "pull_request", "guid": "72d3162e-cc78-11e3-81ab-4c9367dc0958", "payload": {...}}</pre>
+ *
+ * <p>Requests must carry the bulk token as an {@code Authorization: Bearer} header, which takes the place of the
+ * per-delivery signatures. The body is read and dispatched a line at a time as it arrives, so the upload is never
+ * buffered as a whole; when the dispatcher's queue is full, reading waits for room in it. Each delivery goes through
+ * the same event handlers, deduplication and journal as a regular delivery, through
+ * {@link WebhookHttpHandler#acceptRelayed(String, UUID, byte[], int, int)}.</p>
+ *
+ * <p>Once the body is fully read, the response lists how many deliveries had each {@link RelayOutcome}. Lines which
+ * are not valid records are counted as {@linkplain RelayOutcome#INVALID invalid} and skipped, without failing the
+ * rest of the upload.</p>
+ */
+public class BulkWebhookHttpHandler implements HttpHandler {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final int READ_SIZE = 16 * 1024;
+
+    private final WebhookHttpHandler target;
+    private final byte[] token;
+    private final int maxRecordLength;
+    private final AtomicLongArray outcomes = new AtomicLongArray(RelayOutcome.values().length);
+
+    /**
+     * Creates a bulk handler.
+     *
+     * @param target          the webhook handler which accepts the deliveries
+     * @param token           the bearer token which requests must carry
+     * @param maxRecordLength the maximum length of a single line, in bytes
+     */
+    public BulkWebhookHttpHandler(WebhookHttpHandler target, String token, int maxRecordLength) {
+        this.target = target;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            WebhookHttpHandler.sendResponse(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Missing or invalid bulk token.\n");
+            return;
+        }
+
+        final long[] counts = new long[RelayOutcome.values().length];
+        try (InputStream in = exchange.getRequestBody()) {
+            readRecords(in, counts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            WebhookHttpHandler.sendResponse(exchange, HttpURLConnection.HTTP_UNAVAILABLE,
+                    "Interrupted while ingesting deliveries; " + describe(counts) + "\n");
+            return;
+        }
+
+        final String summary = describe(counts);
+        System.out.println("Bulk webhook ingestion: " + summary);
+        WebhookHttpHandler.sendResponse(exchange, HttpURLConnection.HTTP_OK, summary + "\n");
+    }
+
+    private boolean isAuthorized(@Nullable String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return false;
+        }
+        final byte[] given = authorization.substring(BEARER_PREFIX.length()).trim().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(token, given); // Constant time, as this stands in for the signatures
+    }
+
+    /**
+     * Reads the body a line at a time, handing each complete line to {@link #acceptRecord}. Lines longer than the
+     * maximum record length are discarded up to their end, rather than buffered.
+     */
+    private void readRecords(InputStream in, long[] counts) throws IOException, InterruptedException {
+        byte[] buffer = new byte[Math.min(maxRecordLength + 1, READ_SIZE)];
+        int start = 0; // Start of the current line
+        int end = 0; // End of the data in the buffer
+        int scanned = 0; // End of the data already scanned for a newline
+        boolean discarding = false; // Whether skipping the rest of a line which is too long
+        long lineNumber = 1;
+
+        while (true) {
+            // Hand over every complete line in the buffer
+            for (int i = scanned; i < end; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                if (!discarding) {
+                    acceptRecord(buffer, start, i - start, lineNumber, counts);
+                }
+                discarding = false;
+                lineNumber++;
+                start = i + 1;
+            }
+            scanned = end;
+
+            if (discarding) {
+                start = end = scanned = 0;
+            } else if (end - start > maxRecordLength) {
+                System.err.println("Skipping bulk webhook record on line " + lineNumber + ": longer than "
+                        + maxRecordLength + " bytes");
+                counts[RelayOutcome.INVALID.ordinal()]++;
+                discarding = true;
+                start = end = scanned = 0;
+            } else if (end == buffer.length) { // Make room for more of the current line
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    scanned = end;
+                    start = 0;
+                } else {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxRecordLength + 1));
+                }
+            }
+
+            final int read = in.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                break;
+            }
+            end += read;
+        }
+
+        if (!discarding && end > start) { // The last line has no trailing newline
+            acceptRecord(buffer, start, end - start, lineNumber, counts);
+        }
+    }
+
+    private void acceptRecord(byte[] buffer, int offset, int length, long lineNumber, long[] counts)
+            throws InterruptedException {
+        // Skip blank lines, such as a trailing carriage return
+        int trimmed = length;
+        while (trimmed > 0 && Character.isWhitespace(buffer[offset + trimmed - 1])) {
+            trimmed--;
+        }
+        if (trimmed == 0) {
+            return;
+        }
+
+        final RelayOutcome outcome = parseAndAccept(buffer, offset, trimmed, lineNumber);
+        counts[outcome.ordinal()]++;
+        outcomes.incrementAndGet(outcome.ordinal());
+    }
+
+    private RelayOutcome parseAndAccept(byte[] buffer, int offset, int length, long lineNumber)
+            throws InterruptedException {
+        @Nullable String event = null;
+        @Nullable String guid = null;
+        int payloadStart = -1;
+        int payloadEnd = -1;
+
+        // The payload is located rather than bound, and handed to the event handler as a slice of the line
+        try (JsonParser parser = FACTORY.createParser(buffer, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "event" -> event = parser.getValueAsString();
+                    case "guid" -> guid = parser.getValueAsString();
+                    case "payload" -> {
+                        if (value != JsonToken.START_OBJECT) {
+                            throw new IOException("Expected the payload to be a JSON object");
+                        }
+                        payloadStart = (int) parser.getTokenLocation().getByteOffset();
+                        parser.skipChildren();
+                        payloadEnd = (int) parser.getCurrentLocation().getByteOffset();
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Skipping malformed bulk webhook record on line " + lineNumber + ": " + e.getMessage());
+            return RelayOutcome.INVALID;
+        }
+
+        if (event == null || guid == null || payloadStart == -1) {
+            System.err.println("Skipping bulk webhook record on line " + lineNumber
+                    + ": missing the event, guid or payload");
+            return RelayOutcome.INVALID;
+        }
+        final UUID deliveryID;
+        try {
+            deliveryID = UUID.fromString(guid);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipping bulk webhook record on line " + lineNumber + ": invalid guid '" + guid + "'");
+            return RelayOutcome.INVALID;
+        }
+
+        return target.acceptRelayed(event, deliveryID, buffer, offset + payloadStart, payloadEnd - payloadStart);
+    }
+
+    private static String describe(long[] counts) {
+        final StringBuilder builder = new StringBuilder();
+        for (RelayOutcome outcome : RelayOutcome.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(outcome.name().toLowerCase(Locale.ROOT)).append(' ').append(counts[outcome.ordinal()]);
+        }
+        return builder.toString();
+    }
+
+    public Statistics statistics() {
+        final long[] counts = new long[outcomes.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = outcomes.get(i);
+        }
+        return new Statistics(counts);
+    }
+
+    /**
+     * Statistics of a bulk handler.
+     *
+     * @param outcomes the amount of ingested deliveries by their {@link RelayOutcome}, indexed by ordinal
+     */
+    public record Statistics(long[] outcomes) {
+        @Override
+        public String toString() {
+            return describe(outcomes);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.parchmentmc.nitwit.webhook;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, time-windowed set of recently seen delivery IDs, used to short-circuit redelivered webhooks.
+ *
+ * <p>Delivery IDs are stored as their two {@code long} halves in open-addressed tables, split into independently
+ * locked stripes so concurrent server threads rarely contend. Each lookup probes a small, fixed amount of slots; if
+ * none of them are free or expired, the slot closest to expiry is overwritten. The set therefore never grows beyond
+ * its initial capacity, at the cost of possibly forgetting an ID before its window elapses under heavy load.</p>
+ */
+public class DeliveryDeduplicator {
+    private static final int STRIPES = 16;
+    private static final int PROBE_LIMIT = 8;
+
+    private final Stripe[] stripes;
+    private final long windowNanos;
+
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+
+    /**
+     * Creates a deduplicator.
+     *
+     * @param capacity the amount of delivery IDs to remember
+     * @param window   how long to remember each delivery ID for
+     */
+    public DeliveryDeduplicator(int capacity, Duration window) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (window.isNegative() || window.isZero()) throw new IllegalArgumentException("window must be positive: " + window);
+        // Keep the tables at most half full, so probing usually finds a free slot quickly
+        final int slotsPerStripe = Math.max(PROBE_LIMIT, Integer.highestOneBit(Math.max(1, capacity * 2 / STRIPES - 1)) << 1);
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(slotsPerStripe);
+        }
+        this.windowNanos = window.toNanos();
+    }
+
+    /**
+     * Records the given delivery ID, if it has not been seen within the window.
+     *
+     * @param deliveryID the delivery ID
+     * @return {@code true} if the delivery ID was newly recorded, {@code false} if it is a duplicate
+     */
+    public boolean tryRecord(UUID deliveryID) {
+        final long hash = hash(deliveryID);
+        final boolean added = stripes[stripe(hash)].tryRecord(deliveryID.getMostSignificantBits(),
+                deliveryID.getLeastSignificantBits(), (int) hash, System.nanoTime(), windowNanos);
+        (added ? recorded : duplicates).increment();
+        return added;
+    }
+
+    /**
+     * Forgets the given delivery ID, so a later redelivery is processed. This is used when a recorded delivery could
+     * not be accepted after all.
+     *
+     * @param deliveryID the delivery ID
+     */
+    public void forget(UUID deliveryID) {
+        final long hash = hash(deliveryID);
+        stripes[stripe(hash)].forget(deliveryID.getMostSignificantBits(), deliveryID.getLeastSignificantBits(),
+                (int) hash);
+    }
+
+    public Statistics statistics() {
+        return new Statistics(recorded.sum(), duplicates.sum());
+    }
+
+    /**
+     * {@return the hash of the delivery ID} The top bits select the stripe, and the low bits the first slot probed.
+     */
+    static long hash(UUID deliveryID) {
+        long value = deliveryID.getMostSignificantBits() ^ deliveryID.getLeastSignificantBits();
+        // From SplitMix64
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    static int stripe(long hash) {
+        return (int) (hash >>> 60) & (STRIPES - 1);
+    }
+
+    private static final class Stripe {
+        private final int mask;
+        private final long[] mostSigBits;
+        private final long[] leastSigBits;
+        private final long[] expiry;
+        private final boolean[] occupied;
+
+        Stripe(int slots) {
+            this.mask = slots - 1;
+            this.mostSigBits = new long[slots];
+            this.leastSigBits = new long[slots];
+            this.expiry = new long[slots];
+            this.occupied = new boolean[slots];
+        }
+
+        synchronized boolean tryRecord(long msb, long lsb, int hash, long now, long windowNanos) {
+            int candidate = -1;
+            boolean candidateFree = false;
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                final int slot = (hash + i) & mask;
+                if (!occupied[slot] || expiry[slot] - now <= 0) { // Free or expired slot
+                    if (!candidateFree) {
+                        candidate = slot;
+                        candidateFree = true;
+                    }
+                    continue; // A later slot may still hold the ID
+                }
+                if (mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                    return false; // Already seen within the window
+                }
+                // Otherwise, evict the slot closest to expiry
+                if (candidate == -1 || (!candidateFree && expiry[slot] - expiry[candidate] < 0)) {
+                    candidate = slot;
+                }
+            }
+            mostSigBits[candidate] = msb;
+            leastSigBits[candidate] = lsb;
+            expiry[candidate] = now + windowNanos;
+            occupied[candidate] = true;
+            return true;
+        }
+
+        synchronized void forget(long msb, long lsb, int hash) {
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                final int slot = (hash + i) & mask;
+                if (occupied[slot] && mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                    occupied[slot] = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the deduplicator statistics.
+     *
+     * @param recorded   the total amount of delivery IDs recorded as new
+     * @param duplicates the total amount of deliveries short-circuited as duplicates
+     */
+    public record Statistics(long recorded, long duplicates) {
+        @Override
+        public String toString() {
+            return "recorded %s, duplicates %s".formatted(recorded, duplicates);
+        }
+    }
+}
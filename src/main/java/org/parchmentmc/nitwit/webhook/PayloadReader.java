@@ -0,0 +1,23 @@
+package org.parchmentmc.nitwit.webhook;
+
+import java.io.IOException;
+
+/**
+ * Decodes webhook payloads of a single type.
+ *
+ * @param <T> the type of the decoded payloads
+ * @see WebhookPayloads
+ */
+@FunctionalInterface
+public interface PayloadReader<T> {
+    /**
+     * Decodes a payload.
+     *
+     * @param body   the array containing the payload
+     * @param offset the offset of the payload within the array
+     * @param length the length of the payload
+     * @return the decoded payload
+     * @throws IOException if the payload could not be decoded
+     */
+    T read(byte[] body, int offset, int length) throws IOException;
+}
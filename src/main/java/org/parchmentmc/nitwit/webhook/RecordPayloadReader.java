@@ -0,0 +1,188 @@
+package org.parchmentmc.nitwit.webhook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.exc.InputCoercionException;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes payloads into records by streaming over the JSON tokens, matching object properties to record components by
+ * name.
+ *
+ * <p>Any property without a matching component is skipped by the parser without being decoded, so only the declared
+ * fields cost anything beyond tokenizing. Supported component types are strings, primitives and their boxes, nested
+ * records, and lists of any of those. Missing properties leave their component as {@code null}, or the default value
+ * for primitives.</p>
+ *
+ * @param <T> the record type
+ */
+final class RecordPayloadReader<T extends Record> implements PayloadReader<T> {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final RecordDecoder<T> decoder;
+
+    RecordPayloadReader(Class<T> type) {
+        this.decoder = new RecordDecoder<>(type);
+    }
+
+    @Override
+    public T read(byte[] body, int offset, int length) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body, offset, length)) {
+            parser.nextToken();
+            final T value = decoder.decode(parser);
+            if (value == null) {
+                throw new IOException("Payload is null");
+            }
+            return value;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueDecoder {
+        Object decode(JsonParser parser) throws IOException;
+    }
+
+    private static ValueDecoder decoderFor(Type type) {
+        if (type instanceof ParameterizedType parameterized && parameterized.getRawType() == List.class) {
+            final ValueDecoder element = decoderFor(parameterized.getActualTypeArguments()[0]);
+            return parser -> decodeList(parser, element);
+        }
+        if (!(type instanceof Class<?> clazz)) {
+            throw new IllegalArgumentException("Unsupported payload component type: " + type);
+        }
+        if (clazz == String.class) {
+            return scalar(clazz, JsonParser::getValueAsString);
+        } else if (clazz == int.class || clazz == Integer.class) {
+            return scalar(clazz, JsonParser::getValueAsInt);
+        } else if (clazz == long.class || clazz == Long.class) {
+            return scalar(clazz, JsonParser::getValueAsLong);
+        } else if (clazz == boolean.class || clazz == Boolean.class) {
+            return scalar(clazz, JsonParser::getValueAsBoolean);
+        } else if (clazz == double.class || clazz == Double.class) {
+            return scalar(clazz, JsonParser::getValueAsDouble);
+        } else if (clazz.isRecord()) {
+            return new RecordDecoder<>(clazz.asSubclass(Record.class))::decode;
+        }
+        throw new IllegalArgumentException("Unsupported payload component type: " + type);
+    }
+
+    /**
+     * Wraps the decoder of a scalar type, so a structured value fails the decode rather than being read as the
+     * default value of the type, which would leave the parser inside the value.
+     */
+    private static ValueDecoder scalar(Class<?> type, ValueDecoder decoder) {
+        return parser -> {
+            final JsonToken token = parser.currentToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token == null || token.isStructStart()) {
+                throw new InputCoercionException(parser, "Expected " + type.getSimpleName() + ", got " + token, token,
+                        type);
+            }
+            return decoder.decode(parser);
+        };
+    }
+
+    private static Object decodeList(JsonParser parser, ValueDecoder element) throws IOException {
+        final JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new InputCoercionException(parser, "Expected array, got " + token, token, List.class);
+        }
+        final List<Object> list = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            list.add(element.decode(parser));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private static final class RecordDecoder<R extends Record> {
+        private final Class<R> type;
+        private final Constructor<R> constructor;
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final ValueDecoder[] decoders;
+        private final Object[] defaults;
+
+        RecordDecoder(Class<R> type) {
+            this.type = type;
+            final RecordComponent[] components = type.getRecordComponents();
+            final Class<?>[] parameterTypes = new Class<?>[components.length];
+            this.decoders = new ValueDecoder[components.length];
+            this.defaults = new Object[components.length];
+            for (int i = 0; i < components.length; i++) {
+                final RecordComponent component = components[i];
+                parameterTypes[i] = component.getType();
+                indices.put(component.getName(), i);
+                decoders[i] = decoderFor(component.getGenericType());
+                defaults[i] = defaultValue(component.getType());
+            }
+            try {
+                this.constructor = type.getDeclaredConstructor(parameterTypes);
+                this.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("Failed to find canonical constructor of record " + type, e);
+            }
+        }
+
+        R decode(JsonParser parser) throws IOException {
+            final JsonToken token = parser.currentToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new InputCoercionException(parser, "Expected object for " + type.getSimpleName() + ", got "
+                        + token, token, type);
+            }
+
+            final Object[] arguments = defaults.clone();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final Integer index = indices.get(parser.currentName());
+                parser.nextToken();
+                if (index == null) {
+                    parser.skipChildren(); // Not part of the model, so skip over it without decoding
+                    continue;
+                }
+                final Object value = decoders[index].decode(parser);
+                if (value != null) {
+                    arguments[index] = value;
+                }
+            }
+
+            try {
+                return constructor.newInstance(arguments);
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("Failed to construct record " + type, e);
+            } catch (InvocationTargetException e) {
+                throw new IOException("Failed to construct record " + type.getSimpleName(), e.getCause());
+            }
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type == boolean.class) {
+                return false;
+            } else if (type == double.class) {
+                return 0D;
+            }
+            return null;
+        }
+    }
+}
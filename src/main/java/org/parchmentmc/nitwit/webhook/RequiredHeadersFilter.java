@@ -27,9 +27,9 @@ public class RequiredHeadersFilter extends Filter {
 
     @Override
     public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
-        final HashSet<String> missingHeaders = new HashSet<>(requiredHeaders);
-        missingHeaders.removeIf(str -> exchange.getRequestHeaders().containsKey(str));
-        if (!missingHeaders.isEmpty()) { // Missing required headers
+        if (!hasRequiredHeaders(exchange)) { // Missing required headers
+            final HashSet<String> missingHeaders = new HashSet<>(requiredHeaders);
+            missingHeaders.removeIf(str -> exchange.getRequestHeaders().containsKey(str));
             String response = "Missing required headers: " + missingHeaders + "\n";
             exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, response.length());
             try (OutputStream output = exchange.getResponseBody()) {
@@ -41,6 +41,15 @@ public class RequiredHeadersFilter extends Filter {
         chain.doFilter(exchange);
     }
 
+    private boolean hasRequiredHeaders(HttpExchange exchange) {
+        for (String header : requiredHeaders) {
+            if (!exchange.getRequestHeaders().containsKey(header)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public String description() {
         return "requires the following headers: " + requiredHeaders;
@@ -0,0 +1,119 @@
+package org.parchmentmc.nitwit.webhook;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.util.io.MacInputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Verifies the {@code X-Hub-Signature-256} signatures of webhook deliveries.
+ *
+ * <p>Each thread reuses its own pre-keyed {@link Mac}, cloned from a single initialized prototype, along with its own
+ * digest buffers. Verifying a signature therefore allocates nothing, and the digest is compared against the decoded
+ * header in constant time without building hex strings.</p>
+ */
+public class SignatureVerifier {
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final String SIGNATURE_PREFIX = "sha256=";
+    private static final int DIGEST_LENGTH = 32;
+
+    private final SecretKeySpec key;
+    private final Mac prototype;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(this::createState);
+
+    public SignatureVerifier(byte[] secretToken) {
+        try {
+            key = new SecretKeySpec(secretToken, HMAC_SHA256);
+            prototype = Mac.getInstance(HMAC_SHA256);
+            prototype.init(key);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to create mac for SHA-256; should be impossible as it's JDK-mandated to exist", e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException("Failed to initialize mac with key; should be impossible as they both are for SHA-256", e);
+        }
+    }
+
+    /**
+     * Verifies the signature of the given body.
+     *
+     * @param body      the array containing the body
+     * @param offset    the offset of the body within the array
+     * @param length    the length of the body
+     * @param signature the value of the signature header, or {@code null} if missing
+     * @return {@code true} if the signature matches the body
+     */
+    public boolean verify(byte[] body, int offset, int length, @Nullable String signature) {
+        final State state = this.state.get();
+        final Mac mac = state.mac;
+        mac.update(body, offset, length);
+        try {
+            mac.doFinal(state.actual, 0); // Also resets the mac for the next use
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("Digest buffer is too small for SHA-256; should be impossible", e);
+        }
+        return signature != null && decodeSignature(signature, state.expected)
+                && MessageDigest.isEqual(state.expected, state.actual);
+    }
+
+    /**
+     * Computes the signature header value for the given body. This is meant for logging and tooling, and is not used
+     * when verifying deliveries.
+     *
+     * @param body   the array containing the body
+     * @param offset the offset of the body within the array
+     * @param length the length of the body
+     * @return the signature header value
+     */
+    public String sign(byte[] body, int offset, int length) {
+        final Mac mac = state.get().mac;
+        mac.update(body, offset, length);
+        return SIGNATURE_PREFIX + MacInputStream.bytesToHex(mac.doFinal());
+    }
+
+    private State createState() {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            // The provider does not support cloning, so create and key a new instance instead
+            try {
+                mac = Mac.getInstance(HMAC_SHA256, prototype.getProvider());
+                mac.init(key);
+            } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+                throw new IllegalStateException("Failed to create mac for the current thread", ex);
+            }
+        }
+        return new State(mac);
+    }
+
+    private static boolean decodeSignature(String signature, byte[] output) {
+        if (signature.length() != SIGNATURE_PREFIX.length() + DIGEST_LENGTH * 2
+                || !signature.startsWith(SIGNATURE_PREFIX)) {
+            return false;
+        }
+        for (int i = 0, j = SIGNATURE_PREFIX.length(); i < DIGEST_LENGTH; i++, j += 2) {
+            final int high = Character.digit(signature.charAt(j), 16);
+            final int low = Character.digit(signature.charAt(j + 1), 16);
+            if (high == -1 || low == -1) {
+                return false;
+            }
+            output[i] = (byte) ((high << 4) | low);
+        }
+        return true;
+    }
+
+    private static final class State {
+        final Mac mac;
+        final byte[] expected = new byte[DIGEST_LENGTH];
+        final byte[] actual = new byte[DIGEST_LENGTH];
+
+        State(Mac mac) {
+            this.mac = mac;
+        }
+    }
+}
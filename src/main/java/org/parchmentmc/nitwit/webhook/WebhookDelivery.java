@@ -0,0 +1,57 @@
+package org.parchmentmc.nitwit.webhook;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.webhook.events.WebhookEvent;
+import org.parchmentmc.nitwit.webhook.journal.DeliveryJournal;
+
+import java.util.UUID;
+
+/**
+ * A verified and parsed webhook delivery, waiting to be handled by its event handler.
+ *
+ * @param deliveryID      the GUID of the delivery
+ * @param handler         the handler for the delivery's event
+ * @param event           the parsed event payload
+ * @param acceptedNanos   the {@link System#nanoTime()} when the delivery was accepted
+ * @param journal         the journal which recorded the delivery, or {@code null} if it is not journaled
+ * @param journalPosition the position of the delivery in the journal
+ * @param <T>             the type of the event payload
+ */
+public record WebhookDelivery<T extends WebhookEvent>(UUID deliveryID, WebhookEventHandler<T> handler, T event,
+                                                      long acceptedNanos, @Nullable DeliveryJournal journal,
+                                                      long journalPosition) {
+    public WebhookDelivery(UUID deliveryID, WebhookEventHandler<T> handler, T event,
+                           @Nullable DeliveryJournal journal, long journalPosition) {
+        this(deliveryID, handler, event, System.nanoTime(), journal, journalPosition);
+    }
+
+    public WebhookDelivery(UUID deliveryID, WebhookEventHandler<T> handler, T event) {
+        this(deliveryID, handler, event, null, -1);
+    }
+
+    /**
+     * Handles this delivery, marking it as completed in the journal if the handler returns normally.
+     */
+    public void handle() {
+        try {
+            handler.handleEvent(deliveryID, event);
+        } catch (RuntimeException | Error e) {
+            if (journal != null) { // Leave it pending, to be retried on the next replay
+                journal.release(journalPosition);
+            }
+            throw e;
+        }
+        if (journal != null) {
+            journal.complete(journalPosition);
+        }
+    }
+
+    /**
+     * Skips this delivery without handling it, marking it as completed in the journal.
+     */
+    public void skip() {
+        if (journal != null) {
+            journal.complete(journalPosition);
+        }
+    }
+}
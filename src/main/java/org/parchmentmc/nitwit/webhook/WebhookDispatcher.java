@@ -0,0 +1,293 @@
+package org.parchmentmc.nitwit.webhook;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.parchmentmc.nitwit.webhook.events.WebhookEvent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatches accepted webhook deliveries onto a bounded queue, which is drained by a fixed pool of worker threads.
+ *
+ * <p>This decouples the (potentially slow) event handlers from the HTTP server threads, so a delivery can be
+ * acknowledged as soon as it has been verified and parsed.</p>
+ *
+ * <p>Deliveries whose events have an {@linkplain WebhookEvent#orderingKey() ordering key} are queued into a lane per
+ * key. Each lane is drained by at most one worker at a time, so events for the same key (such as the same pull
+ * request) are handled one at a time in the order they were received, while different keys are handled in parallel.
+ * A delivery whose event is a snapshot {@linkplain WebhookEvent#updatedAt() updated} before the last handled snapshot
+ * of its key is stale, and is skipped; events describing a change are never skipped.</p>
+ */
+public class WebhookDispatcher {
+    /**
+     * The amount of ordering keys whose last update time is remembered before pruning.
+     */
+    private static final int WATERMARK_CAPACITY = 4096;
+    /**
+     * How long the last update time of an ordering key is remembered for when pruning.
+     */
+    private static final Duration WATERMARK_RETENTION = Duration.ofDays(1);
+
+    private final int workers;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+    /**
+     * Bounds the amount of deliveries either waiting for or being handled by a worker. This is used rather than a
+     * bounded queue so replaying deliveries can wait for room, while live deliveries are rejected immediately.
+     */
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<Object, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<Object, Instant> watermarks = new ConcurrentHashMap<>();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder queueLatencyNanos = new LongAdder();
+    private final LongAccumulator maxQueueLatencyNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder busyNanos = new LongAdder();
+
+    public WebhookDispatcher(int workers, int queueCapacity) {
+        if (workers < 1) throw new IllegalArgumentException("workers must be positive: " + workers);
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.permits = new Semaphore(workers + queueCapacity);
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), namedThreadFactory("webhook-dispatch-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Enqueues the given delivery to be handled by a worker thread.
+     *
+     * @param delivery the delivery to handle
+     * @return {@code true} if the delivery was enqueued, {@code false} if the queue is full or the dispatcher is shut
+     * down
+     */
+    public boolean dispatch(WebhookDelivery<?> delivery) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return false;
+        }
+        return execute(delivery);
+    }
+
+    /**
+     * Enqueues the given delivery to be handled by a worker thread, waiting for room in the queue if it is full.
+     *
+     * @param delivery the delivery to handle
+     * @return {@code true} if the delivery was enqueued, {@code false} if the dispatcher is shut down
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public boolean dispatchAndWait(WebhookDelivery<?> delivery) throws InterruptedException {
+        permits.acquire();
+        return execute(delivery);
+    }
+
+    private boolean execute(WebhookDelivery<?> delivery) {
+        final @Nullable Object key = delivery.event().orderingKey();
+        try {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Dispatcher is shut down");
+            }
+            queued.incrementAndGet();
+            if (key == null) {
+                executor.execute(() -> run(delivery));
+            } else {
+                enqueue(key, delivery);
+            }
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            permits.release();
+            rejected.increment();
+            return false;
+        }
+        dispatched.increment();
+        return true;
+    }
+
+    private void enqueue(Object key, WebhookDelivery<?> delivery) {
+        final boolean[] created = {false};
+        final Lane lane = lanes.compute(key, (k, existing) -> {
+            final Lane result = existing != null ? existing : new Lane(k);
+            created[0] = existing == null;
+            result.deliveries.add(delivery);
+            return result;
+        });
+        if (created[0]) { // Only a new lane needs a worker; an existing lane is already being drained
+            try {
+                executor.execute(lane);
+            } catch (RejectedExecutionException e) {
+                lanes.remove(key, lane);
+                throw e;
+            }
+        }
+    }
+
+    private void runOrdered(Object key, WebhookDelivery<?> delivery) {
+        final @Nullable Instant updatedAt = delivery.event().updatedAt();
+        if (updatedAt != null) {
+            final @Nullable Instant last = watermarks.get(key);
+            if (last != null && updatedAt.isBefore(last)) {
+                // A newer event for the same key was already handled, so this one would undo its changes
+                queued.decrementAndGet();
+                stale.increment();
+                try {
+                    delivery.skip();
+                } finally {
+                    permits.release();
+                }
+                return;
+            }
+            watermarks.put(key, updatedAt);
+            if (watermarks.size() > WATERMARK_CAPACITY && pruning.compareAndSet(false, true)) {
+                try {
+                    final Instant cutoff = updatedAt.minus(WATERMARK_RETENTION);
+                    watermarks.values().removeIf(time -> time.isBefore(cutoff));
+                } finally {
+                    pruning.set(false);
+                }
+            }
+        }
+        run(delivery);
+    }
+
+    private void run(WebhookDelivery<?> delivery) {
+        queued.decrementAndGet();
+        final long start = System.nanoTime();
+        final long waited = start - delivery.acceptedNanos();
+        queueLatencyNanos.add(waited);
+        maxQueueLatencyNanos.accumulate(waited);
+        try {
+            delivery.handle();
+            handled.increment();
+        } catch (Exception e) {
+            failed.increment();
+            System.err.println("Error while handling '" + delivery.handler().getEventName() + "' event, delivery ID: "
+                    + delivery.deliveryID());
+            e.printStackTrace();
+        } finally {
+            busyNanos.add(System.nanoTime() - start);
+            permits.release();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Takes a snapshot of the statistics of this dispatcher. The maximum queue latency is reset by this call, so it
+     * reflects the worst latency since the previous snapshot.
+     *
+     * @return a snapshot of the dispatcher statistics
+     */
+    public Statistics statistics() {
+        final long handledCount = handled.sum() + failed.sum();
+        final long elapsed = System.nanoTime() - startNanos;
+        return new Statistics(getQueueDepth(), queueCapacity, executor.getActiveCount(), workers, lanes.size(),
+                dispatched.sum(), rejected.sum(), handledCount, failed.sum(), stale.sum(),
+                handledCount == 0 ? 0 : queueLatencyNanos.sum() / handledCount,
+                maxQueueLatencyNanos.getThenReset(),
+                elapsed <= 0 ? 0 : (double) busyNanos.sum() / ((double) elapsed * workers));
+    }
+
+    /**
+     * Stops accepting new deliveries, and waits for the already accepted deliveries to be handled.
+     *
+     * @param timeout the maximum time to wait
+     * @return {@code true} if all deliveries were handled before the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A serial queue of deliveries sharing an ordering key. The lane is removed once it has been drained, and any
+     * access to its deliveries happens while computing its entry in the map of lanes.
+     */
+    private final class Lane implements Runnable {
+        private final Object key;
+        private final ArrayDeque<WebhookDelivery<?>> deliveries = new ArrayDeque<>();
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            @Nullable WebhookDelivery<?> delivery;
+            while ((delivery = poll()) != null) {
+                runOrdered(key, delivery);
+            }
+        }
+
+        private @Nullable WebhookDelivery<?> poll() {
+            final Object[] next = new Object[1];
+            lanes.computeIfPresent(key, (k, lane) -> {
+                next[0] = lane.deliveries.poll();
+                return next[0] != null ? lane : null; // Remove the lane once drained
+            });
+            return (WebhookDelivery<?>) next[0];
+        }
+    }
+
+    static ThreadFactory namedThreadFactory(String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A snapshot of the dispatcher statistics.
+     *
+     * @param queueDepth              the amount of deliveries waiting for a worker
+     * @param queueCapacity           the maximum amount of deliveries which may wait for a worker
+     * @param activeWorkers           the amount of workers currently handling a delivery
+     * @param workers                 the total amount of workers
+     * @param lanes                   the amount of ordering keys with deliveries waiting for or being handled
+     * @param dispatched              the total amount of deliveries accepted into the queue
+     * @param rejected                the total amount of deliveries rejected because of a full queue
+     * @param handled                 the total amount of deliveries handled, including failures
+     * @param failed                  the total amount of deliveries whose handler threw an exception
+     * @param stale                   the total amount of deliveries skipped for being older than an already handled
+     *                                delivery with the same ordering key
+     * @param meanQueueLatencyNanos   the mean time between accepting a delivery and starting to handle it
+     * @param maxQueueLatencyNanos    the maximum time between accepting a delivery and starting to handle it, since
+     *                                the previous snapshot
+     * @param utilisation             the fraction of worker time spent handling deliveries
+     */
+    public record Statistics(int queueDepth, int queueCapacity, int activeWorkers, int workers, int lanes,
+                             long dispatched, long rejected, long handled, long failed, long stale,
+                             long meanQueueLatencyNanos, long maxQueueLatencyNanos, double utilisation) {
+        @Override
+        public String toString() {
+            return "queue %s/%s, workers %s/%s active (%.1f%% utilised), %s ordered lanes, dispatched %s, rejected %s, handled %s (%s failed), %s stale, queue latency mean %.2fms, max %.2fms"
+                    .formatted(queueDepth, queueCapacity, activeWorkers, workers, utilisation * 100, lanes, dispatched,
+                            rejected, handled, failed, stale, meanQueueLatencyNanos / 1e6, maxQueueLatencyNanos / 1e6);
+        }
+    }
+}
@@ -2,15 +2,30 @@ package org.parchmentmc.nitwit.webhook;
 
 import org.parchmentmc.nitwit.webhook.events.WebhookEvent;
 
+import java.io.IOException;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public abstract class WebhookEventHandler<T extends WebhookEvent> {
     private final String eventName;
     private final Class<T> eventClass;
+    private final PayloadReader<T> reader;
 
-    public WebhookEventHandler(String eventName, Class<T> eventClass) {
+    /**
+     * Creates an event handler whose payloads are decoded using the given reader.
+     *
+     * @param eventName  the name of the event
+     * @param eventClass the payload class
+     * @param reader     the reader for the payload class, usually from {@link WebhookPayloads}
+     */
+    protected WebhookEventHandler(String eventName, Class<T> eventClass, PayloadReader<T> reader) {
         this.eventName = eventName;
         this.eventClass = eventClass;
+        this.reader = reader;
+    }
+
+    public WebhookEventHandler(String eventName, Class<T> eventClass) {
+        this(eventName, eventClass, WebhookPayloads.fullReader(eventClass));
     }
 
     public String getEventName() {
@@ -21,5 +36,38 @@ public abstract class WebhookEventHandler<T extends WebhookEvent> {
         return eventClass;
     }
 
+    /**
+     * Decodes the payload of a delivery of this event.
+     *
+     * @param body   the array containing the payload
+     * @param offset the offset of the payload within the array
+     * @param length the length of the payload
+     * @return the decoded payload
+     * @throws IOException if the payload could not be decoded
+     */
+    public T parse(byte[] body, int offset, int length) throws IOException {
+        return reader.read(body, offset, length);
+    }
+
     public abstract void handleEvent(UUID deliveryID, T event);
+
+    /**
+     * Creates an event handler which passes each event to the given consumer. Its payloads are decoded with the
+     * {@linkplain WebhookPayloads#slimReader(Class) slim reader}, as only the components of the event record are read.
+     *
+     * @param eventName  the name of the event
+     * @param eventClass the payload class
+     * @param consumer   the consumer of the events
+     * @param <E>        the type of the payload
+     * @return the event handler
+     */
+    public static <E extends Record & WebhookEvent> WebhookEventHandler<E> of(String eventName, Class<E> eventClass,
+                                                                               Consumer<E> consumer) {
+        return new WebhookEventHandler<>(eventName, eventClass, WebhookPayloads.slimReader(eventClass)) {
+            @Override
+            public void handleEvent(UUID deliveryID, E event) {
+                consumer.accept(event);
+            }
+        };
+    }
 }
@@ -3,23 +3,18 @@ package org.parchmentmc.nitwit.webhook;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.kohsuke.github.GitHub;
-import org.parchmentmc.nitwit.util.LambdaUtil;
-import org.parchmentmc.nitwit.util.io.CallbackInputStream;
-import org.parchmentmc.nitwit.util.io.MacInputStream;
+import org.parchmentmc.nitwit.util.io.BodyBuffer;
 import org.parchmentmc.nitwit.webhook.events.WebhookEvent;
+import org.parchmentmc.nitwit.webhook.journal.DeliveryJournal;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 // https://docs.github.com/en/developers/webhooks-and-events/webhooks/webhook-events-and-payloads#webhook-payload-object-common-properties
@@ -28,19 +23,59 @@ public class WebhookHttpHandler implements HttpHandler {
     public static final String GITHUB_EVENT_HEADER = "X-GitHub-Event";
     public static final String GITHUB_SIGNATURE_HEADER = "X-Hub-Signature-256";
 
-    private final byte @Nullable [] secretToken;
+    private final @Nullable SignatureVerifier signatureVerifier;
     private final boolean errorOnSignatureMismatch;
+    private final @Nullable WebhookDispatcher dispatcher;
+    private @Nullable DeliveryDeduplicator deduplicator = null;
+    private @Nullable DeliveryJournal journal = null;
     private final Map<String, WebhookEventHandler<?>> eventHandlers = new HashMap<>();
 
-    public WebhookHttpHandler(byte @Nullable [] secretToken, boolean errorOnSignatureMismatch) {
-        this.secretToken = secretToken;
+    /**
+     * Creates a webhook handler.
+     *
+     * @param secretToken              the secret token for validating delivery signatures, or {@code null} to skip
+     *                                 validation
+     * @param errorOnSignatureMismatch whether to reject deliveries whose signatures do not match
+     * @param dispatcher               the dispatcher which handles accepted deliveries asynchronously, or {@code null}
+     *                                 to handle them on the HTTP server thread before responding
+     */
+    public WebhookHttpHandler(byte @Nullable [] secretToken, boolean errorOnSignatureMismatch,
+                              @Nullable WebhookDispatcher dispatcher) {
+        this.signatureVerifier = secretToken != null ? new SignatureVerifier(secretToken) : null;
         this.errorOnSignatureMismatch = errorOnSignatureMismatch;
+        this.dispatcher = dispatcher;
+    }
+
+    public WebhookHttpHandler(byte @Nullable [] secretToken, boolean errorOnSignatureMismatch) {
+        this(secretToken, errorOnSignatureMismatch, null);
     }
 
     public WebhookHttpHandler() {
         this(null, false);
     }
 
+    /**
+     * Sets the deduplicator used to short-circuit redeliveries of already accepted deliveries.
+     *
+     * @param deduplicator the deduplicator, or {@code null} to process every delivery
+     * @return this handler
+     */
+    public WebhookHttpHandler setDeduplicator(@Nullable DeliveryDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+        return this;
+    }
+
+    /**
+     * Sets the journal which records accepted deliveries before they are handled.
+     *
+     * @param journal the journal, or {@code null} to not record deliveries
+     * @return this handler
+     */
+    public WebhookHttpHandler setJournal(@Nullable DeliveryJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
     public WebhookHttpHandler addHandler(WebhookEventHandler<?> eventHandler) {
         if (eventHandlers.containsKey(eventHandler.getEventName())) {
             throw new IllegalArgumentException("Handler for event '" + eventHandler.getEventName() + "' is already set");
@@ -63,88 +98,304 @@ public class WebhookHttpHandler implements HttpHandler {
         return this;
     }
 
+    /**
+     * {@return the names of the events which have a handler}
+     */
+    public Set<String> getEventNames() {
+        return Set.copyOf(eventHandlers.keySet());
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        validateSignatures(exchange);
-
         final @Nullable String event = exchange.getRequestHeaders().getFirst(GITHUB_EVENT_HEADER);
         if (event == null) {
-            String response = "Missing " + GITHUB_EVENT_HEADER + " request header.\n";
-            exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, response.length());
-            try (OutputStream output = exchange.getResponseBody()) {
-                output.write(response.getBytes(StandardCharsets.UTF_8));
-            }
+            sendResponse(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "Missing " + GITHUB_EVENT_HEADER + " request header.\n");
             return;
         }
 
         final @Nullable String guid = exchange.getRequestHeaders().getFirst(GITHUB_DELIVERY_GUID_HEADER);
         if (guid == null) {
-            String response = "Missing " + GITHUB_DELIVERY_GUID_HEADER + " request header.\n";
-            exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, response.length());
-            try (OutputStream output = exchange.getResponseBody()) {
-                output.write(response.getBytes(StandardCharsets.UTF_8));
-            }
+            sendResponse(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "Missing " + GITHUB_DELIVERY_GUID_HEADER + " request header.\n");
             return;
         }
         final UUID deliveryID = UUID.fromString(guid);
 
         final @Nullable WebhookEventHandler<?> handler = eventHandlers.get(event);
         if (handler == null) {
-            String response = "This webhook handler does not recognize '" + event + "' events.\n";
-            exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, response.length());
-            try (OutputStream output = exchange.getResponseBody()) {
-                output.write(response.getBytes(StandardCharsets.UTF_8));
-            }
+            sendResponse(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "This webhook handler does not recognize '" + event + "' events.\n");
+            return;
+        }
+
+        if (deduplicator == null) {
+            doHandle(exchange, deliveryID, handler);
             return;
         }
 
-        doHandle(exchange, deliveryID, handler);
+        if (!deduplicator.tryRecord(deliveryID)) {
+            // Already accepted this delivery, so skip reading the body entirely
+            sendResponse(exchange, HttpURLConnection.HTTP_OK, "Delivery already accepted.\n");
+            return;
+        }
+        boolean accepted = false;
+        try {
+            accepted = doHandle(exchange, deliveryID, handler);
+        } finally {
+            if (!accepted) { // Let a redelivery through, as this one did not make it
+                deduplicator.forget(deliveryID);
+            }
+        }
     }
 
-    private <T extends WebhookEvent> void doHandle(HttpExchange exchange, UUID deliveryID, WebhookEventHandler<T> handler) throws IOException {
-        try (InputStream inputStream = exchange.getRequestBody()) {
-            final T eventPayload = GitHub.getMappingObjectReader().readValue(inputStream, handler.getEventClass());
+    private <T extends WebhookEvent> boolean doHandle(HttpExchange exchange, UUID deliveryID, WebhookEventHandler<T> handler) throws IOException {
+        final T eventPayload;
+        long journalPosition = -1;
+        final BodyBuffer body = BodyBuffer.local();
+        try {
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                body.readFrom(inputStream, getContentLength(exchange));
+            }
+
+            // Verify the signature before handing the body to the parser
+            if (signatureVerifier != null) {
+                final @Nullable String expected = exchange.getRequestHeaders().getFirst(GITHUB_SIGNATURE_HEADER);
+                if (!signatureVerifier.verify(body.array(), 0, body.length(), expected)) {
+                    final String actual = signatureVerifier.sign(body.array(), 0, body.length());
+                    System.err.printf("Signatures do not match: expected '%s', actual '%s'%n", expected, actual);
+                    if (errorOnSignatureMismatch) {
+                        sendResponse(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Signatures do not match.\n");
+                        return false;
+                    }
+                }
+            }
+
+            eventPayload = handler.parse(body.array(), 0, body.length());
 
-            if (inputStream.available() > 0) {
-                // Data remains, read it all now (so if validating, it reaches end of stream)
-                // We dump it as we don't care about it
-                System.err.println("Bytes remaining after reading event payload: " + inputStream.available());
-                inputStream.transferTo(OutputStream.nullOutputStream());
+            // Record the delivery before dispatching it, so it survives the process dying before it is handled
+            if (journal != null) {
+                try {
+                    journalPosition = journal.append(handler.getEventName(), deliveryID, body.array(), 0, body.length());
+                } catch (IOException e) {
+                    System.err.println("Failed to record delivery in journal, delivery ID: " + deliveryID);
+                    e.printStackTrace();
+                    sendResponse(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "Failed to record delivery.\n");
+                    return false;
+                }
             }
+        } finally {
+            body.release();
+        }
 
-            handler.handleEvent(deliveryID, eventPayload);
+        final WebhookDelivery<T> delivery = new WebhookDelivery<>(deliveryID, handler, eventPayload, journal, journalPosition);
+        if (dispatcher == null) { // No dispatcher, so handle it now
+            delivery.handle();
+            sendResponse(exchange, HttpURLConnection.HTTP_OK, "Delivery handled.\n");
+        } else if (dispatcher.dispatch(delivery)) {
+            sendResponse(exchange, HttpURLConnection.HTTP_ACCEPTED, "Delivery accepted.\n");
+        } else {
+            if (journal != null) { // The sender is told to retry, so don't replay this one as well
+                journal.complete(journalPosition);
+            }
+            sendResponse(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "Delivery queue is full, try again later.\n");
+            return false;
         }
+        return true;
     }
 
-    private static final String HMAC_SHA256 = "HmacSHA256";
+    /**
+     * Accepts a delivery which did not arrive as its own request, such as one relayed or backfilled in bulk. The
+     * delivery goes through the same deduplication, journal and dispatcher as a regular delivery, but its signature
+     * is not verified, as the caller has already authenticated its source. If the dispatcher's queue is full, this
+     * waits for room rather than rejecting the delivery.
+     *
+     * @param event      the name of the event
+     * @param deliveryID the GUID of the delivery
+     * @param payload    the array containing the payload
+     * @param offset     the offset of the payload within the array
+     * @param length     the length of the payload
+     * @return the outcome for the delivery
+     * @throws InterruptedException if interrupted while waiting for room in the dispatcher's queue
+     */
+    public RelayOutcome acceptRelayed(String event, UUID deliveryID, byte[] payload, int offset, int length)
+            throws InterruptedException {
+        final @Nullable WebhookEventHandler<?> handler = eventHandlers.get(event);
+        if (handler == null) {
+            return RelayOutcome.UNKNOWN_EVENT;
+        }
+        if (deduplicator == null) {
+            return doAcceptRelayed(deliveryID, handler, payload, offset, length);
+        }
 
-    private void validateSignatures(HttpExchange exchange) throws IOException {
-        if (secretToken != null) { // Validate signatures
-            Mac mac;
+        if (!deduplicator.tryRecord(deliveryID)) {
+            return RelayOutcome.DUPLICATE;
+        }
+        RelayOutcome outcome = RelayOutcome.FAILED;
+        try {
+            outcome = doAcceptRelayed(deliveryID, handler, payload, offset, length);
+        } finally {
+            if (outcome != RelayOutcome.ACCEPTED) { // Let a redelivery through, as this one did not make it
+                deduplicator.forget(deliveryID);
+            }
+        }
+        return outcome;
+    }
+
+    private <T extends WebhookEvent> RelayOutcome doAcceptRelayed(UUID deliveryID, WebhookEventHandler<T> handler,
+                                                                  byte[] payload, int offset, int length)
+            throws InterruptedException {
+        final T eventPayload;
+        try {
+            eventPayload = handler.parse(payload, offset, length);
+        } catch (IOException e) {
+            System.err.println("Failed to parse relayed '" + handler.getEventName() + "' event, delivery ID: "
+                    + deliveryID);
+            e.printStackTrace();
+            return RelayOutcome.INVALID;
+        }
+
+        long journalPosition = -1;
+        if (journal != null) {
             try {
-                mac = Mac.getInstance(HMAC_SHA256);
-                mac.init(new SecretKeySpec(secretToken, HMAC_SHA256));
-            } catch (NoSuchAlgorithmException e) {
-                throw new IOException("Failed to create mac for SHA-256; should be impossible as it's JDK-mandated to exist", e);
-            } catch (InvalidKeyException e) {
-                throw new IOException("Failed to initialize mac with key; should be impossible as they both are for SHA-256", e);
+                journalPosition = journal.append(handler.getEventName(), deliveryID, payload, offset, length);
+            } catch (IOException e) {
+                System.err.println("Failed to record relayed delivery in journal, delivery ID: " + deliveryID);
+                e.printStackTrace();
+                return RelayOutcome.FAILED;
             }
+        }
+
+        final WebhookDelivery<T> delivery = new WebhookDelivery<>(deliveryID, handler, eventPayload, journal, journalPosition);
+        if (dispatcher == null) {
+            delivery.handle();
+        } else if (!dispatcher.dispatchAndWait(delivery)) {
+            if (journal != null) { // The sender is told it failed, so don't replay this one as well
+                journal.complete(journalPosition);
+            }
+            return RelayOutcome.FAILED;
+        }
+        return RelayOutcome.ACCEPTED;
+    }
 
-            final String ghSignature = exchange.getRequestHeaders().getFirst(GITHUB_SIGNATURE_HEADER);
-            exchange.setStreams(
-                    new CallbackInputStream<>(new MacInputStream(mac, exchange.getRequestBody()),
-                            LambdaUtil.rethrowConsumer((MacInputStream in) -> compareSignatures(in, ghSignature))),
-                    exchange.getResponseBody());
+    /**
+     * The outcome of {@linkplain #acceptRelayed(String, UUID, byte[], int, int) accepting a relayed delivery}.
+     */
+    public enum RelayOutcome {
+        /**
+         * The delivery was accepted for handling.
+         */
+        ACCEPTED,
+        /**
+         * The delivery was already accepted before, and was skipped.
+         */
+        DUPLICATE,
+        /**
+         * There is no handler for the event of the delivery.
+         */
+        UNKNOWN_EVENT,
+        /**
+         * The payload of the delivery could not be decoded.
+         */
+        INVALID,
+        /**
+         * The delivery could not be recorded in the journal or dispatched.
+         */
+        FAILED
+    }
+
+    /**
+     * Replays the entries of the given journal through the event handlers. Replayed deliveries skip signature
+     * verification (as they were verified before being recorded), and are dispatched as fast as the dispatcher's
+     * workers can handle them.
+     *
+     * @param journal          the journal to replay
+     * @param includeCompleted whether to also replay completed entries, rather than only pending entries
+     * @return the amount of entries replayed
+     * @throws InterruptedException if interrupted while waiting for room in the dispatcher's queue
+     */
+    public int replayJournal(DeliveryJournal journal, boolean includeCompleted) throws InterruptedException {
+        try {
+            return journal.replay(includeCompleted, entry -> {
+                try {
+                    replay(journal, entry);
+                } catch (InterruptedException e) {
+                    throw new ReplayInterruptedException(e);
+                }
+            });
+        } catch (ReplayInterruptedException e) {
+            throw e.getCause();
         }
     }
 
-    private void compareSignatures(MacInputStream inputStream, String expected) throws IOException {
-        String actual = "sha256=" + MacInputStream.bytesToHex(inputStream.getMac().doFinal());
-        if (!actual.equals(expected)) {
-            System.err.printf("Signatures do not match: expected '%s', actual '%s'%n", expected, actual);
-            if (errorOnSignatureMismatch) {
-                throw new IOException("Signatures do not match: expected '" + expected + "', actual '" + actual + "'");
+    private void replay(DeliveryJournal journal, DeliveryJournal.Entry entry) throws InterruptedException {
+        final @Nullable WebhookEventHandler<?> handler = eventHandlers.get(entry.event());
+        if (handler == null) {
+            System.err.println("Skipping journaled '" + entry.event() + "' event without a handler, delivery ID: "
+                    + entry.deliveryID());
+            journal.complete(entry.position());
+            return;
+        }
+        final @Nullable WebhookDelivery<?> delivery = parseEntry(journal, entry, handler);
+        if (delivery == null) {
+            journal.complete(entry.position());
+            return;
+        }
+
+        if (deduplicator != null) { // Skip redeliveries of this delivery which arrive while replaying
+            deduplicator.tryRecord(entry.deliveryID());
+        }
+        if (dispatcher == null) {
+            try {
+                delivery.handle();
+            } catch (Exception e) {
+                System.err.println("Error while handling journaled '" + entry.event() + "' event, delivery ID: "
+                        + entry.deliveryID());
+                e.printStackTrace();
+            }
+        } else if (!dispatcher.dispatchAndWait(delivery)) {
+            journal.release(entry.position());
+        }
+    }
+
+    private static <T extends WebhookEvent> @Nullable WebhookDelivery<T> parseEntry(DeliveryJournal journal,
+                                                                                  DeliveryJournal.Entry entry,
+                                                                                  WebhookEventHandler<T> handler) {
+        try {
+            final T eventPayload = handler.parse(entry.payload(), 0, entry.payload().length);
+            return new WebhookDelivery<>(entry.deliveryID(), handler, eventPayload, journal, entry.position());
+        } catch (IOException e) {
+            System.err.println("Failed to parse journaled '" + entry.event() + "' event, delivery ID: "
+                    + entry.deliveryID());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static final class ReplayInterruptedException extends RuntimeException {
+        ReplayInterruptedException(InterruptedException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized InterruptedException getCause() {
+            return (InterruptedException) super.getCause();
+        }
+    }
+
+    static void sendResponse(HttpExchange exchange, int code, String response) throws IOException {
+        final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    static long getContentLength(HttpExchange exchange) {
+        final @Nullable String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength);
+            } catch (NumberFormatException ignored) {
             }
         }
+        return -1;
     }
 }
@@ -0,0 +1,58 @@
+package org.parchmentmc.nitwit.webhook;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.kohsuke.github.GitHub;
+
+/**
+ * Provides the cached readers used to decode webhook payloads.
+ *
+ * <p>Payloads may be decoded in one of two ways:</p>
+ * <ul>
+ *     <li>Full, using the mapper from the GitHub API library, which binds the payload into complete
+ *     {@code GHRepository}/{@code GHUser}/etc. object graphs.</li>
+ *     <li>Slim, which streams the payload into a compact record-based model. Any property not declared by the model is
+ *     skipped over by the parser, without building objects for it or its children.</li>
+ * </ul>
+ * <p>Readers are created once per payload class and reused for every delivery.</p>
+ */
+public final class WebhookPayloads {
+    private WebhookPayloads() { // Prevent instantiation
+    }
+
+    private static final ClassValue<PayloadReader<?>> FULL_READERS = new ClassValue<>() {
+        @Override
+        protected PayloadReader<?> computeValue(Class<?> type) {
+            final ObjectReader reader = GitHub.getMappingObjectReader().forType(type);
+            return reader::readValue;
+        }
+    };
+
+    private static final ClassValue<PayloadReader<?>> SLIM_READERS = new ClassValue<>() {
+        @Override
+        protected PayloadReader<?> computeValue(Class<?> type) {
+            return new RecordPayloadReader<>(type.asSubclass(Record.class));
+        }
+    };
+
+    /**
+     * {@return the reader which binds payloads into the full GitHub API library object graphs}
+     *
+     * @param type the payload class
+     * @param <T>  the payload type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PayloadReader<T> fullReader(Class<T> type) {
+        return (PayloadReader<T>) FULL_READERS.get(type);
+    }
+
+    /**
+     * {@return the reader which streams payloads into a compact record-based model, skipping undeclared properties}
+     *
+     * @param type the payload record class
+     * @param <T>  the payload type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Record> PayloadReader<T> slimReader(Class<T> type) {
+        return (PayloadReader<T>) SLIM_READERS.get(type);
+    }
+}
@@ -0,0 +1,26 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compact model of the {@code check_suite} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action      the action which was performed, either {@code completed}, {@code requested} or
+ *                    {@code rerequested}
+ * @param check_suite the check suite itself
+ * @param repository  the repository of the check suite
+ * @param sender      the user who triggered the event
+ */
+public record CheckSuiteEvent(String action, CheckSuite check_suite, RepositoryInfo repository,
+                              UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "check_suite";
+
+    /**
+     * @param id         the database ID of the check suite
+     * @param head_sha   the SHA of the commit which the check suite runs on
+     * @param status     the status of the check suite, either {@code queued}, {@code in_progress} or {@code completed}
+     * @param conclusion the conclusion of the check suite once completed, such as {@code success} or {@code failure}
+     */
+    public record CheckSuite(long id, String head_sha, String status, @Nullable String conclusion) {
+    }
+}
@@ -0,0 +1,20 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of the {@code member} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action     the action which was performed: {@code added}, {@code edited} (for a change of permission) or
+ *                   {@code removed}
+ * @param member     the user who was added, edited or removed as a collaborator
+ * @param repository the repository
+ * @param sender     the user who triggered the event
+ */
+public record MemberEvent(String action, UserInfo member, RepositoryInfo repository,
+                          UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "member";
+
+    @Override
+    public String orderingKey() {
+        return repository.full_name();
+    }
+}
@@ -0,0 +1,28 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of the {@code membership} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action       the action which was performed, either {@code added} or {@code removed}
+ * @param scope        the scope of the membership, which is {@code team}
+ * @param member       the user whose team membership changed
+ * @param team         the team
+ * @param organization the organization of the team
+ * @param sender       the user who triggered the event
+ */
+public record MembershipEvent(String action, String scope, UserInfo member, Team team, UserInfo organization,
+                              UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "membership";
+
+    @Override
+    public String orderingKey() {
+        return organization.login() + '/' + team.slug();
+    }
+
+    /**
+     * @param slug the slug of the team
+     * @param name the name of the team
+     */
+    public record Team(String slug, String name) {
+    }
+}
@@ -0,0 +1,67 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A compact model of the {@code pull_request} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action       the action which was performed, such as {@code opened} or {@code synchronize}
+ * @param number       the number of the pull request
+ * @param pull_request the pull request itself
+ * @param repository   the repository of the pull request
+ * @param sender       the user who triggered the event
+ */
+public record PullRequestEvent(String action, int number, PullRequest pull_request, RepositoryInfo repository,
+                               UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "pull_request";
+
+    @Override
+    public PullRequestKey orderingKey() {
+        return new PullRequestKey(repository.full_name(), number);
+    }
+
+    @Override
+    public Instant updatedAt() {
+        return pull_request.updatedAt();
+    }
+
+    /**
+     * @param id         the database ID of the pull request
+     * @param node_id    the GraphQL node ID of the pull request
+     * @param number     the number of the pull request
+     * @param state      the state of the pull request, either {@code open} or {@code closed}
+     * @param title      the title of the pull request
+     * @param draft      whether the pull request is a draft
+     * @param merged     whether the pull request was merged
+     * @param mergeable  whether the pull request can be merged cleanly, or {@code null} if not yet computed
+     * @param html_url   the URL to the pull request on GitHub
+     * @param updated_at the time when the pull request was last updated, in ISO 8601 format
+     * @param user       the author of the pull request
+     * @param head       the head branch of the pull request
+     * @param base       the base branch of the pull request
+     * @param labels     the labels of the pull request
+     */
+    public record PullRequest(long id, String node_id, int number, String state, String title, boolean draft,
+                              boolean merged, @Nullable Boolean mergeable, String html_url, String updated_at,
+                              UserInfo user, Ref head, Ref base, @Nullable List<Label> labels) {
+        public Instant updatedAt() {
+            return Instant.parse(updated_at);
+        }
+    }
+
+    /**
+     * @param ref the name of the branch
+     * @param sha the SHA of the commit at the tip of the branch
+     */
+    public record Ref(String ref, String sha) {
+    }
+
+    /**
+     * @param name the name of the label
+     */
+    public record Label(String name) {
+    }
+}
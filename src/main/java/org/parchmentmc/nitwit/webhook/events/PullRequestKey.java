@@ -0,0 +1,28 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * Identifies a pull request across repositories.
+ *
+ * @param repository the name of the repository with its owner, as {@code owner/name}
+ * @param number     the number of the pull request
+ */
+public record PullRequestKey(String repository, int number) {
+    /**
+     * {@return the owner of the repository}
+     */
+    public String owner() {
+        return repository.substring(0, repository.indexOf('/'));
+    }
+
+    /**
+     * {@return the name of the repository, without its owner}
+     */
+    public String name() {
+        return repository.substring(repository.indexOf('/') + 1);
+    }
+
+    @Override
+    public String toString() {
+        return repository + '#' + number;
+    }
+}
@@ -0,0 +1,29 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compact model of the {@code pull_request_review_comment} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action       the action which was performed, either {@code created}, {@code edited} or {@code deleted}
+ * @param comment      the review comment itself
+ * @param pull_request the pull request of the review comment
+ * @param repository   the repository of the pull request
+ * @param sender       the user who triggered the event
+ */
+public record PullRequestReviewCommentEvent(String action, Comment comment, PullRequestEvent.PullRequest pull_request,
+                                            RepositoryInfo repository, UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "pull_request_review_comment";
+
+    @Override
+    public PullRequestKey orderingKey() {
+        return new PullRequestKey(repository.full_name(), pull_request.number());
+    }
+
+    /**
+     * @param id             the database ID of the comment
+     * @param in_reply_to_id the database ID of the comment this replies to, or {@code null} if it starts a new thread
+     */
+    public record Comment(long id, @Nullable Long in_reply_to_id) {
+    }
+}
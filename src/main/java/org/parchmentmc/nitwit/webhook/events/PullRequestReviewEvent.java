@@ -0,0 +1,30 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of the {@code pull_request_review} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action       the action which was performed, either {@code submitted}, {@code edited} or {@code dismissed}
+ * @param review       the review itself
+ * @param pull_request the pull request which was reviewed
+ * @param repository   the repository of the pull request
+ * @param sender       the user who triggered the event
+ */
+public record PullRequestReviewEvent(String action, Review review, PullRequestEvent.PullRequest pull_request,
+                                     RepositoryInfo repository, UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "pull_request_review";
+
+    @Override
+    public PullRequestKey orderingKey() {
+        return new PullRequestKey(repository.full_name(), pull_request.number());
+    }
+
+    /**
+     * @param id           the database ID of the review
+     * @param user         the author of the review
+     * @param state        the state of the review, such as {@code approved} or {@code changes_requested}
+     * @param submitted_at the time when the review was submitted, in ISO 8601 format
+     * @param html_url     the URL to the review on GitHub
+     */
+    public record Review(long id, UserInfo user, String state, String submitted_at, String html_url) {
+    }
+}
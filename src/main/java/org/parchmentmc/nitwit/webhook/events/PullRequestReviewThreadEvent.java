@@ -0,0 +1,27 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of the {@code pull_request_review_thread} event payload, holding only the fields used by Nitwit.
+ *
+ * @param action       the action which was performed, either {@code resolved} or {@code unresolved}
+ * @param thread       the review thread itself
+ * @param pull_request the pull request of the review thread
+ * @param repository   the repository of the pull request
+ * @param sender       the user who triggered the event
+ */
+public record PullRequestReviewThreadEvent(String action, ReviewThread thread,
+                                           PullRequestEvent.PullRequest pull_request, RepositoryInfo repository,
+                                           UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "pull_request_review_thread";
+
+    @Override
+    public PullRequestKey orderingKey() {
+        return new PullRequestKey(repository.full_name(), pull_request.number());
+    }
+
+    /**
+     * @param node_id the GraphQL node ID of the review thread
+     */
+    public record ReviewThread(String node_id) {
+    }
+}
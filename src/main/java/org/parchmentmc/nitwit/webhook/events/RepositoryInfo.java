@@ -0,0 +1,13 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of a repository in a webhook payload.
+ *
+ * @param id        the database ID of the repository
+ * @param node_id   the GraphQL node ID of the repository
+ * @param name      the name of the repository
+ * @param full_name the name of the repository with its owner, as {@code owner/name}
+ * @param owner     the owner of the repository
+ */
+public record RepositoryInfo(long id, String node_id, String name, String full_name, UserInfo owner) {
+}
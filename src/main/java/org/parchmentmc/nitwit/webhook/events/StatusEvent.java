@@ -0,0 +1,16 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of the {@code status} event payload, holding only the fields used by Nitwit.
+ *
+ * @param sha        the SHA of the commit whose status changed
+ * @param state      the new state of the status, either {@code pending}, {@code success}, {@code failure} or
+ *                   {@code error}
+ * @param context    the context (name) of the status
+ * @param repository the repository of the commit
+ * @param sender     the user who triggered the event
+ */
+public record StatusEvent(String sha, String state, String context, RepositoryInfo repository,
+                          UserInfo sender) implements WebhookEvent {
+    public static final String EVENT_NAME = "status";
+}
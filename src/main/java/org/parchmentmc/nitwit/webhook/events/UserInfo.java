@@ -0,0 +1,11 @@
+package org.parchmentmc.nitwit.webhook.events;
+
+/**
+ * A compact model of a user (or organization) in a webhook payload.
+ *
+ * @param login the login of the user
+ * @param id    the database ID of the user
+ * @param type  the type of the user account, such as {@code User}, {@code Organization} or {@code Bot}
+ */
+public record UserInfo(String login, long id, String type) {
+}
@@ -1,4 +1,31 @@
 package org.parchmentmc.nitwit.webhook.events;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+
 public interface WebhookEvent {
+    /**
+     * Returns the key which orders this event against other events. Events with the same key are handled one at a
+     * time in the order they were received, while events with different keys may be handled in parallel.
+     *
+     * @return the ordering key, or {@code null} if this event may be handled in any order
+     */
+    default @Nullable Object orderingKey() {
+        return null;
+    }
+
+    /**
+     * Returns the time when the subject of this event was last updated. An event is skipped if an event with the same
+     * ordering key and a later update time was already handled.
+     *
+     * <p>Only events carrying a full snapshot of their subject may have an update time, as a later snapshot replaces
+     * what a skipped snapshot held. Events describing a change to their subject (such as a new review of a pull
+     * request) must return {@code null}, so they are never skipped: a later snapshot does not include the change.</p>
+     *
+     * @return the update time, or {@code null} if unknown or this event is not a snapshot
+     */
+    default @Nullable Instant updatedAt() {
+        return null;
+    }
 }
@@ -0,0 +1,278 @@
+package org.parchmentmc.nitwit.webhook.journal;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * An append-only, memory-mapped journal of accepted webhook deliveries.
+ *
+ * <p>Each verified delivery is appended as a pending entry before it is dispatched, and marked as completed once its
+ * handler returns. Entries which are still pending when the process stops (because it crashed, or the handler failed)
+ * are replayed on the next startup.</p>
+ *
+ * <p>The journal is split into fixed-size segment files. When the active segment is full, a new one is started and
+ * the journal is compacted: the oldest segments beyond the configured maximum are deleted, with any stuck pending
+ * entries first copied forward into the active segment. A segment with entries still being handled is kept until a
+ * later compaction, without holding back the deletion of the segments after it. Completed entries in the retained
+ * segments remain available for replaying history, such as after fixing a handler.</p>
+ *
+ * <p>Entries are identified by their position, which combines the segment ID and the offset within the segment.</p>
+ */
+public class DeliveryJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "deliveries-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean sync;
+    private final NavigableMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+
+    private JournalSegment active; // Guarded by this
+    private long nextSegmentID; // Guarded by this
+
+    /**
+     * Opens the journal in the given directory, creating the directory if needed.
+     *
+     * @param directory   the directory containing the segment files
+     * @param segmentSize the size of each segment file, in bytes
+     * @param maxSegments the amount of segments to retain before compacting
+     * @param sync        whether to force every change to disk before returning
+     * @throws IOException if an I/O error occurs while opening the existing segments
+     */
+    public DeliveryJournal(Path directory, int segmentSize, int maxSegments, boolean sync) throws IOException {
+        if (segmentSize < 1024) throw new IllegalArgumentException("segmentSize must be at least 1 KiB: " + segmentSize);
+        if (maxSegments < 1) throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.sync = sync;
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                final @Nullable JournalSegment segment = JournalSegment.open(path);
+                if (segment == null) {
+                    System.err.println("Ignoring invalid journal segment: " + path);
+                    continue;
+                }
+                nextSegmentID = Math.max(nextSegmentID, segment.id + 1);
+                if (segment.writePosition == JournalSegment.HEADER_SIZE) { // Nothing was ever written to it
+                    segment.close();
+                    Files.delete(path);
+                    continue;
+                }
+                segments.put(segment.id, segment);
+            }
+        }
+        // Always start a fresh segment, rather than appending after a possibly torn write
+        synchronized (this) {
+            active = createSegment(segmentSize);
+            compact();
+        }
+    }
+
+    /**
+     * Appends a pending entry for a delivery.
+     *
+     * @param event         the name of the delivery's event
+     * @param deliveryID    the GUID of the delivery
+     * @param payload       the array containing the raw payload
+     * @param payloadOffset the offset of the payload within the array
+     * @param payloadLength the length of the payload
+     * @return the position of the entry
+     * @throws IOException if an I/O error occurs while starting a new segment
+     */
+    public long append(String event, UUID deliveryID, byte[] payload, int payloadOffset, int payloadLength)
+            throws IOException {
+        return append(event.getBytes(StandardCharsets.UTF_8), System.currentTimeMillis(), deliveryID, payload,
+                payloadOffset, payloadLength, true);
+    }
+
+    private synchronized long append(byte[] event, long receivedAt, UUID deliveryID, byte[] payload,
+                                     int payloadOffset, int payloadLength, boolean inFlight) throws IOException {
+        if (event.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Event name is too long: " + event.length + " bytes");
+        }
+        final int length = JournalSegment.entryLength(event, payloadLength);
+        if (!active.hasRoom(length)) {
+            roll(length);
+        }
+        if (inFlight) {
+            active.inFlight.incrementAndGet();
+        }
+        final int offset = active.append(JournalSegment.PENDING, receivedAt, deliveryID.getMostSignificantBits(),
+                deliveryID.getLeastSignificantBits(), event, payload, payloadOffset, payloadLength, sync);
+        return position(active.id, offset);
+    }
+
+    /**
+     * Marks the entry at the given position as completed, so it is not replayed on startup.
+     *
+     * @param position the position of the entry
+     */
+    public void complete(long position) {
+        final @Nullable JournalSegment segment = segments.get(segmentID(position));
+        if (segment != null) {
+            segment.markCompleted(offset(position), sync);
+            segment.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases the entry at the given position without completing it, such as when its handler failed. The entry
+     * stays pending, and is replayed on the next startup.
+     *
+     * @param position the position of the entry
+     */
+    public void release(long position) {
+        final @Nullable JournalSegment segment = segments.get(segmentID(position));
+        if (segment != null) {
+            segment.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Replays the entries of this journal in order. Each replayed entry must later be either {@linkplain
+     * #complete(long) completed} or {@linkplain #release(long) released}.
+     *
+     * @param includeCompleted whether to also replay completed entries, rather than only pending entries
+     * @param consumer         the consumer for the replayed entries
+     * @return the amount of entries replayed
+     */
+    public int replay(boolean includeCompleted, Consumer<Entry> consumer) {
+        final List<JournalSegment> snapshot;
+        final List<Integer> limits = new ArrayList<>();
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments.values());
+            for (JournalSegment segment : snapshot) {
+                limits.add(segment.writePosition);
+            }
+        }
+
+        int replayed = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            final JournalSegment segment = snapshot.get(i);
+            final int limit = limits.get(i);
+            if (!includeCompleted && segment.pending.get() == 0) {
+                continue;
+            }
+            int offset = JournalSegment.HEADER_SIZE;
+            int length;
+            while (offset < limit && (length = segment.validLength(offset)) > 0) {
+                if (includeCompleted || segment.isPending(offset)) {
+                    segment.inFlight.incrementAndGet();
+                    consumer.accept(segment.read(offset));
+                    replayed++;
+                }
+                offset += length;
+            }
+        }
+        return replayed;
+    }
+
+    private void roll(int entryLength) throws IOException {
+        // An entry too large for a regular segment gets a dedicated segment of its own
+        final int required = JournalSegment.HEADER_SIZE + entryLength + 4;
+        active = createSegment(Math.max(segmentSize, required));
+        compact();
+    }
+
+    private JournalSegment createSegment(int capacity) throws IOException {
+        final long id = nextSegmentID++;
+        final JournalSegment segment = JournalSegment.create(directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX),
+                id, capacity);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void compact() throws IOException {
+        int excess = segments.size() - maxSegments;
+        // Oldest first; the segments which cannot be deleted yet are skipped, and tried again on the next roll
+        for (JournalSegment segment : segments.values()) {
+            if (excess <= 0) {
+                return;
+            }
+            if (segment == active || segment.inFlight.get() > 0 || !carryForward(segment)) {
+                continue;
+            }
+            segments.remove(segment.id);
+            segment.close();
+            Files.deleteIfExists(segment.path);
+            excess--;
+        }
+    }
+
+    /**
+     * Carries the stuck pending entries of a segment forward into the active segment, so they are still replayed
+     * after the segment is deleted.
+     *
+     * @return whether all of them were carried forward
+     */
+    private boolean carryForward(JournalSegment segment) throws IOException {
+        if (segment.pending.get() == 0) {
+            return true;
+        }
+        int offset = JournalSegment.HEADER_SIZE;
+        int length;
+        while (offset < segment.writePosition && (length = segment.validLength(offset)) > 0) {
+            if (segment.isPending(offset)) {
+                final Entry entry = segment.read(offset);
+                final byte[] event = entry.event().getBytes(StandardCharsets.UTF_8);
+                if (!active.hasRoom(JournalSegment.entryLength(event, entry.payload().length))) {
+                    return false; // No room to carry them forward
+                }
+                append(event, entry.receivedAt(), entry.deliveryID(), entry.payload(), 0, entry.payload().length,
+                        false);
+                segment.markCompleted(offset, false);
+            }
+            offset += length;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (JournalSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    static long position(long segmentID, int offset) {
+        return segmentID << 32 | offset;
+    }
+
+    private static long segmentID(long position) {
+        return position >>> 32;
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * A replayed journal entry.
+     *
+     * @param position   the position of the entry
+     * @param deliveryID the GUID of the delivery
+     * @param event      the name of the delivery's event
+     * @param receivedAt the time the delivery was received, in epoch milliseconds
+     * @param payload    the raw payload of the delivery
+     * @param completed  whether the entry was already completed
+     */
+    public record Entry(long position, UUID deliveryID, String event, long receivedAt, byte[] payload,
+                        boolean completed) {
+    }
+}
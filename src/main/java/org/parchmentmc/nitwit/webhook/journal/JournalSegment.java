@@ -0,0 +1,245 @@
+package org.parchmentmc.nitwit.webhook.journal;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * A single memory-mapped, fixed-size segment file of the {@link DeliveryJournal}.
+ *
+ * <p>The segment starts with a header of the magic number and the segment ID, followed by the entries. Each entry is
+ * laid out as follows:</p>
+ * <ol>
+ *     <li>{@code int} &mdash; total entry length, written last to commit the entry</li>
+ *     <li>{@code byte} &mdash; entry state, either {@link #PENDING} or {@link #COMPLETED}</li>
+ *     <li>{@code long} &mdash; time the delivery was received, in epoch milliseconds</li>
+ *     <li>{@code long}, {@code long} &mdash; delivery ID</li>
+ *     <li>{@code short} + bytes &mdash; event name, in UTF-8</li>
+ *     <li>{@code int} + bytes &mdash; raw payload</li>
+ *     <li>{@code int} &mdash; CRC32C checksum of everything after the state</li>
+ * </ol>
+ * <p>An entry whose length is zero marks the end of the segment; an entry whose checksum does not match is treated as
+ * a torn write, and ends the segment as well.</p>
+ */
+final class JournalSegment {
+    static final int MAGIC = 0x4e574a31; // "NWJ1"
+    static final int HEADER_SIZE = 4 + 8;
+
+    static final byte PENDING = 0;
+    static final byte COMPLETED = 1;
+
+    private static final int STATE_OFFSET = 4;
+    private static final int CHECKED_OFFSET = STATE_OFFSET + 1;
+    /**
+     * The size of an entry with an empty event name and payload.
+     */
+    static final int ENTRY_OVERHEAD = 4 + 1 + 8 + 8 + 8 + 2 + 4 + 4;
+
+    final long id;
+    final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The position where the next entry is appended. Guarded by the journal's lock.
+     */
+    int writePosition;
+    /**
+     * The amount of entries which are not yet marked as completed on disk.
+     */
+    final AtomicInteger pending = new AtomicInteger();
+    /**
+     * The amount of entries which are currently being handled.
+     */
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    private JournalSegment(long id, Path path, FileChannel channel, MappedByteBuffer buffer, int writePosition) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.writePosition = writePosition;
+    }
+
+    static JournalSegment create(Path path, long id, int capacity) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, id);
+        return new JournalSegment(id, path, channel, buffer, HEADER_SIZE);
+    }
+
+    /**
+     * Opens an existing segment, scanning it to find the end of its valid entries and count its pending entries.
+     *
+     * @param path the path to the segment file
+     * @return the opened segment, or {@code null} if the file is not a valid segment
+     * @throws IOException if an I/O error occurs
+     */
+    @Nullable
+    static JournalSegment open(Path path) throws IOException {
+        final long size = Files.size(path);
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(0) != MAGIC) {
+            channel.close();
+            return null;
+        }
+        final JournalSegment segment = new JournalSegment(buffer.getLong(4), path, channel, buffer, HEADER_SIZE);
+
+        int position = HEADER_SIZE;
+        int length;
+        while ((length = segment.validLength(position)) > 0) {
+            if (buffer.get(position + STATE_OFFSET) == PENDING) {
+                segment.pending.incrementAndGet();
+            }
+            position += length;
+        }
+        segment.writePosition = position;
+        return segment;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    boolean hasRoom(int entryLength) {
+        // Leave room for the zero length which marks the end of the segment
+        return (long) writePosition + entryLength + 4 <= buffer.capacity();
+    }
+
+    static int entryLength(byte[] event, int payloadLength) {
+        return ENTRY_OVERHEAD + event.length + payloadLength;
+    }
+
+    /**
+     * Appends an entry at the write position. The caller must hold the journal's lock, and have checked there is room
+     * for the entry.
+     *
+     * @return the offset of the appended entry
+     */
+    int append(byte state, long receivedAt, long msb, long lsb, byte[] event, byte[] payload, int payloadOffset,
+               int payloadLength, boolean sync) {
+        final int start = writePosition;
+        final int length = entryLength(event, payloadLength);
+
+        int position = start + STATE_OFFSET;
+        buffer.put(position, state);
+        position += 1;
+        buffer.putLong(position, receivedAt);
+        position += 8;
+        buffer.putLong(position, msb);
+        position += 8;
+        buffer.putLong(position, lsb);
+        position += 8;
+        buffer.putShort(position, (short) event.length);
+        position += 2;
+        buffer.put(position, event);
+        position += event.length;
+        buffer.putInt(position, payloadLength);
+        position += 4;
+        buffer.put(position, payload, payloadOffset, payloadLength);
+        position += payloadLength;
+        buffer.putInt(position, checksum(start + CHECKED_OFFSET, position));
+
+        // Make sure the terminator after the entry is clear, in case this segment is being reused after a torn write
+        if (start + length + 4 <= buffer.capacity()) {
+            buffer.putInt(start + length, 0);
+        }
+        // Finally, commit the entry by writing its length
+        buffer.putInt(start, length);
+        if (sync) {
+            buffer.force(start, length);
+        }
+
+        writePosition = start + length;
+        if (state == PENDING) {
+            pending.incrementAndGet();
+        }
+        return start;
+    }
+
+    /**
+     * Marks the entry at the given offset as completed.
+     *
+     * @param offset the offset of the entry
+     * @param sync   whether to force the change to disk
+     * @return {@code true} if the entry was pending before this call
+     */
+    synchronized boolean markCompleted(int offset, boolean sync) {
+        if (buffer.get(offset + STATE_OFFSET) != PENDING) {
+            return false;
+        }
+        buffer.put(offset + STATE_OFFSET, COMPLETED);
+        if (sync) {
+            buffer.force(offset + STATE_OFFSET, 1);
+        }
+        pending.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the length of the entry at the given offset, or {@code 0} if there is no valid entry there.
+     */
+    int validLength(int offset) {
+        if (offset + 4 > buffer.capacity()) {
+            return 0;
+        }
+        final int length = buffer.getInt(offset);
+        if (length < ENTRY_OVERHEAD || (long) offset + length > buffer.capacity()) {
+            return 0;
+        }
+        final int checksumPosition = offset + length - 4;
+        return buffer.getInt(checksumPosition) == checksum(offset + CHECKED_OFFSET, checksumPosition) ? length : 0;
+    }
+
+    boolean isPending(int offset) {
+        return buffer.get(offset + STATE_OFFSET) == PENDING;
+    }
+
+    /**
+     * Reads the entry at the given offset, which must be valid.
+     */
+    DeliveryJournal.Entry read(int offset) {
+        int position = offset + STATE_OFFSET;
+        final boolean completed = buffer.get(position) != PENDING;
+        position += 1;
+        final long receivedAt = buffer.getLong(position);
+        position += 8;
+        final UUID deliveryID = new UUID(buffer.getLong(position), buffer.getLong(position + 8));
+        position += 16;
+        final byte[] event = new byte[buffer.getShort(position)];
+        position += 2;
+        buffer.get(position, event);
+        position += event.length;
+        final byte[] payload = new byte[buffer.getInt(position)];
+        position += 4;
+        buffer.get(position, payload);
+
+        return new DeliveryJournal.Entry(DeliveryJournal.position(id, offset), deliveryID,
+                new String(event, StandardCharsets.UTF_8), receivedAt, payload, completed);
+    }
+
+    private int checksum(int from, int to) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(from, to - from));
+        return (int) crc.getValue();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,62 @@
+package org.parchmentmc.nitwit.webhook.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A webhook server backed by the JDK's {@link HttpServer}, which handles each exchange on a thread of its executor.
+ */
+public class JdkWebhookServer implements WebhookServer {
+    private final HttpServer server;
+
+    /**
+     * Creates a server bound to the given address.
+     *
+     * @param address     the address to bind to
+     * @param executor    the executor which handles the exchanges
+     * @param idleTimeout the time after which idle keep-alive connections are closed
+     * @throws IOException if an I/O error occurs while binding
+     */
+    public JdkWebhookServer(InetSocketAddress address, Executor executor, Duration idleTimeout) throws IOException {
+        // The JDK server reads its connection settings from system properties once, when it is first created
+        if (System.getProperty("sun.net.httpserver.idleInterval") == null) {
+            System.setProperty("sun.net.httpserver.idleInterval",
+                    Long.toString(Math.max(1, idleTimeout.toSeconds())));
+        }
+        // It writes the response headers and body separately, which stalls keep-alive connections on delayed ACKs
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler, List<Filter> filters) {
+        final HttpContext context = server.createContext(path, handler);
+        context.getFilters().addAll(filters);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop(Duration delay) {
+        server.stop((int) Math.max(0, delay.toSeconds()));
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+}
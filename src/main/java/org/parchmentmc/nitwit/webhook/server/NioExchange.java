@@ -0,0 +1,321 @@
+package org.parchmentmc.nitwit.webhook.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An exchange of the {@link NioWebhookServer}. The request body is streamed from the connection, while the response
+ * is buffered and sent once the exchange is closed, either directly or by closing the response body.
+ */
+final class NioExchange extends HttpExchange {
+    private final NioWebhookServer.Connection connection;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final long requestContentLength;
+    private final boolean keepAlive;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    private final Headers responseHeaders = new Headers();
+    private final ResponseBody responseBody = new ResponseBody();
+
+    private @Nullable HttpContext context;
+    private InputStream in;
+    private OutputStream out;
+    private @Nullable Map<String, Object> attributes;
+    private int responseCode = -1;
+    private boolean closed;
+    private boolean aborted;
+
+    private NioExchange(NioWebhookServer.Connection connection, String method, URI uri, String protocol,
+                        Headers requestHeaders, long requestContentLength, boolean keepAlive,
+                        InetSocketAddress remoteAddress, InetSocketAddress localAddress) {
+        this.connection = connection;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.requestContentLength = requestContentLength;
+        this.keepAlive = keepAlive;
+        this.remoteAddress = remoteAddress;
+        this.localAddress = localAddress;
+        this.in = new RequestBody();
+        this.out = responseBody;
+    }
+
+    /**
+     * Parses the request line and headers of a request.
+     *
+     * @param connection    the connection of the request
+     * @param head          the request line and headers, ending with the empty line
+     * @param remoteAddress the address of the client
+     * @param localAddress  the address of the server
+     * @return the exchange for the request, or {@code null} if the request body is chunked
+     * @throws IllegalArgumentException if the request is malformed
+     */
+    static @Nullable NioExchange parse(NioWebhookServer.Connection connection, String head,
+                                       InetSocketAddress remoteAddress, InetSocketAddress localAddress) {
+        final String[] lines = head.split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new IllegalArgumentException("invalid request line");
+        }
+
+        final Headers headers = new Headers();
+        for (int i = 1; i < lines.length; i++) {
+            final String line = lines[i];
+            if (line.isEmpty()) {
+                break;
+            }
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("invalid header line");
+            }
+            headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+
+        if (headers.containsKey("Transfer-Encoding")) {
+            return null;
+        }
+        long contentLength = 0;
+        final @Nullable String contentLengthHeader = headers.getFirst("Content-Length");
+        if (contentLengthHeader != null) {
+            try {
+                contentLength = Long.parseLong(contentLengthHeader);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid Content-Length");
+            }
+            if (contentLength < 0) {
+                throw new IllegalArgumentException("invalid Content-Length");
+            }
+        }
+
+        // HTTP/1.1 connections are persistent unless closed; HTTP/1.0 connections only if asked to keep them alive
+        final String protocol = requestLine[2];
+        final @Nullable String connectionHeader = headers.getFirst("Connection");
+        final boolean keepAlive = connectionHeader == null
+                ? protocol.equals("HTTP/1.1")
+                : connectionHeader.toLowerCase(Locale.ROOT).contains("keep-alive")
+                || (protocol.equals("HTTP/1.1") && !connectionHeader.toLowerCase(Locale.ROOT).contains("close"));
+
+        return new NioExchange(connection, requestLine[0], URI.create(requestLine[1]), protocol, headers,
+                contentLength, keepAlive, remoteAddress, localAddress);
+    }
+
+    long getRequestContentLength() {
+        return requestContentLength;
+    }
+
+    void setHttpContext(HttpContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Aborts the exchange after a handler failed, responding with an error if no response was started yet.
+     */
+    void abort() {
+        aborted = true;
+        if (responseCode == -1) {
+            responseCode = 500;
+            responseBody.reset();
+        }
+        close();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public @Nullable HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (responseCode == -1) { // Closed without a response
+            responseCode = 500;
+        }
+
+        final boolean close = aborted || !keepAlive || !connection.skipBody();
+        final StringBuilder head = new StringBuilder(128)
+                .append("HTTP/1.1 ").append(responseCode).append(' ').append(reasonPhrase(responseCode)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase("Content-Length") || header.getKey().equalsIgnoreCase("Connection")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        head.append("Content-Length: ").append(responseBody.size()).append("\r\n");
+        if (close) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+
+        final byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        final ByteBuffer response = ByteBuffer.allocate(headBytes.length + responseBody.size());
+        response.put(headBytes).put(responseBody.array(), 0, responseBody.size()).flip();
+        connection.send(response, close);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return out;
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) throws IOException {
+        if (responseCode != -1) {
+            throw new IOException("Response headers were already sent");
+        }
+        responseCode = code;
+        if (length == -1) { // No response body
+            close();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public @Nullable Object getAttribute(String name) {
+        return attributes != null ? attributes.get(name) : null;
+    }
+
+    @Override
+    public void setAttribute(String name, @Nullable Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(@Nullable InputStream in, @Nullable OutputStream out) {
+        if (in != null) {
+            this.in = in;
+        }
+        if (out != null) {
+            this.out = out;
+        }
+    }
+
+    @Override
+    public @Nullable HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    static String reasonPhrase(int code) {
+        return switch (code) {
+            case 200 -> "OK";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 411 -> "Length Required";
+            case 413 -> "Payload Too Large";
+            case 429 -> "Too Many Requests";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "";
+        };
+    }
+
+    private final class RequestBody extends InputStream {
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            return connection.readBody(buffer, offset, length);
+        }
+    }
+
+    /**
+     * The buffered response body. Closing it completes the exchange, as with the JDK server.
+     */
+    private final class ResponseBody extends ByteArrayOutputStream {
+        ResponseBody() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        @Override
+        public void close() {
+            NioExchange.this.close();
+        }
+    }
+}
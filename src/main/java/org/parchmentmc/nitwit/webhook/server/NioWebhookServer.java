@@ -0,0 +1,621 @@
+package org.parchmentmc.nitwit.webhook.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A webhook server on non-blocking sockets, with a fixed amount of selector threads multiplexing all connections.
+ *
+ * <p>Acceptor threads accept connections and assign them to the selector threads in turn. A selector thread reads the
+ * request line and headers of a request, and then hands the exchange to the worker executor, which runs the filters
+ * and handler of the context. The request body is streamed to the handler as it arrives, so a filter which rejects a
+ * request does so before its body is read.</p>
+ *
+ * <p>Connections are kept alive between requests, and pipelined requests are handled one after another, with the
+ * responses sent in order. Connections which are idle for the idle timeout (including those stalled while sending a
+ * request) are closed.</p>
+ *
+ * <p>Only request bodies with a {@code Content-Length} are supported; chunked request bodies are rejected with
+ * {@code 411 Length Required}.</p>
+ */
+public class NioWebhookServer implements WebhookServer {
+    /**
+     * The size of the per-connection read buffer, which also limits the size of the request line and headers.
+     */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final InetSocketAddress address;
+    private final int acceptorThreads;
+    private final Loop[] loops;
+    private final Executor workers;
+    private final long idleTimeoutNanos;
+    private final List<Context> contexts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger activeExchanges = new AtomicInteger();
+    private volatile boolean running;
+
+    /**
+     * Creates a server bound to the given address.
+     *
+     * @param address         the address to bind to
+     * @param acceptorThreads the amount of threads accepting connections
+     * @param selectorThreads the amount of threads reading and writing the connections
+     * @param workers         the executor which runs the filters and handlers of the exchanges
+     * @param idleTimeout     the time after which idle connections are closed
+     * @throws IOException if an I/O error occurs while binding
+     */
+    public NioWebhookServer(InetSocketAddress address, int acceptorThreads, int selectorThreads, Executor workers,
+                            Duration idleTimeout) throws IOException {
+        if (acceptorThreads < 1) throw new IllegalArgumentException("acceptorThreads must be positive: " + acceptorThreads);
+        if (selectorThreads < 1) throw new IllegalArgumentException("selectorThreads must be positive: " + selectorThreads);
+        this.acceptorThreads = acceptorThreads;
+        this.workers = workers;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.serverChannel.bind(address, 0);
+        this.address = (InetSocketAddress) serverChannel.getLocalAddress();
+
+        this.loops = new Loop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            loops[i] = new Loop();
+        }
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler, List<Filter> filters) {
+        for (Context context : contexts) {
+            if (context.getPath().equals(path)) {
+                throw new IllegalArgumentException("Context for path '" + path + "' already exists");
+            }
+        }
+        final Context context = new Context(path, handler);
+        context.getFilters().addAll(filters);
+        contexts.add(context);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Server is already started");
+        }
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            startThread(loops[i], "webhook-selector-" + i);
+        }
+        for (int i = 0; i < acceptorThreads; i++) {
+            startThread(this::accept, "webhook-acceptor-" + i);
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        new Thread(runnable, name).start();
+    }
+
+    @Override
+    public void stop(Duration delay) {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        final long deadline = System.nanoTime() + delay.toNanos();
+        try {
+            while (activeExchanges.get() > 0 && System.nanoTime() - deadline < 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    private void accept() {
+        while (running) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return; // Stopped
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                final Loop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                loop.execute(() -> loop.register(channel));
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private @Nullable Context findContext(String path) {
+        @Nullable Context found = null;
+        for (Context context : contexts) {
+            if (path.startsWith(context.getPath())
+                    && (found == null || context.getPath().length() > found.getPath().length())) {
+                found = context;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Runs the filters and handler of the context for an exchange. Called on a worker thread.
+     */
+    private void handle(NioExchange exchange) {
+        activeExchanges.incrementAndGet();
+        try {
+            final @Nullable Context context = findContext(exchange.getRequestURI().getPath());
+            if (context == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.setHttpContext(context);
+            new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+        } catch (Exception e) {
+            System.err.println("Error while handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
+            e.printStackTrace();
+            exchange.abort();
+        } finally {
+            exchange.close();
+            activeExchanges.decrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A selector thread, which owns the selection keys of its connections.
+     */
+    private final class Loop implements Runnable {
+        final Selector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final Set<Connection> connections = new HashSet<>();
+
+        Loop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Runs the task on this selector thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                final Connection connection = new Connection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.close();
+                        }
+                    }
+
+                    closeIdle();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (Connection connection : new ArrayList<>(connections)) {
+                    connection.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void closeIdle() {
+            final long now = System.nanoTime();
+            final List<Connection> idle = new ArrayList<>();
+            for (Connection connection : connections) {
+                if (connection.isIdle(now)) {
+                    idle.add(connection);
+                }
+            }
+            for (Connection connection : idle) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * A client connection. The read buffer is shared between the selector thread, which fills it, and the worker
+     * thread reading the request body, and is guarded by the connection's lock. Everything else is only accessed on
+     * the selector thread.
+     */
+    final class Connection {
+        private final Loop loop;
+        private final SocketChannel channel;
+        private final InetSocketAddress remoteAddress;
+        private SelectionKey key;
+
+        /**
+         * The bytes read but not yet consumed, in write mode. Guarded by this.
+         */
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * The amount of bytes of the current request body not yet consumed. Guarded by this.
+         */
+        private long bodyRemaining;
+        private boolean eof; // Guarded by this
+        private boolean closed; // Guarded by this
+        private boolean readPaused; // Guarded by this
+
+        private boolean handling;
+        private @Nullable ByteBuffer out;
+        private boolean closeAfterWrite;
+        private long lastActiveNanos = System.nanoTime();
+
+        Connection(Loop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        }
+
+        void onReadable() throws IOException {
+            synchronized (this) {
+                final int read = channel.read(in);
+                if (read < 0) {
+                    eof = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                } else if (read > 0) {
+                    lastActiveNanos = System.nanoTime();
+                }
+                if (!in.hasRemaining() && !eof) { // Wait for the buffer to be consumed before reading more
+                    readPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                notifyAll();
+            }
+            if (!handling && out == null) {
+                tryParseRequest(); // Also closes the connection at the end of the stream
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (out == null) {
+                return;
+            }
+            channel.write(out);
+            if (!out.hasRemaining()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                completeResponse();
+            } else {
+                lastActiveNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Parses the next request from the read buffer if its headers are complete, and hands it to a worker.
+         */
+        private void tryParseRequest() {
+            final NioExchange exchange;
+            synchronized (this) {
+                final byte[] array = in.array();
+                final int length = in.position();
+                final int end = findHeadersEnd(array, length);
+                if (end < 0) {
+                    if (length == in.capacity()) {
+                        respondAndClose(431, "Request headers are too large.");
+                    } else if (eof) {
+                        close();
+                    }
+                    return;
+                }
+
+                final @Nullable NioExchange parsed;
+                try {
+                    parsed = NioExchange.parse(this, new String(array, 0, end, StandardCharsets.ISO_8859_1),
+                            remoteAddress, address);
+                } catch (IllegalArgumentException e) {
+                    respondAndClose(400, "Malformed request: " + e.getMessage());
+                    return;
+                }
+                if (parsed == null) {
+                    respondAndClose(411, "Chunked request bodies are not supported; send a Content-Length.");
+                    return;
+                }
+                exchange = parsed;
+                consume(end);
+                bodyRemaining = exchange.getRequestContentLength();
+                if (readPaused) {
+                    resumeReading();
+                }
+            }
+            handling = true;
+            workers.execute(() -> handle(exchange));
+        }
+
+        private void respondAndClose(int code, String message) {
+            final byte[] body = (message + '\n').getBytes(StandardCharsets.UTF_8);
+            final String headers = "HTTP/1.1 " + code + ' ' + NioExchange.reasonPhrase(code) + "\r\n"
+                    + "Content-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+            final ByteBuffer response = ByteBuffer.allocate(headers.length() + body.length);
+            response.put(headers.getBytes(StandardCharsets.ISO_8859_1)).put(body).flip();
+            write(response, true);
+        }
+
+        /**
+         * Writes a response. Called on the selector thread.
+         */
+        void write(ByteBuffer response, boolean close) {
+            out = response;
+            closeAfterWrite = close;
+            lastActiveNanos = System.nanoTime();
+            try {
+                channel.write(out);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (out.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } else {
+                completeResponse();
+            }
+        }
+
+        private void completeResponse() {
+            out = null;
+            handling = false;
+            lastActiveNanos = System.nanoTime();
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            synchronized (this) {
+                if (readPaused) {
+                    resumeReading();
+                }
+            }
+            tryParseRequest(); // The next request may already have been pipelined
+        }
+
+        /**
+         * Reads from the request body, waiting until bytes are available. Called on a worker thread.
+         */
+        synchronized int readBody(byte[] buffer, int offset, int length) throws IOException {
+            if (bodyRemaining == 0) {
+                return -1;
+            }
+            while (in.position() == 0) {
+                if (eof || closed) {
+                    throw new IOException("Connection closed before the request body was received");
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            final int read = (int) Math.min(Math.min(length, in.position()), bodyRemaining);
+            System.arraycopy(in.array(), 0, buffer, offset, read);
+            consume(read);
+            bodyRemaining -= read;
+            if (readPaused) {
+                readPaused = false;
+                loop.execute(this::resumeReading);
+            }
+            return read;
+        }
+
+        /**
+         * Skips the rest of the request body if it was already received, so the connection can be kept alive.
+         *
+         * @return {@code true} if the body was skipped, {@code false} if the connection must be closed
+         */
+        synchronized boolean skipBody() {
+            if (eof || closed || bodyRemaining > in.position()) {
+                return false;
+            }
+            consume((int) bodyRemaining);
+            bodyRemaining = 0;
+            return true;
+        }
+
+        /**
+         * Removes bytes from the front of the read buffer. The caller must hold the lock.
+         */
+        private void consume(int count) {
+            final byte[] array = in.array();
+            System.arraycopy(array, count, array, 0, in.position() - count);
+            in.position(in.position() - count);
+        }
+
+        private synchronized void resumeReading() {
+            readPaused = false;
+            if (!closed && !eof && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Sends a response for the exchange. Called on a worker thread.
+         */
+        void send(ByteBuffer response, boolean close) {
+            loop.execute(() -> write(response, close));
+        }
+
+        boolean isIdle(long now) {
+            if (now - lastActiveNanos < idleTimeoutNanos) {
+                return false;
+            } else if (out != null) { // The client stopped reading the response
+                return true;
+            }
+            synchronized (this) {
+                // Either waiting for a request, or a handler is waiting for the rest of the body
+                return !handling || bodyRemaining > in.position();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            loop.connections.remove(this);
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * {@return the offset after the empty line ending the request headers, or {@code -1} if it was not read yet}
+     */
+    static int findHeadersEnd(byte[] array, int length) {
+        for (int i = 3; i < length; i++) {
+            if (array[i] == '\n' && array[i - 1] == '\r' && array[i - 2] == '\n' && array[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A context of this server. Only the path, handler and filters are used.
+     */
+    private static final class Context extends HttpContext {
+        private final String path;
+        private HttpHandler handler;
+        private final List<Filter> filters = new CopyOnWriteArrayList<>();
+        private final Map<String, Object> attributes = new HashMap<>();
+        private @Nullable Authenticator authenticator;
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            throw new UnsupportedOperationException("Not backed by an HttpServer");
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public @Nullable Authenticator setAuthenticator(@Nullable Authenticator authenticator) {
+            final @Nullable Authenticator previous = this.authenticator;
+            this.authenticator = authenticator;
+            return previous;
+        }
+
+        @Override
+        public @Nullable Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
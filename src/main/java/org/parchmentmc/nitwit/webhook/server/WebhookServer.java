@@ -0,0 +1,46 @@
+package org.parchmentmc.nitwit.webhook.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * An HTTP server which receives webhook deliveries.
+ *
+ * <p>Contexts are served by the same {@link Filter}s and {@link HttpHandler}s regardless of the backend, so the
+ * webhook handling does not depend on which server it runs on.</p>
+ *
+ * @see JdkWebhookServer
+ * @see NioWebhookServer
+ */
+public interface WebhookServer {
+    /**
+     * Creates a context, which handles the requests whose path starts with the given path.
+     *
+     * @param path    the root path of the context
+     * @param handler the handler for the requests
+     * @param filters the filters run before the handler, in order
+     */
+    void createContext(String path, HttpHandler handler, List<Filter> filters);
+
+    /**
+     * Starts accepting connections.
+     */
+    void start();
+
+    /**
+     * Stops accepting connections, and closes all connections once the exchanges in progress are finished or the
+     * delay passed.
+     *
+     * @param delay the maximum time to wait for the exchanges in progress
+     */
+    void stop(Duration delay);
+
+    /**
+     * {@return the address which the server is bound to}
+     */
+    InetSocketAddress getAddress();
+}
@@ -0,0 +1,60 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AliasedDocumentTest {
+    @Test
+    void aliasesTopLevelFieldsAndRenamesVariables() {
+        final AliasedDocument document = AliasedDocument.rewrite("query GetPullRequest($owner: String!, "
+                + "$name: String!, $number: Int!) { repository(owner: $owner, name: $name) { __typename "
+                + "pullRequest(number: $number) { ...PullRequestInfo } } } "
+                + "fragment PullRequestInfo on PullRequest { __typename id title }", "b1_");
+
+        assertNotNull(document);
+        assertEquals("$b1_owner: String!, $b1_name: String!, $b1_number: Int!", document.variableDefinitions);
+        // Only the top-level field is aliased; nested fields keep their names
+        assertEquals("b1_repository: repository(owner: $b1_owner, name: $b1_name) { __typename "
+                + "pullRequest(number: $b1_number) { ...PullRequestInfo } }", document.selections);
+        assertEquals(Map.of("PullRequestInfo", "fragment PullRequestInfo on PullRequest { __typename id title }"),
+                document.fragments);
+    }
+
+    @Test
+    void prefixesExistingAliases() {
+        final AliasedDocument document = AliasedDocument.rewrite(
+                "query Q { viewer { login } me: viewer { id } rateLimit(dryRun: true) { remaining } }", "b0_");
+
+        assertNotNull(document);
+        assertEquals("", document.variableDefinitions);
+        assertEquals("b0_viewer: viewer { login } b0_me: viewer { id } "
+                + "b0_rateLimit: rateLimit(dryRun: true) { remaining }", document.selections);
+    }
+
+    @Test
+    void leavesStringsAlone() {
+        final AliasedDocument document = AliasedDocument.rewrite(
+                "query Q { search(query: \"$notAVariable { x }\", type: ISSUE) { issueCount } }", "b0_");
+
+        assertNotNull(document);
+        assertEquals("b0_search: search(query: \"$notAVariable { x }\", type: ISSUE) { issueCount }",
+                document.selections);
+    }
+
+    @Test
+    void rejectsUnmergeableDocuments() {
+        assertNull(AliasedDocument.rewrite("mutation M { addStar(input: {}) { clientMutationId } }", "b0_"));
+        assertNull(AliasedDocument.rewrite("query Q @cached { viewer { id } }", "b0_"));
+        assertNull(AliasedDocument.rewrite("query Q { ...Top } fragment Top on Query { viewer { id } }", "b0_"));
+        // Variables in fragments cannot be renamed for each operation
+        assertNull(AliasedDocument.rewrite(
+                "query Q($id: ID!) { node(id: $id) { ...N } } fragment N on Node { viewer(id: $id) { id } }", "b0_"));
+        assertNull(AliasedDocument.rewrite("query A { viewer { id } } query B { viewer { id } }", "b0_"));
+        assertNull(AliasedDocument.rewrite("query Q { viewer { id }", "b0_"));
+    }
+}
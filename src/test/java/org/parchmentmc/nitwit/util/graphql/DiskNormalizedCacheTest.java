@@ -0,0 +1,134 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.ApolloClient;
+import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.github.api.type.CustomType;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.parchmentmc.nitwit.config.Configuration.FetchMode;
+import org.parchmentmc.nitwit.config.Configuration.FetchPolicyConfig;
+import org.parchmentmc.nitwit.graphql.GetPullRequestQuery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DiskNormalizedCacheTest {
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final GetPullRequestQuery QUERY = new GetPullRequestQuery("ParchmentMC", "Parchment", 7);
+
+    @TempDir
+    Path directory;
+    private final AtomicInteger requests = new AtomicInteger();
+    private byte[] body;
+
+    @BeforeEach
+    void fetch() throws IOException {
+        try (InputStream in = DiskNormalizedCacheTest.class.getResourceAsStream(
+                "/org/parchmentmc/nitwit/util/pr/GetPullRequest.json")) {
+            body = Objects.requireNonNull(in, "Missing GetPullRequest.json").readAllBytes();
+        }
+        query(client(), Duration.ofMinutes(1));
+        assertEquals(1, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void answersFromDiskAfterRestart() {
+        // A new client has nothing in memory, as after a restart
+        query(client(), Duration.ofMinutes(1));
+        assertEquals(1, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void fallsBackOnlyToRecordsWithinMaxAgeOfOperation() throws IOException {
+        age(Duration.ofMinutes(5));
+
+        // Older than the max age, so not even used as a stale response when the network fails
+        final ApolloClient offline = client(false);
+        assertThrows(RuntimeException.class, () -> query(offline, Duration.ofMinutes(1)));
+        // Still of use to operations which are fresh for longer
+        query(offline, Duration.ofHours(1));
+        assertEquals(1, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void expiresRecordsAfterMaxAgeOfCache() throws IOException {
+        age(Duration.ofHours(7));
+
+        query(client(), Duration.ofDays(1));
+        assertEquals(2, requests.get(), "HTTP requests");
+    }
+
+    private void query(ApolloClient client, Duration maxAge) {
+        final Response<GetPullRequestQuery.Data> response = GraphQLHelper.queryRxJava(client, QUERY,
+                new FetchPolicyConfig(FetchMode.CACHE_FIRST, maxAge, false, true)).blockingFirst();
+        assertNotNull(response.getData());
+    }
+
+    private ApolloClient client() {
+        return client(true);
+    }
+
+    /**
+     * Creates a client with an empty in-memory cache in front of the persistent cache, which is kept for 6 hours.
+     *
+     * @param online whether requests are answered with the pull request, or fail as if the network is down
+     */
+    private ApolloClient client(boolean online) {
+        // Never goes to the network
+        final OkHttpClient http = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    if (!online) {
+                        throw new IOException("Network is unreachable");
+                    }
+                    requests.incrementAndGet();
+                    return new okhttp3.Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(body, JSON))
+                            .build();
+                })
+                .build();
+        return ApolloClient.builder()
+                .serverUrl("https://api.github.com/graphql")
+                .okHttpClient(http)
+                .addCustomTypeAdapter(CustomType.DATETIME, new DateTimeAdapter(ZoneOffset.UTC))
+                .addCustomTypeAdapter(CustomType.URI, new URIAdapter())
+                .normalizedCache(new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                                .chain(new DiskNormalizedCacheFactory(directory, 1024 * 1024, Duration.ofHours(6))),
+                        new NodeIdCacheKeyResolver())
+                .build();
+    }
+
+    /**
+     * Makes every record the given duration older.
+     */
+    private void age(Duration duration) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                final FileTime modified = Files.getLastModifiedTime(file);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() - duration.toMillis()));
+            }
+        }
+    }
+}
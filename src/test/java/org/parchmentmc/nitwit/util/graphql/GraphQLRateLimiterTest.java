@@ -0,0 +1,125 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.apollographql.apollo.exception.ApolloHttpException;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.Priority;
+import org.parchmentmc.nitwit.util.graphql.GraphQLRateLimiter.RateLimitedException;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphQLRateLimiterTest {
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final int RESERVE = 10;
+
+    private final GraphQLRateLimiter limiter = new GraphQLRateLimiter("test", RESERVE, Duration.ofMinutes(1));
+    /**
+     * A time in the current rate limit window, on a whole second so it survives the reset header.
+     */
+    private final long now = System.currentTimeMillis() / 1000 * 1000;
+
+    @Test
+    void admitsEverythingWhileBudgetUnknown() {
+        assertEquals(0, limiter.reserve(Priority.BACKGROUND, now));
+        assertEquals(0, limiter.reserve(Priority.INTERACTIVE, now));
+    }
+
+    @Test
+    void backgroundLeavesReserveToInteractive() throws IOException {
+        final long resetAt = now + 3_600_000;
+        respond(200, RESERVE + 1, resetAt, -1);
+
+        assertEquals(0, limiter.reserve(Priority.BACKGROUND, now));
+        // The reserve is reached, so background queries wait for the reset, after interactive queries
+        assertTrue(limiter.reserve(Priority.BACKGROUND, now) > resetAt - now);
+        for (int i = 0; i < RESERVE; i++) {
+            assertEquals(0, limiter.reserve(Priority.INTERACTIVE, now));
+        }
+        assertEquals(resetAt - now, limiter.reserve(Priority.INTERACTIVE, now));
+
+        // A new window renews the budget
+        assertEquals(0, limiter.reserve(Priority.BACKGROUND, resetAt));
+    }
+
+    @Test
+    void spacesOutBackgroundQueriesNearReserve() throws IOException {
+        final long resetAt = now + 100_000;
+        respond(200, 2 * RESERVE, resetAt, -1);
+
+        // The 10 points above the reserve are spread over the 100 seconds until the reset
+        assertEquals(0, limiter.reserve(Priority.BACKGROUND, now));
+        assertEquals(10_000, limiter.reserve(Priority.BACKGROUND, now));
+        assertEquals(4_000, limiter.reserve(Priority.BACKGROUND, now + 6_000));
+        assertEquals(0, limiter.reserve(Priority.BACKGROUND, now + 10_000));
+        // Interactive queries are not spaced out
+        assertEquals(0, limiter.reserve(Priority.INTERACTIVE, now + 10_000));
+    }
+
+    @Test
+    void secondaryLimitBlocksAllQueries() throws IOException {
+        final Response response = respond(403, 4000, now + 3_600_000, 60);
+        // The block starts when the response is received
+        final long received = System.currentTimeMillis();
+
+        final long interactive = limiter.reserve(Priority.INTERACTIVE, received);
+        assertTrue(interactive > 55_000 && interactive <= 60_000, Long.toString(interactive));
+        // Background queries resume a little later, so interactive queries go first
+        assertTrue(limiter.reserve(Priority.BACKGROUND, received) > interactive);
+        assertEquals(1, limiter.statistics().secondaryLimits());
+
+        assertTrue(GraphQLRateLimiter.isSecondaryRateLimit(new ApolloHttpException(response)));
+        assertFalse(GraphQLRateLimiter.isSecondaryRateLimit(new ApolloHttpException(respond(403, 4000,
+                now + 3_600_000, -1))));
+    }
+
+    @Test
+    void rejectsQueriesWaitingLongerThanMaxDelay() throws IOException {
+        respond(200, RESERVE, System.currentTimeMillis() + 3_600_000, -1);
+
+        limiter.admit(Priority.BACKGROUND).test().assertError(RateLimitedException.class);
+        limiter.admit(Priority.INTERACTIVE).test().assertComplete();
+        assertEquals(1, limiter.statistics().rejected());
+        assertEquals(RESERVE - 1, limiter.statistics().remaining());
+    }
+
+    /**
+     * Passes a response with the given rate limit headers through the limiter.
+     *
+     * @param retryAfter the seconds until a secondary rate limit ends, or {@code -1} for none
+     */
+    private Response respond(int code, int remaining, long resetAtMillis, int retryAfter) throws IOException {
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(limiter)
+                .addInterceptor(chain -> {
+                    final Response.Builder response = new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(code)
+                            .message(code == 200 ? "OK" : "Forbidden")
+                            .header("X-RateLimit-Limit", "5000")
+                            .header("X-RateLimit-Remaining", Integer.toString(remaining))
+                            .header("X-RateLimit-Reset", Long.toString(resetAtMillis / 1000))
+                            .body(ResponseBody.create("{}", JSON));
+                    if (retryAfter >= 0) {
+                        response.header("Retry-After", Integer.toString(retryAfter));
+                    }
+                    return response.build();
+                })
+                .build();
+        try (Response response = client.newCall(new Request.Builder()
+                .url("https://api.github.com/graphql")
+                .build()).execute()) {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.parchmentmc.nitwit.util.graphql;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryBatchingInterceptorTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final String NODE_QUERY = "query %s($id: ID!) { node(id: $id) { ...NodeInfo } } "
+            + "fragment NodeInfo on Node { __typename id }";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    /**
+     * The bodies of the requests which reached the network.
+     */
+    private final List<JsonNode> sent = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void mergesQueriesWithCollidingVariables() throws Exception {
+        final OkHttpClient client = client(Duration.ofSeconds(10), chain -> respond(chain, """
+                {"data": {"b0_node": {"__typename": "Issue", "id": "1"},
+                          "b1_node": {"__typename": "Issue", "id": "2"}}}"""));
+
+        final List<Future<Response>> responses = executeInOrder(
+                nodeQuery(client, "GetFirst", "1"), nodeQuery(client, "GetSecond", "2"));
+
+        assertBody("{\"data\": {\"node\": {\"__typename\": \"Issue\", \"id\": \"1\"}}}", responses.get(0));
+        assertBody("{\"data\": {\"node\": {\"__typename\": \"Issue\", \"id\": \"2\"}}}", responses.get(1));
+
+        assertEquals(1, sent.size(), "requests sent");
+        final JsonNode merged = sent.get(0);
+        assertEquals("GetFirst__GetSecond", merged.get("operationName").asText());
+        assertEquals(MAPPER.readTree("{\"b0_id\": \"1\", \"b1_id\": \"2\"}"), merged.get("variables"));
+        final String document = merged.get("query").asText();
+        assertTrue(document.startsWith("query GetFirst__GetSecond($b0_id: ID!, $b1_id: ID!) { "
+                + "b0_node: node(id: $b0_id) { ...NodeInfo } b1_node: node(id: $b1_id) { ...NodeInfo } }"), document);
+        // The fragment shared by both queries is defined once
+        assertEquals(document.indexOf("fragment NodeInfo"), document.lastIndexOf("fragment NodeInfo"), document);
+    }
+
+    @Test
+    void routesErrorsToTheirQuery() throws Exception {
+        final OkHttpClient client = client(Duration.ofSeconds(10), chain -> respond(chain, """
+                {"data": {"b0_node": {"__typename": "Issue", "id": "1"}, "b1_node": null},
+                 "errors": [{"message": "Not found", "path": ["b1_node"]},
+                            {"message": "Something went wrong"}]}"""));
+
+        final List<Future<Response>> responses = executeInOrder(
+                nodeQuery(client, "GetFirst", "1"), nodeQuery(client, "GetSecond", "2"));
+
+        assertBody("""
+                {"data": {"node": {"__typename": "Issue", "id": "1"}},
+                 "errors": [{"message": "Something went wrong"}]}""", responses.get(0));
+        assertBody("""
+                {"data": {"node": null},
+                 "errors": [{"message": "Not found", "path": ["node"]}, {"message": "Something went wrong"}]}""",
+                responses.get(1));
+    }
+
+    @Test
+    void reportsFailedBatchToEveryQuery() throws Exception {
+        final OkHttpClient client = client(Duration.ofSeconds(10), chain -> {
+            throw new IOException("Connection reset");
+        });
+
+        final List<Future<Response>> responses = executeInOrder(
+                nodeQuery(client, "GetFirst", "1"), nodeQuery(client, "GetSecond", "2"));
+
+        for (Future<Response> response : responses) {
+            final ExecutionException e = assertThrows(ExecutionException.class, response::get);
+            assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+        }
+    }
+
+    @Test
+    void leaderCancellationOnlyFailsItsOwnQuery() throws Exception {
+        final CountDownLatch batchSent = new CountDownLatch(1);
+        final CountDownLatch leaderCancelled = new CountDownLatch(1);
+        final OkHttpClient client = client(Duration.ofSeconds(10), chain -> {
+            if (sent.size() == 1) { // The batch, which is interrupted by the cancellation like a real call
+                batchSent.countDown();
+                awaitUninterruptibly(leaderCancelled);
+                throw new IOException("Canceled");
+            }
+            return respond(chain, "{\"data\": {\"node\": {\"__typename\": \"Issue\", \"id\": \"2\"}}}");
+        });
+
+        final Call leader = nodeQuery(client, "GetFirst", "1");
+        final List<Future<Response>> responses = executeInOrder(leader, nodeQuery(client, "GetSecond", "2"));
+        assertTrue(batchSent.await(5, TimeUnit.SECONDS));
+        leader.cancel();
+        leaderCancelled.countDown();
+
+        assertThrows(ExecutionException.class, () -> responses.get(0).get());
+        // The follower sends its query again on its own call
+        assertBody("{\"data\": {\"node\": {\"__typename\": \"Issue\", \"id\": \"2\"}}}", responses.get(1));
+        assertEquals(2, sent.size(), "requests sent");
+        assertEquals("GetSecond", sent.get(1).get("operationName").asText());
+    }
+
+    @Test
+    void followerWaitIsBounded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final OkHttpClient client = client(Duration.ofMillis(300), chain -> {
+            awaitUninterruptibly(release); // A stuck request, which does not honour the timeouts of the call
+            return respond(chain, "{\"data\": {}}");
+        }).newBuilder()
+                .connectTimeout(Duration.ofMillis(100))
+                .readTimeout(Duration.ofMillis(100))
+                .writeTimeout(Duration.ofMillis(100))
+                .build();
+
+        try {
+            final List<Future<Response>> responses = executeInOrder(
+                    nodeQuery(client, "GetFirst", "1"), nodeQuery(client, "GetSecond", "2"));
+
+            final ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> responses.get(1).get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof InterruptedIOException, e.getCause().toString());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private OkHttpClient client(Duration window, Interceptor network) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(new QueryBatchingInterceptor(window, 2))
+                .addInterceptor(chain -> {
+                    final Buffer buffer = new Buffer();
+                    chain.request().body().writeTo(buffer);
+                    sent.add(MAPPER.readTree(buffer.readByteArray()));
+                    return network.intercept(chain);
+                })
+                .build();
+    }
+
+    private static Call nodeQuery(OkHttpClient client, String operationName, String id) throws IOException {
+        final byte[] body = MAPPER.writeValueAsBytes(MAPPER.createObjectNode()
+                .put("operationName", operationName)
+                .put("query", NODE_QUERY.formatted(operationName))
+                .set("variables", MAPPER.createObjectNode().put("id", id)));
+        return client.newCall(new Request.Builder()
+                .url("https://api.github.com/graphql")
+                .header("Authorization", "Bearer token")
+                .post(RequestBody.create(body, JSON))
+                .build());
+    }
+
+    /**
+     * Executes the calls on their own threads, starting each once the previous one has had time to join its batch.
+     */
+    private List<Future<Response>> executeInOrder(Call... calls) throws InterruptedException {
+        final List<Future<Response>> futures = new CopyOnWriteArrayList<>();
+        for (Call call : calls) {
+            if (!futures.isEmpty()) {
+                Thread.sleep(200);
+            }
+            futures.add(executor.submit(call::execute));
+        }
+        return futures;
+    }
+
+    private static Response respond(Interceptor.Chain chain, String body) {
+        return new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(body, JSON))
+                .build();
+    }
+
+    private static void assertBody(String expected, Future<Response> response) throws Exception {
+        try (ResponseBody body = response.get(5, TimeUnit.SECONDS).body()) {
+            assertEquals(MAPPER.readTree(expected), MAPPER.readTree(body.bytes()));
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import com.apollographql.apollo.ApolloClient;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.github.api.type.CustomType;
+import com.github.api.type.PullRequestReviewState;
+import com.github.api.type.StatusState;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.parchmentmc.nitwit.util.graphql.DateTimeAdapter;
+import org.parchmentmc.nitwit.util.graphql.URIAdapter;
+import org.parchmentmc.nitwit.util.pr.RequirementCalculator.PullRequestState;
+import org.parchmentmc.nitwit.webhook.events.CheckSuiteEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestKey;
+import org.parchmentmc.nitwit.webhook.events.PullRequestReviewEvent;
+import org.parchmentmc.nitwit.webhook.events.PullRequestReviewThreadEvent;
+import org.parchmentmc.nitwit.webhook.events.RepositoryInfo;
+import org.parchmentmc.nitwit.webhook.events.StatusEvent;
+import org.parchmentmc.nitwit.webhook.events.UserInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PullRequestStateStoreTest {
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final PullRequestKey KEY = new PullRequestKey("ParchmentMC/Parchment", 7);
+    /**
+     * The head commit in GetPullRequest.json.
+     */
+    private static final String HEAD = "3f2c9a1d8e7b6c5a4f3e2d1c0b9a8f7e6d5c4b3a";
+    private static final String NEW_HEAD = "0123456789abcdef0123456789abcdef01234567";
+    private static final RepositoryInfo REPOSITORY = new RepositoryInfo(1, "R_1", "Parchment", KEY.repository(),
+            new UserInfo("ParchmentMC", 2, "Organization"));
+    private static final UserInfo SENDER = new UserInfo("alice", 3, "User");
+
+    private final PullRequestStateStore store = new PullRequestStateStore(Duration.ofHours(1));
+    private final AtomicInteger requests = new AtomicInteger();
+    private ApolloClient client;
+
+    @BeforeEach
+    void loadState() throws IOException {
+        final byte[] body;
+        try (InputStream in = PullRequestStateStoreTest.class.getResourceAsStream("GetPullRequest.json")) {
+            body = Objects.requireNonNull(in, "Missing GetPullRequest.json").readAllBytes();
+        }
+        // Answers every request with the pull request, without going to the network
+        final OkHttpClient http = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    requests.incrementAndGet();
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(body, JSON))
+                            .build();
+                })
+                .build();
+        client = ApolloClient.builder()
+                .serverUrl("https://api.github.com/graphql")
+                .okHttpClient(http)
+                .addCustomTypeAdapter(CustomType.DATETIME, new DateTimeAdapter(ZoneOffset.UTC))
+                .addCustomTypeAdapter(CustomType.URI, new URIAdapter())
+                .normalizedCache(new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION))
+                .build();
+
+        get();
+        assertEquals(1, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void appliesReviewsAndThreadsWithoutLoading() {
+        store.onReview(new PullRequestReviewEvent("submitted", new PullRequestReviewEvent.Review(10,
+                new UserInfo("dave", 4, "User"), "changes_requested", "2021-06-01T12:00:00Z",
+                "https://github.com/ParchmentMC/Parchment/pull/7#pullrequestreview-10"), pullRequest(HEAD),
+                REPOSITORY, SENDER));
+        store.onReviewThread(new PullRequestReviewThreadEvent("resolved",
+                new PullRequestReviewThreadEvent.ReviewThread("PRRT_1"), pullRequest(HEAD), REPOSITORY, SENDER));
+
+        final PullRequestState state = get();
+        assertEquals(1, requests.get(), "HTTP requests");
+        assertEquals(3, state.latestReviews().size());
+        assertEquals(PullRequestReviewState.CHANGES_REQUESTED, state.latestReviews().get(2).state());
+        assertEquals(3, state.resolvedThreads());
+        assertEquals(0, state.unresolvedThreads());
+        assertEquals(2, store.statistics().updates());
+    }
+
+    @Test
+    void commentReviewKeepsPreviousVerdict() {
+        store.onReview(new PullRequestReviewEvent("submitted", new PullRequestReviewEvent.Review(11,
+                new UserInfo("bob", 5, "User"), "commented", "2021-06-01T12:00:00Z",
+                "https://github.com/ParchmentMC/Parchment/pull/7#pullrequestreview-11"), pullRequest(HEAD),
+                REPOSITORY, SENDER));
+
+        final PullRequestState state = get();
+        assertEquals(2, state.latestReviews().size());
+        assertEquals(PullRequestReviewState.APPROVED, state.latestReviews().get(0).state());
+    }
+
+    @Test
+    void appliesFailuresToLoadedState() {
+        store.onStatus(status(HEAD, "ci", "failure"));
+        assertEquals(StatusState.FAILURE, get().commitStatus());
+        store.onStatus(status(HEAD, "lint", "error"));
+        assertEquals(StatusState.ERROR, get().commitStatus());
+        // A failure does not hide an earlier error, whichever context it comes from
+        store.onStatus(status(HEAD, "docs", "failure"));
+        assertEquals(StatusState.ERROR, get().commitStatus());
+        assertEquals(1, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void successInvalidatesLoadedState() {
+        store.onCheckSuite(checkSuite(HEAD, "completed", "success"));
+
+        assertNull(store.getCached(KEY));
+        get();
+        assertEquals(2, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void pushWithPartialStatusesDoesNotRollUpToSuccess() {
+        // Some contexts of the new head report before the push event, and others are still to come
+        store.onStatus(status(NEW_HEAD, "ci", "success"));
+        store.onCheckSuite(checkSuite(NEW_HEAD, "completed", "success"));
+        store.onPullRequest(new PullRequestEvent("synchronize", KEY.number(), pullRequest(NEW_HEAD), REPOSITORY,
+                SENDER));
+
+        assertNull(store.getCached(KEY), "state after a push without known failures");
+        get();
+        assertEquals(2, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void pushKeepsFailuresReportedBeforeIt() {
+        store.onStatus(status(NEW_HEAD, "ci", "success"));
+        store.onCheckSuite(checkSuite(NEW_HEAD, "completed", "failure"));
+        store.onPullRequest(new PullRequestEvent("synchronize", KEY.number(), pullRequest(NEW_HEAD), REPOSITORY,
+                SENDER));
+
+        final PullRequestState state = store.getCached(KEY);
+        assertNotNull(state);
+        assertEquals(StatusState.FAILURE, state.commitStatus());
+
+        // Statuses of the new head now reach the state, and those of the previous head no longer do
+        store.onStatus(status(NEW_HEAD, "lint", "error"));
+        store.onStatus(status(HEAD, "ci", "success"));
+        assertEquals(StatusState.ERROR, get().commitStatus());
+        assertEquals(1, requests.get(), "HTTP requests");
+    }
+
+    @Test
+    void reloadsChangedPullRequestFromNetwork() {
+        // Nothing changed the pull request, so the fresh cached response is used
+        store.invalidate(KEY);
+        get();
+        assertEquals(1, requests.get(), "HTTP requests");
+
+        // The cached response predates the event
+        store.onPullRequest(new PullRequestEvent("labeled", KEY.number(), pullRequest(HEAD), REPOSITORY, SENDER));
+        get();
+        assertEquals(2, requests.get(), "HTTP requests");
+    }
+
+    private PullRequestState get() {
+        return store.get(client, KEY.owner(), KEY.name(), KEY.number()).blockingGet();
+    }
+
+    private static PullRequestEvent.PullRequest pullRequest(String headSha) {
+        return new PullRequestEvent.PullRequest(100, "PR_7", KEY.number(), "open", "Map some fields", false, false,
+                true, "https://github.com/ParchmentMC/Parchment/pull/7", "2021-06-01T12:00:00Z", SENDER,
+                new PullRequestEvent.Ref("feature", headSha), new PullRequestEvent.Ref("main", "base"), List.of());
+    }
+
+    private static StatusEvent status(String sha, String context, String state) {
+        return new StatusEvent(sha, state, context, REPOSITORY, SENDER);
+    }
+
+    private static CheckSuiteEvent checkSuite(String sha, String status, String conclusion) {
+        return new CheckSuiteEvent(status, new CheckSuiteEvent.CheckSuite(sha.hashCode(), sha, status, conclusion),
+                REPOSITORY, SENDER);
+    }
+}
@@ -0,0 +1,68 @@
+package org.parchmentmc.nitwit.util.pr;
+
+import com.apollographql.apollo.ApolloClient;
+import com.github.api.type.CustomType;
+import com.github.api.type.MergeableState;
+import com.github.api.type.StatusState;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.parchmentmc.nitwit.util.graphql.DateTimeAdapter;
+import org.parchmentmc.nitwit.util.graphql.GraphQLHelper;
+import org.parchmentmc.nitwit.util.graphql.URIAdapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZoneOffset;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequirementCalculatorTest {
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    @Test
+    void queryStateMakesOneRequest() throws IOException {
+        final byte[] body;
+        try (InputStream in = RequirementCalculatorTest.class.getResourceAsStream("GetPullRequest.json")) {
+            body = Objects.requireNonNull(in, "Missing GetPullRequest.json").readAllBytes();
+        }
+        // Answers every request with the pull request, without going to the network
+        final AtomicInteger requests = new AtomicInteger();
+        final OkHttpClient http = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    requests.incrementAndGet();
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(body, JSON))
+                            .build();
+                })
+                .build();
+        final ApolloClient client = ApolloClient.builder()
+                .serverUrl("https://api.github.com/graphql")
+                .okHttpClient(http)
+                .addCustomTypeAdapter(CustomType.DATETIME, new DateTimeAdapter(ZoneOffset.UTC))
+                .addCustomTypeAdapter(CustomType.URI, new URIAdapter())
+                .build();
+
+        final long before = GraphQLHelper.statistics().queries().getOrDefault("GetPullRequest", 0L);
+        final RequirementCalculator.PullRequestState state = RequirementCalculator
+                .queryState(client, "ParchmentMC", "Parchment", 7)
+                .blockingGet();
+
+        assertEquals(1, requests.get(), "HTTP requests");
+        assertEquals(1, GraphQLHelper.statistics().queries().get("GetPullRequest") - before, "executed queries");
+        assertEquals(MergeableState.MERGEABLE, state.mergeableState());
+        assertEquals(StatusState.SUCCESS, state.commitStatus());
+        assertEquals(2, state.resolvedThreads());
+        assertEquals(1, state.unresolvedThreads());
+        assertEquals(2, state.latestReviews().size());
+    }
+}
@@ -0,0 +1,102 @@
+package org.parchmentmc.nitwit.webhook;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeliveryDeduplicatorTest {
+    /**
+     * With the smallest capacity, each stripe has as many slots as are probed, so every ID of a stripe competes for
+     * the same slots.
+     */
+    private static final int SLOTS = 8;
+
+    @Test
+    void detectsDuplicatesWithinWindow() {
+        final DeliveryDeduplicator deduplicator = new DeliveryDeduplicator(64, Duration.ofMinutes(1));
+        final UUID id = UUID.randomUUID();
+
+        assertTrue(deduplicator.tryRecord(id));
+        assertFalse(deduplicator.tryRecord(id));
+        assertFalse(deduplicator.tryRecord(new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits())));
+        assertTrue(deduplicator.tryRecord(UUID.randomUUID()));
+        assertEquals(2, deduplicator.statistics().recorded());
+        assertEquals(2, deduplicator.statistics().duplicates());
+    }
+
+    @Test
+    void forgetsAfterWindow() throws InterruptedException {
+        final DeliveryDeduplicator deduplicator = new DeliveryDeduplicator(64, Duration.ofMillis(50));
+        final UUID id = UUID.randomUUID();
+
+        assertTrue(deduplicator.tryRecord(id));
+        Thread.sleep(100);
+        assertTrue(deduplicator.tryRecord(id));
+        assertFalse(deduplicator.tryRecord(id));
+    }
+
+    @Test
+    void forgetAllowsRedelivery() {
+        final DeliveryDeduplicator deduplicator = new DeliveryDeduplicator(64, Duration.ofMinutes(1));
+        final UUID id = UUID.randomUUID();
+
+        assertTrue(deduplicator.tryRecord(id));
+        deduplicator.forget(id);
+        assertTrue(deduplicator.tryRecord(id));
+    }
+
+    @Test
+    void probesPastFreedSlots() {
+        final DeliveryDeduplicator deduplicator = new DeliveryDeduplicator(1, Duration.ofMinutes(1));
+        // Two IDs starting their probe at the same slot, so the second is stored in the slot after the first
+        final List<UUID> ids = collidingIDs(2, true);
+        assertTrue(deduplicator.tryRecord(ids.get(0)));
+        assertTrue(deduplicator.tryRecord(ids.get(1)));
+
+        // Freeing the first slot must not hide the second ID behind it
+        deduplicator.forget(ids.get(0));
+        assertFalse(deduplicator.tryRecord(ids.get(1)));
+        assertTrue(deduplicator.tryRecord(ids.get(0)));
+    }
+
+    @Test
+    void evictsSlotClosestToExpiryWhenFull() throws InterruptedException {
+        final DeliveryDeduplicator deduplicator = new DeliveryDeduplicator(1, Duration.ofMinutes(1));
+        final List<UUID> ids = collidingIDs(SLOTS + 1, false);
+        for (UUID id : ids.subList(0, SLOTS)) {
+            assertTrue(deduplicator.tryRecord(id));
+            Thread.sleep(1); // Distinct expiry times
+        }
+
+        // The stripe is full, so the oldest ID makes room
+        assertTrue(deduplicator.tryRecord(ids.get(SLOTS)));
+        for (UUID id : ids.subList(1, SLOTS + 1)) {
+            assertFalse(deduplicator.tryRecord(id), id.toString());
+        }
+        assertTrue(deduplicator.tryRecord(ids.get(0)));
+    }
+
+    /**
+     * Finds IDs which fall into the same stripe, optionally also starting their probe at the same slot.
+     */
+    private static List<UUID> collidingIDs(int count, boolean sameSlot) {
+        final List<UUID> ids = new ArrayList<>(count);
+        final long first = DeliveryDeduplicator.hash(new UUID(0, 0));
+        for (long i = 0; ids.size() < count; i++) {
+            final UUID id = new UUID(0, i);
+            final long hash = DeliveryDeduplicator.hash(id);
+            if (DeliveryDeduplicator.stripe(hash) == DeliveryDeduplicator.stripe(first)
+                    && (!sameSlot || (hash & (SLOTS - 1)) == (first & (SLOTS - 1)))) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,168 @@
+package org.parchmentmc.nitwit.webhook;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.parchmentmc.nitwit.webhook.events.WebhookEvent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebhookDispatcherTest {
+    private static final Instant EPOCH = Instant.parse("2021-06-01T12:00:00Z");
+
+    private final WebhookDispatcher dispatcher = new WebhookDispatcher(4, 256);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        release.countDown();
+        dispatcher.shutdown(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void handlesEventsOfLaneInOrder() throws InterruptedException {
+        final Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        final List<String> overlaps = new CopyOnWriteArrayList<>();
+        final WebhookEventHandler<TestEvent> handler = handler(event -> {
+            final AtomicInteger lane = running.computeIfAbsent(event.key(), k -> new AtomicInteger());
+            if (lane.incrementAndGet() > 1) {
+                overlaps.add(event.key() + " " + event.sequence());
+            }
+            Thread.yield();
+            handled.computeIfAbsent(event.key(), k -> new CopyOnWriteArrayList<>()).add(event.sequence());
+            lane.decrementAndGet();
+        });
+
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+            for (String key : List.of("a", "b", "c")) {
+                assertTrue(dispatcher.dispatchAndWait(delivery(handler, change(key, i))));
+            }
+        }
+        assertTrue(dispatcher.shutdown(Duration.ofSeconds(5)));
+
+        assertEquals(List.of(), overlaps, "events of the same lane handled at the same time");
+        assertEquals(Map.of("a", expected, "b", expected, "c", expected), handled);
+        assertEquals(0, dispatcher.statistics().lanes());
+    }
+
+    @Test
+    void handlesLanesInParallel() throws InterruptedException {
+        final CountDownLatch otherLaneHandled = new CountDownLatch(1);
+        final WebhookEventHandler<TestEvent> handler = handler(event -> {
+            if (event.key().equals("blocked")) {
+                awaitUninterruptibly(release);
+            } else {
+                otherLaneHandled.countDown();
+            }
+        });
+
+        assertTrue(dispatcher.dispatch(delivery(handler, change("blocked", 0))));
+        assertTrue(dispatcher.dispatch(delivery(handler, change("blocked", 1))));
+        assertTrue(dispatcher.dispatch(delivery(handler, change("other", 0))));
+
+        assertTrue(otherLaneHandled.await(5, TimeUnit.SECONDS), "other lane handled while the first is blocked");
+    }
+
+    @Test
+    void skipsStaleSnapshots() throws InterruptedException {
+        final List<Integer> handled = new CopyOnWriteArrayList<>();
+        final WebhookEventHandler<TestEvent> handler = handler(event -> {
+            if (event.sequence() == 0) { // Hold the lane, so the next events queue up behind it
+                awaitUninterruptibly(release);
+            }
+            handled.add(event.sequence());
+        });
+
+        dispatcher.dispatch(delivery(handler, snapshot("a", 0, EPOCH)));
+        dispatcher.dispatch(delivery(handler, snapshot("a", 1, EPOCH.plusSeconds(30))));
+        // Received after a newer snapshot, so it would undo its changes
+        dispatcher.dispatch(delivery(handler, snapshot("a", 2, EPOCH.plusSeconds(20))));
+        // A change rather than a snapshot, which is never skipped
+        dispatcher.dispatch(delivery(handler, change("a", 3)));
+        // The same update time as the last handled snapshot is not stale
+        dispatcher.dispatch(delivery(handler, snapshot("a", 4, EPOCH.plusSeconds(30))));
+        // Other lanes keep their own watermark
+        dispatcher.dispatch(delivery(handler, snapshot("b", 5, EPOCH.plusSeconds(10))));
+        release.countDown();
+        assertTrue(dispatcher.shutdown(Duration.ofSeconds(5)));
+
+        assertEquals(List.of(0, 1, 3, 4), handled.stream().filter(i -> i != 5).toList());
+        assertTrue(handled.contains(5), "event of the other lane handled");
+        final WebhookDispatcher.Statistics statistics = dispatcher.statistics();
+        assertEquals(1, statistics.stale());
+        assertEquals(5, statistics.handled());
+    }
+
+    @Test
+    void rejectsLiveDeliveriesWhenFull() throws InterruptedException {
+        final WebhookDispatcher small = new WebhookDispatcher(1, 1);
+        try {
+            final WebhookEventHandler<TestEvent> handler = handler(event -> awaitUninterruptibly(release));
+
+            assertTrue(small.dispatch(delivery(handler, change("a", 0))));
+            assertTrue(small.dispatch(delivery(handler, change("b", 1))));
+            assertFalse(small.dispatch(delivery(handler, change("c", 2))));
+            assertEquals(1, small.statistics().rejected());
+        } finally {
+            release.countDown();
+            small.shutdown(Duration.ofSeconds(5));
+        }
+    }
+
+    private static WebhookEventHandler<TestEvent> handler(Consumer<TestEvent> consumer) {
+        return WebhookEventHandler.of("test", TestEvent.class, consumer);
+    }
+
+    private static TestEvent change(String key, int sequence) {
+        return new TestEvent(key, sequence, null);
+    }
+
+    private static TestEvent snapshot(String key, int sequence, Instant updatedAt) {
+        return new TestEvent(key, sequence, updatedAt.toString());
+    }
+
+    private static WebhookDelivery<TestEvent> delivery(WebhookEventHandler<TestEvent> handler, TestEvent event) {
+        return new WebhookDelivery<>(UUID.randomUUID(), handler, event);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An event ordered by its key, which is a snapshot if it has an update time.
+     */
+    record TestEvent(String key, int sequence, @Nullable String updated_at) implements WebhookEvent {
+        @Override
+        public Object orderingKey() {
+            return key;
+        }
+
+        @Override
+        public @Nullable Instant updatedAt() {
+            return updated_at != null ? Instant.parse(updated_at) : null;
+        }
+    }
+}